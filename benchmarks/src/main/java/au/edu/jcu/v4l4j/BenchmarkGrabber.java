@@ -0,0 +1,112 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.Executors;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * This frame grabber overrides the driver methods of {@link AbstractGrabber}
+ * to produce frames as fast as they are requested, without a video device or
+ * the JNI library. Every frame goes through the same capture, hand-off and
+ * recycling code as frames captured from a real device, so the benchmarks
+ * measure v4l4j's own overhead.
+ * @author gilles
+ *
+ */
+class BenchmarkGrabber extends AbstractGrabber {
+	private static final ImageFormat	FORMAT = new ImageFormat("RAW", 0);
+
+	private final int					frameSize;
+	private long						sequence;
+
+	/**
+	 * This method builds and initialises a benchmark frame grabber.
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param buffers the number of video frames
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	BenchmarkGrabber(int width, int height, int buffers) throws V4L4JException {
+		super(null, 0, width, height, 0, 0, null, FORMAT, RAW_GRABBER,
+				Executors.defaultThreadFactory());
+		frameSize = width * height * 2;	// YUYV
+		sequence = 0;
+		setRequestedNumberOfVideoFrames(buffers);
+		init();
+	}
+
+	@Override
+	int initDriver(int numBuffers) {
+		return numBuffers;
+	}
+
+	@Override
+	int getDriverBufferSize() {
+		return frameSize;
+	}
+
+	@Override
+	void startDriver() {
+	}
+
+	@Override
+	int fillDriverBuffer(BaseVideoFrame frame) {
+		// touch the buffer, as the driver would
+		frame.getByteArray()[0] = (byte) sequence;
+		setLastCapturedFrame(frame.getBufferInex(), sequence++,
+				System.nanoTime() / 1000);
+		return frameSize;
+	}
+
+	@Override
+	void enqueueDriverBuffer(BaseVideoFrame frame) {
+	}
+
+	@Override
+	void stopDriver() {
+	}
+
+	@Override
+	void releaseDriver() {
+	}
+
+	@Override
+	protected void createBuffers(int bufferSize) {
+		int numberOfBuffers = nbV4LBuffers;
+
+		while(numberOfBuffers-- > 0)
+			videoFrames.add(new UncompressedVideoFrame(this, bufferSize, null, null));
+	}
+
+	@Override
+	public ImageFormat getImageFormat() {
+		state.checkReleased();
+		return FORMAT;
+	}
+
+	/**
+	 * This method returns the size of the frames produced by this frame
+	 * grabber.
+	 * @return the size of a frame in bytes
+	 */
+	int getFrameSize() {
+		return frameSize;
+	}
+}
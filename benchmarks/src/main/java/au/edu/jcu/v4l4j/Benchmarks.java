@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This class runs the v4l4j benchmarks once for each thread count, with the
+ * GC profiler to report the allocation rate, and writes the results of each 
+ * run to a JSON file which can be compared with those of another release.
+ * Any JMH command line option can be given, eg. a regular expression to 
+ * select benchmarks, or <code>-f 3</code>. The following properties are 
+ * also used:
+ * <ul>
+ * <li><code>v4l4j.bench.threads</code>: comma-separated thread counts, 
+ * <code>1,2,4</code> by default.</li>
+ * <li><code>v4l4j.bench.results</code>: the directory the results are written
+ * to, <code>results</code> by default. Files are named after the v4l4j
+ * version and the thread count.</li>
+ * <li><code>v4l4j.bench.device</code>: the video device used by 
+ * {@link DeviceConversionBenchmark}, which is skipped if it is not set.</li>
+ * </ul>
+ * @author gilles
+ *
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		File dir = new File(System.getProperty("v4l4j.bench.results", "results"));
+		Properties build = new Properties();
+		InputStream in = Benchmarks.class.getResourceAsStream("/v4l4j-benchmarks.properties");
+		try {
+			build.load(in);
+		} finally {
+			in.close();
+		}
+		String version = build.getProperty("version");
+		String device = System.getProperty("v4l4j.bench.device");
+
+		if (! dir.isDirectory() && ! dir.mkdirs())
+			throw new IllegalStateException("Cannot create " + dir);
+
+		for (String t : System.getProperty("v4l4j.bench.threads", "1,2,4").split(",")) {
+			int threads = Integer.parseInt(t.trim());
+			File results = new File(dir, "v4l4j-" + version + "-" + threads + "threads.json");
+
+			OptionsBuilder builder = new OptionsBuilder();
+			if (device == null)
+				builder.exclude(DeviceConversionBenchmark.class.getSimpleName());
+			else
+				builder.param("device", device);
+
+			Options options = builder
+					.parent(cmd)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result(results.getPath())
+					.build();
+
+			new Runner(options).run();
+			System.out.println("Results written to " + results);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the cost of converting a packed 4:2:2 or a 
+ * semi-planar frame with {@link YUVConverter}, to each of the supported 
+ * destination layouts, and with a {@link ParallelConverter} into pooled
+ * arrays. The <code>reference</code> benchmark converts the same frame one
+ * pixel at a time with floating point arithmetic, as straightforward Java 
+ * code would. 
+ * See {@link DeviceConversionBenchmark} for a comparison with libvideo.
+ * @author gilles
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+	@Param({"1920x1080"})
+	public String			resolution;
+
+	@Param({"YUYV", "UYVY", "NV12"})
+	public String			format;
+
+	private int				width, height;
+	private YUVConverter	converter;
+	private ParallelConverter	parallel;
+	private byte[]			src, bytes;
+	private int[]			ints;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String[] wh = resolution.split("x");
+		width = Integer.parseInt(wh[0]);
+		height = Integer.parseInt(wh[1]);
+		if (format.equals("YUYV"))
+			converter = YUVConverter.forFormat(V4L4JConstants.IMF_YUYV);
+		else if (format.equals("UYVY"))
+			converter = YUVConverter.forFormat(V4L4JConstants.IMF_UYVY);
+		else
+			converter = YUVConverter.forFormat(V4L4JConstants.IMF_NV12);
+		parallel = new ParallelConverter(converter, width, height);
+		src = new byte[converter.getFrameSize(width, height)];
+		new Random(0).nextBytes(src);
+		bytes = new byte[width * height * 3];
+		ints = new int[width * height];
+	}
+
+	@Benchmark
+	public byte[] toRGB24() {
+		converter.toRGB24(src, bytes, width, height);
+		return bytes;
+	}
+
+	@Benchmark
+	public byte[] toBGR24() {
+		converter.toBGR24(src, bytes, width, height);
+		return bytes;
+	}
+
+	@Benchmark
+	public int[] toARGB() {
+		converter.toARGB(src, ints, width, height);
+		return ints;
+	}
+
+	@Benchmark
+	public byte[] toYUV420() {
+		converter.toYUV420(src, bytes, width, height);
+		return bytes;
+	}
+
+	/**
+	 * Converts the frame to BGR24 with the shared pool of conversion 
+	 * threads, into a pooled array.
+	 */
+	@Benchmark
+	public int parallelToBGR24() {
+		byte[] bgr = parallel.toBGR24(src);
+		int first = bgr[0];
+		parallel.recycle(bgr);
+		return first;
+	}
+
+	@Benchmark
+	public byte[] toGrey() {
+		converter.toGrey(src, bytes, width, height);
+		return bytes;
+	}
+
+	/**
+	 * Converts the frame to RGB24 one pixel at a time, with floating point
+	 * arithmetic.
+	 */
+	@Benchmark
+	public byte[] reference() {
+		boolean packed = ! format.equals("NV12");
+		int y0 = format.equals("UYVY") ? 1 : 0, u = 1 - y0, v = 3 - y0;
+
+		for (int p = 0; p < width * height; p++) {
+			int s, cu, cv;
+			if (packed) {
+				s = (p / 2) * 4 + y0 + (p & 1) * 2;
+				cu = (p / 2) * 4 + u;
+				cv = (p / 2) * 4 + v;
+			} else {
+				// interleaved chroma at half the vertical resolution, U first
+				s = p;
+				cu = width * height + (p / width / 2) * width + (p % width & ~1);
+				cv = cu + 1;
+			}
+			float y = 1.164f * ((src[s] & 0xff) - 16);
+			float cb = (src[cu] & 0xff) - 128, cr = (src[cv] & 0xff) - 128;
+			bytes[p * 3] = clamp(y + 1.596f * cr);
+			bytes[p * 3 + 1] = clamp(y - 0.813f * cr - 0.391f * cb);
+			bytes[p * 3 + 2] = clamp(y + 2.018f * cb);
+		}
+		return bytes;
+	}
+
+	private static byte clamp(float f) {
+		return (byte) Math.max(0, Math.min(255, Math.round(f)));
+	}
+}
@@ -0,0 +1,163 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * This benchmark compares converting frames to RGB24 in libvideo, with an
+ * {@link RGBFrameGrabber}, to capturing them with a {@link RawFrameGrabber}
+ * and converting them with a {@link YUVConverter}. It needs a video device 
+ * able to capture YUYV frames, and the JNI library, so 
+ * {@link Benchmarks} only runs it when the <code>v4l4j.bench.device</code>
+ * property is set.<br>
+ * Both benchmarks wait for the device to capture the next frame, so their
+ * run time is the frame interval. The CPU time used by the benchmark 
+ * thread per frame, which includes the conversion done by libvideo in the
+ * first case, is reported by the <code>cpuTime</code> counter (in 
+ * nanoseconds per frame).
+ * @author gilles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class DeviceConversionBenchmark {
+	private static final ThreadMXBean	THREADS = ManagementFactory.getThreadMXBean();
+
+	@Param({"/dev/video0"})
+	public String			device;
+
+	@Param({"640x480"})
+	public String			resolution;
+
+	@Param({"native", "java"})
+	public String			conversion;
+
+	private VideoDevice		videoDevice;
+	private FrameGrabber	grabber;
+	private YUVConverter	converter;
+	private int				width, height;
+	private byte[]			rgb;
+
+	/**
+	 * The CPU time used by the benchmark thread.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class CpuTime {
+		private long		frames, cpuTime;
+
+		/**
+		 * This method returns the average CPU time per frame.
+		 * @return the CPU time per frame in nanoseconds
+		 */
+		public long cpuTime() {
+			return (frames == 0) ? 0 : (cpuTime / frames);
+		}
+
+		void add(long time) {
+			cpuTime += time;
+			frames++;
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			frames = 0;
+			cpuTime = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws V4L4JException {
+		String[] wh = resolution.split("x");
+		width = Integer.parseInt(wh[0]);
+		height = Integer.parseInt(wh[1]);
+		videoDevice = new VideoDevice(device);
+		ImageFormat yuyv = videoDevice.getDeviceInfo().getFormatList()
+				.getNativeFormat(V4L4JConstants.IMF_YUYV);
+		if (yuyv == null)
+			throw new ImageFormatException(device + " cannot capture YUYV frames");
+
+		if (conversion.equals("native")) {
+			grabber = videoDevice.getRGBFrameGrabber(width, height, 0,
+					V4L4JConstants.STANDARD_WEBCAM, yuyv);
+		} else {
+			grabber = videoDevice.getRawFrameGrabber(width, height, 0,
+					V4L4JConstants.STANDARD_WEBCAM, yuyv);
+			converter = YUVConverter.forFormat(V4L4JConstants.IMF_YUYV);
+		}
+		// the device may have adjusted the resolution
+		width = grabber.getWidth();
+		height = grabber.getHeight();
+		rgb = new byte[width * height * 3];
+		grabber.startCapture();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		grabber.stopCapture();
+		videoDevice.releaseFrameGrabber();
+		videoDevice.release();
+	}
+
+	/**
+	 * Takes a frame, converted to RGB24 by libvideo or by a 
+	 * {@link YUVConverter}, and copies it to an array.
+	 */
+	@Benchmark
+	public byte[] takeRGB24(CpuTime counter) throws V4L4JException {
+		long start = THREADS.getCurrentThreadCpuTime();
+		VideoFrame frame = grabber.take();
+		try {
+			if (converter == null)
+				System.arraycopy(frame.getBytes(), 0, rgb, 0, rgb.length);
+			else
+				converter.toRGB24(frame.getBytes(), rgb, width, height);
+		} finally {
+			frame.recycle();
+		}
+		counter.add(THREADS.getCurrentThreadCpuTime() - start);
+		return rgb;
+	}
+}
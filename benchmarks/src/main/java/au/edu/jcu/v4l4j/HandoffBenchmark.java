@@ -0,0 +1,183 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * This benchmark compares the queue of recycled frames used by frame 
+ * grabbers, {@link FrameRing}, with the <code>Vector</code> guarded by 
+ * wait/notify it replaced. Two threads pass a fixed set of frames back and
+ * forth through two queues, as the capture thread and the application do 
+ * with real frames. Each operation is one frame handed over.
+ * @author gilles
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+	// how long a blocked thread waits before checking whether the 
+	// iteration is over
+	private static final long	TIMEOUT = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@State(Scope.Group)
+	public static class Rings {
+		@Param({"4"})
+		public int				frames;
+
+		@Param({"PARK", "SPIN"})
+		public WaitStrategy		waitStrategy;
+
+		FrameRing				toApplication;
+		FrameRing				toCapture;
+
+		@Setup(Level.Iteration)
+		public void setUp() throws V4L4JException {
+			toApplication = new FrameRing(frames, waitStrategy);
+			toCapture = new FrameRing(frames, waitStrategy);
+			for (BaseVideoFrame frame : newFrames(frames))
+				toCapture.offer(frame);
+		}
+	}
+
+	@State(Scope.Group)
+	public static class Vectors {
+		@Param({"4"})
+		public int				frames;
+
+		VectorQueue				toApplication;
+		VectorQueue				toCapture;
+
+		@Setup(Level.Iteration)
+		public void setUp() throws V4L4JException {
+			toApplication = new VectorQueue();
+			toCapture = new VectorQueue();
+			for (BaseVideoFrame frame : newFrames(frames))
+				toCapture.offer(frame);
+		}
+	}
+
+	@Benchmark
+	@Group("ring")
+	@GroupThreads(1)
+	public BaseVideoFrame ringCapture(Rings q, Control control) {
+		return pass(q.toCapture, q.toApplication, control);
+	}
+
+	@Benchmark
+	@Group("ring")
+	@GroupThreads(1)
+	public BaseVideoFrame ringApplication(Rings q, Control control) {
+		return pass(q.toApplication, q.toCapture, control);
+	}
+
+	@Benchmark
+	@Group("vector")
+	@GroupThreads(1)
+	public BaseVideoFrame vectorCapture(Vectors q, Control control) {
+		return pass(q.toCapture, q.toApplication, control);
+	}
+
+	@Benchmark
+	@Group("vector")
+	@GroupThreads(1)
+	public BaseVideoFrame vectorApplication(Vectors q, Control control) {
+		return pass(q.toApplication, q.toCapture, control);
+	}
+
+	private static BaseVideoFrame pass(FrameRing from, FrameRing to, Control control) {
+		BaseVideoFrame frame;
+		while ((frame = from.take(TIMEOUT)) == null)
+			if (control.stopMeasurement)
+				return null;
+		to.offer(frame);
+		return frame;
+	}
+
+	private static BaseVideoFrame pass(VectorQueue from, VectorQueue to, Control control) {
+		BaseVideoFrame frame;
+		while ((frame = from.take(TIMEOUT)) == null)
+			if (control.stopMeasurement)
+				return null;
+		to.offer(frame);
+		return frame;
+	}
+
+	private static BaseVideoFrame[] newFrames(int count) throws V4L4JException {
+		// the frames are never delivered, so their grabber is never started
+		BenchmarkGrabber grabber = new BenchmarkGrabber(16, 16, count);
+		BaseVideoFrame[] frames = new BaseVideoFrame[count];
+		for (int i = 0; i < count; i++)
+			frames[i] = new UncompressedVideoFrame(grabber, grabber.getFrameSize(), null, null);
+		return frames;
+	}
+
+	/**
+	 * The queue of recycled frames used by frame grabbers before 
+	 * {@link FrameRing}.
+	 */
+	static class VectorQueue {
+		private final Vector<BaseVideoFrame>	frames = new Vector<BaseVideoFrame>();
+
+		void offer(BaseVideoFrame frame) {
+			synchronized (frames) {
+				frames.add(frame);
+				frames.notify();
+			}
+		}
+
+		BaseVideoFrame take(long timeout) {
+			long deadline = System.nanoTime() + timeout;
+			synchronized (frames) {
+				while (frames.size() == 0) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0)
+						return null;
+					try {
+						TimeUnit.NANOSECONDS.timedWait(frames, left);
+					} catch (InterruptedException e) {
+						return null;
+					}
+				}
+				return frames.remove(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * This benchmark measures the cost of capturing a frame in pull mode with
+ * {@link FrameGrabber#take()}, and of recycling it, ie. everything v4l4j
+ * does around the driver. When run with several threads, they contend for 
+ * the frame grabber as applications sharing it would.
+ * @author gilles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PullCaptureBenchmark {
+	@Param({"640x480"})
+	public String			resolution;
+
+	@Param({"4"})
+	public int				buffers;
+
+	@Param({"PARK", "SPIN"})
+	public WaitStrategy		waitStrategy;
+
+	private BenchmarkGrabber	grabber;
+
+	@Setup(Level.Trial)
+	public void setUp() throws V4L4JException {
+		String[] wh = resolution.split("x");
+		grabber = new BenchmarkGrabber(Integer.parseInt(wh[0]),
+				Integer.parseInt(wh[1]), buffers);
+		grabber.setWaitStrategy(waitStrategy);
+		grabber.startCapture();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		grabber.stopCapture();
+		grabber.release();
+	}
+
+	/**
+	 * Takes a frame and recycles it straight away.
+	 */
+	@Benchmark
+	public long takeAndRecycle() throws V4L4JException {
+		VideoFrame frame = grabber.take();
+		long sequence = frame.getSequenceNumber();
+		frame.recycle();
+		return sequence;
+	}
+
+	/**
+	 * Takes a frame, reads its data through the read-only buffer view, and
+	 * recycles it.
+	 */
+	@Benchmark
+	public int takeReadAndRecycle() throws V4L4JException {
+		VideoFrame frame = grabber.take();
+		int first = frame.getByteBuffer().get(0);
+		frame.recycle();
+		return first;
+	}
+
+	/**
+	 * Takes a frame and hands it to a lease, which recycles it when closed.
+	 */
+	@Benchmark
+	public long takeWithLease() throws V4L4JException {
+		FrameLease lease = grabber.take().lease();
+		try {
+			return lease.getFrame().getSequenceNumber();
+		} finally {
+			lease.close();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * This benchmark measures the cost of delivering a frame in push mode, from
+ * the capture thread through the {@link DispatchStrategy} to the capture 
+ * callback, and back to the frame grabber when it is recycled. The callback
+ * hands frames over to the benchmark threads, which recycle them, so each 
+ * operation is one frame going all the way round.
+ * @author gilles
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushCaptureBenchmark {
+	@Param({"640x480"})
+	public String			resolution;
+
+	@Param({"4"})
+	public int				buffers;
+
+	@Param({"inline", "pooled(1)", "pooled(4)"})
+	public String			dispatch;
+
+	@Param({"BLOCK", "DROP_OLDEST"})
+	public BackpressurePolicy	policy;
+
+	private BenchmarkGrabber			grabber;
+	private BlockingQueue<VideoFrame>	delivered;
+	private volatile boolean			running;
+
+	@Setup(Level.Trial)
+	public void setUp() throws V4L4JException {
+		String[] wh = resolution.split("x");
+		grabber = new BenchmarkGrabber(Integer.parseInt(wh[0]),
+				Integer.parseInt(wh[1]), buffers);
+		delivered = new ArrayBlockingQueue<VideoFrame>(buffers);
+		running = true;
+
+		grabber.setDispatchStrategy(parseStrategy(dispatch));
+		grabber.setBackpressurePolicy(policy, Math.max(1, buffers / 2));
+		grabber.setCaptureCallback(new CaptureCallback() {
+			@Override
+			public void nextFrame(VideoFrame frame) {
+				try {
+					// do not block forever, so the capture can be stopped
+					while (running)
+						if (delivered.offer(frame, 1, TimeUnit.MILLISECONDS))
+							return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				frame.recycle();
+			}
+
+			@Override
+			public void exceptionReceived(V4L4JException e) {
+				e.printStackTrace();
+			}
+		});
+		grabber.startCapture();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		running = false;
+		grabber.stopCapture();
+		delivered.clear();
+		grabber.release();
+	}
+
+	/**
+	 * Waits for the next frame delivered to the capture callback, and 
+	 * recycles it.
+	 */
+	@Benchmark
+	public long receiveAndRecycle() throws InterruptedException {
+		VideoFrame frame = delivered.poll(1, TimeUnit.SECONDS);
+		if (frame == null)
+			throw new IllegalStateException("No frame delivered for 1 second");
+
+		long sequence = frame.getSequenceNumber();
+		frame.recycle();
+		return sequence;
+	}
+
+	private static DispatchStrategy parseStrategy(String name) {
+		if (name.equals("inline"))
+			return DispatchStrategy.inline();
+		if (name.startsWith("pooled(") && name.endsWith(")"))
+			return DispatchStrategy.pooled(Integer.parseInt(
+					name.substring("pooled(".length(), name.length() - 1)));
+		throw new IllegalArgumentException("Unknown dispatch strategy " + name);
+	}
+}
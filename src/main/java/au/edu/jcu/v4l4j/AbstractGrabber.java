@@ -23,8 +23,12 @@
  */
 package au.edu.jcu.v4l4j;
 
+import java.util.Collection;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.Vector;
 
 import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
@@ -64,7 +68,8 @@ abstract class AbstractGrabber implements FrameGrabber {
 	private int 						standard;
 	protected int 						nbV4LBuffers;
 	protected Vector<BaseVideoFrame> 	videoFrames;
-	private Vector<BaseVideoFrame> 		availableVideoFrames;
+	private FrameRing					availableVideoFrames;
+	private WaitStrategy				waitStrategy;
 	protected State 					state;
 	protected int 						format;
 	private Tuner 						tuner;
@@ -72,8 +77,23 @@ abstract class AbstractGrabber implements FrameGrabber {
 	private long						lastCapturedFrameSequence;	// update v4l4j_FrameGrabber.c if
 	private long						lastCapturedFrameTimeuSec;	// these three names are changed
 	private int							lastCapturedFrameBufferIndex;//
+	// whether getAvailableVideoFrame() had to wait since the last frame
+	private boolean						starved;
+	// whether startCapture() has offered all video frames
+	private volatile boolean			framesOffered;
 	private PushSource					pushSource;
 	private ThreadFactory				threadFactory;
+	private final ReentrantLock			pullLock = new ReentrantLock();
+	private DispatchStrategy			dispatchStrategy;
+	private BackpressurePolicy			backpressurePolicy;
+	private int							lagBudget;
+	private volatile FrameLossListener	frameLossListener;
+	// the frame interval when the capture was last started, as it cannot be
+	// read from the driver while capturing
+	private volatile DiscreteInterval	captureFrameInterval;
+	private final CaptureStatistics		statistics = new CaptureStatistics();
+	private final BufferUsage			bufferUsage = new BufferUsage();
+	private final ClockCorrelator		clockCorrelator = new ClockCorrelator();
 
 	/*
 	 * JNI returns a long (which is really a pointer) when a device is allocated
@@ -81,13 +101,22 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 */
 	protected long object;
 
+	/*
+	 * The error raised when loading the JNI library, if any. It is thrown
+	 * when a frame grabber backed by a video device is initialised, so that 
+	 * frame grabbers which do not use the driver (see the driver methods 
+	 * below) can be used without the JNI library.
+	 */
+	private static final UnsatisfiedLinkError linkError;
+
 	static {
+		UnsatisfiedLinkError error = null;
 		try {
 			System.loadLibrary("v4l4j");
 		} catch (UnsatisfiedLinkError e) {
-			System.err.println("Cant load v4l4j JNI library");
-			throw e;
+			error = e;
 		}
+		linkError = error;
 	}
 
 
@@ -156,9 +185,13 @@ abstract class AbstractGrabber implements FrameGrabber {
 		// Check property for user-specified number of buffers - otherwise use 4.
 		nbV4LBuffers = (System.getProperty("v4l4j.num_driver_buffers") != null) ? Integer.parseInt(System.getProperty("v4l4j.num_driver_buffers")) : 4;
 		videoFrames = new Vector<BaseVideoFrame>();
-		availableVideoFrames = new Vector<BaseVideoFrame>();
+		waitStrategy = WaitStrategy.fromProperty();
+		availableVideoFrames = new FrameRing(nbV4LBuffers, waitStrategy);
 		pushSource = null;
 		threadFactory = factory;
+		dispatchStrategy = DispatchStrategy.inline();
+		backpressurePolicy = BackpressurePolicy.BLOCK;
+		lagBudget = 1;
 	}
 
 
@@ -186,15 +219,118 @@ abstract class AbstractGrabber implements FrameGrabber {
 
 		// Initialise libvideo and setup capture parameters
 		// Return value is the number of buffers mmaped into the driver's memory
-		nbV4LBuffers = doInit(object, nbV4LBuffers, width, height, channel, standard, format, type);
-		int bufferSize = getBufferSize(object);
+		nbV4LBuffers = initDriver(nbV4LBuffers);
+		int bufferSize = getDriverBufferSize();
 
-		// Create the V4L4J data buffer objects
+		// Create the V4L4J data buffer objects, and a ring large enough to
+		// hold all of them
 		createBuffers(bufferSize);
+		availableVideoFrames = new FrameRing(nbV4LBuffers, waitStrategy);
+		bufferUsage.setBuffers(nbV4LBuffers, bufferSize);
 
 		state.commit();
 	}
 
+	/*
+	 * Driver methods: these methods are the only ones which access the video
+	 * device during capture. They call the JNI library, and can be overridden
+	 * by frame grabbers which produce frames by other means.
+	 */
+
+	/**
+	 * This method initialises the driver and sets the capture parameters.
+	 * @param numBuffers the number of buffers requested
+	 * @return the number of buffers actually allocated
+	 * @throws V4L4JException if the capture parameters cannot be applied
+	 * @throws UnsatisfiedLinkError if the JNI library could not be loaded
+	 */
+	int initDriver(int numBuffers) throws V4L4JException {
+		if (linkError != null) {
+			System.err.println("Cant load v4l4j JNI library");
+			throw linkError;
+		}
+		return doInit(object, numBuffers, width, height, channel, standard, format, type);
+	}
+
+	/**
+	 * This method returns the size of a driver buffer.
+	 * @return the size of a driver buffer in bytes
+	 */
+	int getDriverBufferSize() {
+		return getBufferSize(object);
+	}
+
+	/**
+	 * This method starts the capture and queues all buffers in the driver.
+	 * @throws V4L4JException if the capture cannot be started
+	 */
+	void startDriver() throws V4L4JException {
+		start(object);
+	}
+
+	/**
+	 * This method blocks until the driver has captured a new frame, and
+	 * stores it in the given video frame. Implementations must then call
+	 * {@link #setLastCapturedFrame(int, long, long)}, which the JNI library
+	 * does on its own.
+	 * @param frame the video frame to store the image in
+	 * @return the size of the image in bytes
+	 * @throws V4L4JException if there is an error capturing the frame, or
+	 * the capture is stopped while waiting.
+	 */
+	int fillDriverBuffer(BaseVideoFrame frame) throws V4L4JException {
+		return fillBuffer(object, frame.getByteArray());
+	}
+
+	/**
+	 * This method returns the buffer used by the given video frame to the 
+	 * driver.
+	 * @param frame the recycled video frame
+	 */
+	void enqueueDriverBuffer(BaseVideoFrame frame) {
+		enqueueBuffer(object, frame.getBufferInex());
+	}
+
+	/**
+	 * This method stops the capture, and wakes up threads blocked in
+	 * {@link #fillDriverBuffer(BaseVideoFrame)}.
+	 */
+	void stopDriver() {
+		stop(object);
+	}
+
+	/**
+	 * This method releases the resources allocated by 
+	 * {@link #initDriver(int)}.
+	 */
+	void releaseDriver() {
+		doRelease(object);
+	}
+
+	/**
+	 * This method records the buffer index, sequence number and timestamp of
+	 * the frame captured by {@link #fillDriverBuffer(BaseVideoFrame)}.
+	 * @param index the index of the buffer holding the frame
+	 * @param sequence the frame's sequence number
+	 * @param timeUs the frame's capture time in microseconds
+	 */
+	final void setLastCapturedFrame(int index, long sequence, long timeUs) {
+		lastCapturedFrameBufferIndex = index;
+		lastCapturedFrameSequence = sequence;
+		lastCapturedFrameTimeuSec = timeUs;
+	}
+
+	/**
+	 * This method sets the number of buffers requested from the driver by
+	 * {@link #init()}, instead of the value of the 
+	 * <code>v4l4j.num_driver_buffers</code> property. It is used by 
+	 * {@link VideoDevice} before initialising this frame grabber.
+	 * @param count the number of buffers to request
+	 */
+	final void setRequestedNumberOfVideoFrames(int count) {
+		nbV4LBuffers = count;
+	}
+
 	/**
 	 * This abstract method is called when {@link #init()} succeeds and is
 	 * responsible for populating the {@link #videoFrames} member (vector of 
@@ -217,9 +353,35 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 */
 	@Override
 	public int getNumberOfRecycledVideoFrames(){
-		synchronized(availableVideoFrames) {
-			return availableVideoFrames.size();
-		}
+		return availableVideoFrames.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#recycleVideoFrames(java.util.Collection)
+	 */
+	@Override
+	public final void recycleVideoFrames(Collection<? extends VideoFrame> frames) {
+		// V4L2 returns buffers to the driver one at a time
+		for (VideoFrame frame : frames)
+			frame.recycle();
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setWaitStrategy(au.edu.jcu.v4l4j.WaitStrategy)
+	 */
+	@Override
+	public final void setWaitStrategy(WaitStrategy strategy) {
+		state.checkReleased();
+		availableVideoFrames.setWaitStrategy(strategy);
+		waitStrategy = strategy;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getWaitStrategy()
+	 */
+	@Override
+	public final WaitStrategy getWaitStrategy() {
+		return waitStrategy;
 	}
 
 	/* (non-Javadoc)
@@ -252,6 +414,27 @@ abstract class AbstractGrabber implements FrameGrabber {
 		}
 	}
 
+	/**
+	 * This method returns the current frame interval, like 
+	 * {@link #getFrameInterval()}, except that while capturing it returns 
+	 * the frame interval read when the capture was started instead of 
+	 * throwing a {@link StateException}.
+	 * @return the current frame interval, or <code>null</code> if it is not
+	 * known
+	 * @throws StateException if this frame grabber has been released
+	 */
+	final DiscreteInterval getCurrentFrameInterval() {
+		if (state.isStarted())
+			return captureFrameInterval;
+
+		try {
+			return getFrameInterval();
+		} catch (StateException e) {
+			// the capture was started in the meantime
+			return captureFrameInterval;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see au.edu.jcu.v4l4j.FrameGrabber#setVideoInputNStandard()
 	 */
@@ -309,32 +492,136 @@ abstract class AbstractGrabber implements FrameGrabber {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setDispatchStrategy(au.edu.jcu.v4l4j.DispatchStrategy)
+	 */
+	@Override
+	public final void setDispatchStrategy(DispatchStrategy strategy) {
+		if (strategy == null)
+			throw new NullPointerException("The dispatch strategy cannot be null");
+
+		synchronized (state){
+			// make sure we are in the right state.
+			if (state.isStarted())
+				throw new StateException("This frame grabber is already started");
+
+			dispatchStrategy = strategy;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getDispatchStrategy()
+	 */
+	@Override
+	public final DispatchStrategy getDispatchStrategy() {
+		return dispatchStrategy;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setFrameLossListener(au.edu.jcu.v4l4j.FrameLossListener)
+	 */
+	@Override
+	public final void setFrameLossListener(FrameLossListener listener) {
+		frameLossListener = listener;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setBackpressurePolicy(au.edu.jcu.v4l4j.BackpressurePolicy, int)
+	 */
+	@Override
+	public final void setBackpressurePolicy(BackpressurePolicy policy, int budget) {
+		if (policy == null)
+			throw new NullPointerException("The backpressure policy cannot be null");
+		if (budget < 1)
+			throw new IllegalArgumentException("The lag budget must be at least 1");
+
+		synchronized (state){
+			// make sure we are in the right state.
+			if (state.isStarted())
+				throw new StateException("This frame grabber is already started");
+
+			backpressurePolicy = policy;
+			lagBudget = budget;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getBackpressurePolicy()
+	 */
+	@Override
+	public final BackpressurePolicy getBackpressurePolicy() {
+		return backpressurePolicy;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getLagBudget()
+	 */
+	@Override
+	public final int getLagBudget() {
+		return lagBudget;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getStatistics()
+	 */
+	@Override
+	public final CaptureStatistics getStatistics() {
+		return statistics;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getClockCorrelator()
+	 */
+	@Override
+	public final ClockCorrelator getClockCorrelator() {
+		return clockCorrelator;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getBufferUsage()
+	 */
+	@Override
+	public final BufferUsage getBufferUsage() {
+		return bufferUsage;
+	}
+
 	/* (non-Javadoc)
 	 * @see au.edu.jcu.v4l4j.FrameGrabber#startCapture()
 	 */
 	@Override
 	public final void startCapture() throws V4L4JException {
-		state.start();
-
-		// make sure we have a push source
-		if(pushSource == null) {
-			state.rollback();
-			throw new V4L4JException("setCaptureCallback() must be called with a valid "
-					+ "callback object before startCapture()"); 
+		DiscreteInterval interval;
+		try {
+			interval = getFrameInterval();
+		} catch (RuntimeException e) {
+			// not supported by the driver, or already capturing
+			interval = null;
 		}
 
-		// start the push source and wait until it's blocked on getVideoFrame()
-		pushSource.startCapture();
-		state.waitForAtLeastOneUser();
+		state.start();
+		captureFrameInterval = interval;
+		availableVideoFrames.open();
+		statistics.captureStarted();
+		bufferUsage.captureStarted();
+		starved = false;
+		framesOffered = false;
+
+		// in push mode, start the push source and wait until it's blocked on 
+		// getVideoFrame(). In pull mode, the application will call it.
+		if(pushSource != null) {
+			pushSource.startCapture();
+			state.waitForAtLeastOneUser();
+		}
 
 		try {
 			// start video capture and enqueue all buffers
-			start(object);
+			startDriver();
 		} catch (V4L4JException e) {
 			// Error starting the capture...
 
 			// stop the push source thread
-			pushSource.stopCapture();
+			if(pushSource != null)
+				pushSource.stopCapture();
 
 			// return to previous state
 			state.rollback();
@@ -347,62 +634,224 @@ abstract class AbstractGrabber implements FrameGrabber {
 		state.commit();
 
 		// put all frames into the available queue and wake up push source thread
-		synchronized(availableVideoFrames){
-			availableVideoFrames.addAll(videoFrames);
-			availableVideoFrames.notifyAll();
+		long now = System.nanoTime();
+		for (BaseVideoFrame frame : videoFrames) {
+			frame.setRecycleTime(now);
+			availableVideoFrames.offer(frame);
 		}
+		framesOffered = true;
 	}
 
 	/**
 	 * This method is called as part of {@link #getVideoFrame()}. It retrieves a video
 	 * frame marked as available (recycled). if no frame is available, this method
-	 * will block. If interrupted while waiting, a {@link StateException} will
-	 * be thrown
-	 * @return an available video frame.
+	 * will wait as per the current {@link WaitStrategy}. If interrupted while 
+	 * waiting, or if the capture is stopped, a {@link StateException} will be 
+	 * thrown
+	 * @param timeout how long to wait in nanoseconds, 0 not to wait at all, 
+	 * or a negative value to wait until a frame is recycled
+	 * @return an available video frame, or null if none became available 
+	 * within the timeout.
 	 * @thrown {@link StateException} if interrupted while waiting.
 	 */
-	private BaseVideoFrame	getAvailableVideoFrame() {
-		BaseVideoFrame frame = null;
-
-		// block until a video frame is available
-		synchronized (availableVideoFrames) {
-			while (availableVideoFrames.size() == 0)
-				try {
-					availableVideoFrames.wait();
-				} catch (InterruptedException e) {
-					throw new StateException("Interrupted while waiting for a video frame", e);
-				}
-
-				// get the video frame
-				frame = availableVideoFrames.remove(0);
+	private BaseVideoFrame	getAvailableVideoFrame(long timeout) {
+		BaseVideoFrame frame = availableVideoFrames.poll();
+		if (frame != null)
+			return frame;
+
+		// the application holds all video frames: block until one is 
+		// recycled, as per the wait strategy. The driver may run out of
+		// buffers in the meantime, so frames lost before the next one are
+		// blamed on the application. Waiting for the frames startCapture()
+		// has yet to offer is not a starvation.
+		if (framesOffered) {
+			bufferUsage.noFrameAvailable();
+			starved = true;
 		}
+		return availableVideoFrames.take(timeout);
+	}
 
-		return frame;
+	final BaseVideoFrame getNextVideoFrame() throws V4L4JException {
+		return getNextVideoFrame(-1);
 	}
 
-	final VideoFrame getNextVideoFrame() throws V4L4JException {
+	/**
+	 * This method retrieves the next captured frame, waiting at most the 
+	 * given amount of time for a video frame to be recycled if none is 
+	 * available. Once a video frame is available, this method blocks until
+	 * the driver has a new frame.
+	 * @param timeout how long to wait for a recycled frame in nanoseconds, 
+	 * 0 not to wait at all, or a negative value to wait until one is recycled
+	 * @return the next video frame, or <code>null</code> if no video frame
+	 * was recycled within the timeout
+	 * @throws V4L4JException if there is an error capturing the frame
+	 * @throws StateException if the capture is stopped while waiting, or by
+	 * the frame loss listener
+	 */
+	private BaseVideoFrame getNextVideoFrame(long timeout) throws V4L4JException {
 		int frameSize;
 		BaseVideoFrame nextFrame;
+		// frame loss details, passed on to the listener once we are no longer
+		// a user of this grabber, so that it can stop the capture
+		long lost = 0, sequence = 0, gap = 0;
+		boolean gapStarved = false;
+		int generation;
 
 		state.get();
 
 		try {
 			// get next available video frame object
-			nextFrame = getAvailableVideoFrame();
-
-			// get the latest frame and store it in the video frame 
-			frameSize = fillBuffer(object, nextFrame.getByteArray());
+			nextFrame = getAvailableVideoFrame(timeout);
+			if (nextFrame == null)
+				return null;
+			long taken = System.nanoTime();
+
+			// get the latest frame and store it in the video frame. If that
+			// fails, the video frame is available again
+			boolean filled = false;
+			try {
+				frameSize = fillDriverBuffer(nextFrame);
+				filled = true;
+			} finally {
+				if (! filled)
+					availableVideoFrames.offer(nextFrame);
+			}
 
 			// mark the video frame as available for use
 			nextFrame.prepareForDelivery(frameSize,	lastCapturedFrameBufferIndex,
-					lastCapturedFrameSequence, lastCapturedFrameTimeuSec);
+					lastCapturedFrameSequence, lastCapturedFrameTimeuSec, clockCorrelator);
+			generation = nextFrame.getGeneration();
+			bufferUsage.frameDelivered(nextFrame.getDeliveryTime());
+			statistics.frameCaptured(taken - nextFrame.getRecycleTime(),
+					nextFrame.getDeliveryTime() - taken,
+					nextFrame.getDeliveryTime() - nextFrame.getCaptureNanoTime());
+			lost = statistics.frameSequence(lastCapturedFrameSequence,
+					lastCapturedFrameTimeuSec, starved);
+			statistics.bytesCopied(frameSize);
+			if (lost > 0) {
+				sequence = lastCapturedFrameSequence;
+				gap = statistics.getLastGapDuration();
+				gapStarved = starved;
+			}
+			starved = false;
 		} finally {
 			state.put();
 		}
 
+		if (lost > 0) {
+			framesLost(sequence, lost, gap, gapStarved);
+
+			// the listener may have stopped the capture, which recycled the 
+			// frame
+			if (nextFrame.getGeneration() != generation)
+				throw new StateException("The capture has been stopped");
+		}
+
 		return nextFrame;
 	}
 
+	/**
+	 * This method notifies the frame loss listener, if any, that frames were
+	 * lost before a captured frame. It must not be called while a user of
+	 * this grabber, as the listener may stop the capture.
+	 * @param sequence the sequence number of the captured frame
+	 * @param lost the number of lost frames
+	 * @param gap the time between the captured frame and the previous one
+	 * @param gapStarved whether no video frame was available during the gap
+	 */
+	private void framesLost(long sequence, long lost, long gap, boolean gapStarved) {
+		FrameLossListener listener = frameLossListener;
+		if (listener == null)
+			return;
+
+		try {
+			listener.framesLost(this, sequence, lost, gap, gapStarved);
+		} catch (Throwable t) {} // ignore any exception thrown by the listener
+	}
+
+	/**
+	 * This method returns whether this frame grabber delivers frames to a
+	 * capture callback.
+	 * @return whether a capture callback has been set
+	 */
+	final boolean isPushMode() {
+		synchronized (state) {
+			return pushSource != null;
+		}
+	}
+
+	/**
+	 * This method checks that frames can be pulled from this grabber, ie. 
+	 * it is capturing and it does not deliver frames to a capture callback.
+	 * @throws StateException if frames cannot be pulled from this grabber
+	 */
+	private void checkPullMode() {
+		if (pushSource != null)
+			throw new StateException("This frame grabber delivers frames to "
+					+ "a capture callback and cannot be polled");
+		if (! state.isStarted())
+			throw new StateException("The capture has not been started");
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#take()
+	 */
+	@Override
+	public final VideoFrame take() throws V4L4JException {
+		checkPullMode();
+
+		try {
+			pullLock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			throw new StateException("Interrupted while waiting for a video frame", e);
+		}
+
+		try {
+			return getNextVideoFrame(-1);
+		} finally {
+			pullLock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#poll(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public final VideoFrame poll(long timeout, TimeUnit unit) throws V4L4JException {
+		checkPullMode();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		try {
+			if (! pullLock.tryLock(timeout, unit))
+				return null;
+		} catch (InterruptedException e) {
+			throw new StateException("Interrupted while waiting for a video frame", e);
+		}
+
+		try {
+			return getNextVideoFrame(Math.max(0, deadline - System.nanoTime()));
+		} finally {
+			pullLock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#tryPoll()
+	 */
+	@Override
+	public final VideoFrame tryPoll() throws V4L4JException {
+		checkPullMode();
+
+		if (! pullLock.tryLock())
+			return null;
+
+		try {
+			return getNextVideoFrame(0);
+		} finally {
+			pullLock.unlock();
+		}
+	}
+
 	synchronized static void Log(String s){
 		System.out.println(Thread.currentThread().getName()+": "+s);
 		System.out.flush();
@@ -416,12 +865,12 @@ abstract class AbstractGrabber implements FrameGrabber {
 		// Make sure we are in started state
 		if (state.isStarted())
 		{
-			enqueueBuffer(object, frame.getBufferInex());
-
-			synchronized(availableVideoFrames){
-				availableVideoFrames.add(frame);
-				availableVideoFrames.notify();
-			}
+			long now = System.nanoTime();
+			frame.setRecycleTime(now);
+			statistics.frameRecycled(now - frame.getDeliveryTime());
+			bufferUsage.frameRecycled(now - frame.getDeliveryTime());
+			enqueueDriverBuffer(frame);
+			availableVideoFrames.offer(frame);
 		}
 	}
 
@@ -432,22 +881,28 @@ abstract class AbstractGrabber implements FrameGrabber {
 	public final void stopCapture(){
 		state.stop();
 		// At this stage, further calls to getVideoFrame() will throw an exception..
-		// However, the push thread might still be blocked in getVideoFrame().
+		// However, the push thread (or threads pulling frames) might still be 
+		// blocked in getVideoFrame().
 
 		// The push thread blocked in getVideoFrame() can be blocked either:
 		// 1) in getAvailableVideoFrame(), waiting for an available frame
 		// OR
 		// 2) in fillBuffer(), waiting for a V4L buffer
 
-		// If the push thread is blocked in 1), we can wake it up by interrupting it.
+		// If the push thread is blocked in 1), we can wake it up by closing the
+		// available frame ring (or interrupting it).
 		// If the push thread is blocked in 2), tell the JNI layer to stop the capture
 		// which will wake up the push thread blocked in fillBuffer() with an error.
+		// Threads waiting for the pull lock will get it in turn, and find
+		// the ring closed.
 
-		// unblock thread in 1): stop the push source
-		pushSource.stopCapture();
+		// unblock thread in 1): close the ring and stop the push source
+		availableVideoFrames.close();
+		if (pushSource != null)
+			pushSource.stopCapture();
 
 		// unblock thread in 2): tell libvideo to stop capture
-		stop(object);
+		stopDriver();
 
 		// wait for thread blocked in 2) to return
 		state.waitTillNoMoreUsers();
@@ -455,14 +910,13 @@ abstract class AbstractGrabber implements FrameGrabber {
 		// at this stage, we know that no one is waiting in getVideoFrame() anymore,
 		// and further calls to it will throw a StateException.		
 
-		// Make sure all video frames are recycled
-		for(VideoFrame frame: videoFrames)
-			frame.recycle();
+		// Make sure all video frames are recycled, even those still 
+		// referenced more than once
+		for(BaseVideoFrame frame: videoFrames)
+			frame.forceRecycle();
 
 		// remove all frames from available queue
-		synchronized(availableVideoFrames) {
-			availableVideoFrames.removeAllElements();
-		}
+		availableVideoFrames.clear();
 
 		// commit new state
 		state.commit();
@@ -481,7 +935,7 @@ abstract class AbstractGrabber implements FrameGrabber {
 		}
 
 		state.release();		
-		doRelease(object);
+		releaseDriver();
 		state.commit();
 	}
 
@@ -529,10 +983,21 @@ abstract class AbstractGrabber implements FrameGrabber {
 		return state.isStarted();
 	}
 
+	/**
+	 * This class implements the frame grabber's state machine. Transitions
+	 * (init, start, stop, release, commit and rollback) are rare, and are made
+	 * with the state object lock held, which setters also hold while they
+	 * check the state. Users (threads retrieving a frame) join and leave 
+	 * once per frame, so {@link #get()} and {@link #put()} do not take the 
+	 * lock: the number of users is an atomic counter, and the lock is only
+	 * taken to wake up threads waiting for it to change, if there are any.
+	 */
 	protected static class State {
-		private int state;
-		private int temp;
-		private int users;
+		private volatile int state;
+		private volatile int temp;
+		private final AtomicInteger users;
+		// number of threads waiting for the number of users to change
+		private final AtomicInteger waiters;
 
 		private static int UNINIT=0;
 		private static int INIT=1;
@@ -546,7 +1011,8 @@ abstract class AbstractGrabber implements FrameGrabber {
 		public State() {
 			state = UNINIT;
 			temp = UNINIT;
-			users = 0;
+			users = new AtomicInteger();
+			waiters = new AtomicInteger();
 		}
 
 		/**
@@ -574,7 +1040,8 @@ abstract class AbstractGrabber implements FrameGrabber {
 		}
 
 		/**
-		 * Must be called with state object lock held.
+		 * The result is only stable if this method is called with state 
+		 * object lock held.
 		 * @throws StateException if released
 		 * @return
 		 */
@@ -584,7 +1051,8 @@ abstract class AbstractGrabber implements FrameGrabber {
 		}
 
 		/**
-		 * Must be called with state object lock held
+		 * The result is only stable if this method is called with state 
+		 * object lock held.
 		 * @return
 		 */
 		public void checkReleased(){
@@ -595,46 +1063,65 @@ abstract class AbstractGrabber implements FrameGrabber {
 		/**
 		 * Increase number of users by one.
 		 */
-		public synchronized void get(){
+		public void get(){
 			// If there were no user, now there is one,
 			// notify any thread waiting for at least one user.
-			if (users == 0)
-				notify();
-
-			users++;
+			if (users.getAndIncrement() == 0)
+				wakeUpWaiters();
 		}
 
 		/**
 		 * Block until there is at least one user
 		 */
-		public synchronized void waitForAtLeastOneUser() {
-			while (users == 0) {
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					System.err.println("Interrupted while waiting for "
-							+"push thread to start");
-					e.printStackTrace();
-					throw new StateException("Interrupted while waiting for"
-							+"push thread to start");
+		public void waitForAtLeastOneUser() {
+			waiters.incrementAndGet();
+			try {
+				synchronized (this) {
+					while (users.get() == 0) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							System.err.println("Interrupted while waiting for "
+									+"push thread to start");
+							e.printStackTrace();
+							throw new StateException("Interrupted while waiting for"
+									+"push thread to start");
+						}
+					}
 				}
+			} finally {
+				waiters.decrementAndGet();
 			}
 		}
 
 		/**
 		 * Decrease the number of users by one
 		 */
-		public synchronized void put(){
+		public void put(){
 			// decrement the number of users and notify any blocked
 			// thread if there are no more users
-			if (--users==0)
-				notify();
+			if (users.decrementAndGet() == 0)
+				wakeUpWaiters();
 			// if we are about to stop, throw a state exception so
 			// the captured frame is not returned
 			if(temp==STOPPED)
 				throw new StateException("This framegrabber was stopped");
 		}
 
+		/**
+		 * This method wakes up threads waiting for the number of users to
+		 * change. Waiters register before checking the number of users, and
+		 * it is changed before checking for waiters, so either the waiter
+		 * sees the new number, or it is woken up.
+		 */
+		private void wakeUpWaiters() {
+			if (waiters.get() > 0) {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+
 
 		public synchronized void stop(){
 			if(state==STARTED && temp!=STOPPED) {
@@ -650,19 +1137,26 @@ abstract class AbstractGrabber implements FrameGrabber {
 		 * It is the caller's responsibility to ensure before the call that the
 		 * current state does not allow any more users to join, but only to exit 
 		 */
-		public synchronized void waitTillNoMoreUsers(){
-			while(users!=0)
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					// a thread called stopCapture() while another was 
-					// blocked in getVideoFrame()
-					//					System.err.println("Interrupted while waiting for "
-					//							+"FrameGrabber users to complete");
-					//					e.printStackTrace();
-					//					throw new StateException("There are remaining users of "
-					//							+"this FrameGrabber and it can not be stopped");
+		public void waitTillNoMoreUsers(){
+			waiters.incrementAndGet();
+			try {
+				synchronized (this) {
+					while(users.get()!=0)
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// a thread called stopCapture() while another was 
+							// blocked in getVideoFrame()
+							//					System.err.println("Interrupted while waiting for "
+							//							+"FrameGrabber users to complete");
+							//					e.printStackTrace();
+							//					throw new StateException("There are remaining users of "
+							//							+"this FrameGrabber and it can not be stopped");
+						}
 				}
+			} finally {
+				waiters.decrementAndGet();
+			}
 		}
 
 		public synchronized void release(){
@@ -51,6 +51,10 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * BGR frame grabbers
  * implement the {@link FrameGrabber} interface which provides methods to handle
  * video capture. See {@link FrameGrabber its documentation} for more information.
+ * <br>The images returned by {@link VideoFrame#getBufferedImage()} are of
+ * type {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} and share the 
+ * frame's storage, so Java2D draws and encodes them with its native loops.
+ * This makes BGR frame grabbers the best choice for on-screen display.
  * 
  * @see FrameGrabber {@link FrameGrabber} 
  * @author gilles
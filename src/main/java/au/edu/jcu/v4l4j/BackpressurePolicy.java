@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * The BackpressurePolicy enumeration defines what happens when frames are
+ * captured faster than a consumer processes them, and its queue of frames
+ * waiting to be delivered is full. The size of the queue is the consumer's
+ * lag budget: the number of frames it can fall behind the capture.<br>
+ * Policies are set on a frame grabber with
+ * {@link FrameGrabber#setBackpressurePolicy(BackpressurePolicy, int)}, and
+ * on each subscriber of a {@link FrameBroadcaster}.
+ * @author gilles
+ *
+ */
+public enum BackpressurePolicy {
+	/**
+	 * The capture waits until the consumer makes room in its queue. No frames
+	 * are dropped, but a slow consumer delays the capture, and the driver
+	 * drops frames instead once it runs out of buffers.
+	 */
+	BLOCK,
+	/**
+	 * The oldest frame waiting in the queue is recycled to make room for the
+	 * new one. The consumer never lags by more than the size of its queue.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Only the most recent frame is kept: any frame still waiting to be
+	 * delivered is recycled when a new one arrives. This is
+	 * {@link #DROP_OLDEST} with a queue of one frame, and gives the lowest
+	 * latency.
+	 */
+	LATEST_ONLY
+}
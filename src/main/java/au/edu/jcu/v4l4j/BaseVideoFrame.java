@@ -20,6 +20,9 @@ package au.edu.jcu.v4l4j;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import au.edu.jcu.v4l4j.exceptions.StateException;
 import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
@@ -28,22 +31,57 @@ import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
  * This is the base class for all {@link VideoFrame} objects.
  * It implements some of the functionalities shared by all video frames.
  * It must be subclassed - and subclasses are responsible for instantiating the
- * raster and bufferedImage members
+ * raster and bufferedImage members.<br>
+ * Frame data is held either in a byte array, which is what native frame
+ * grabbers fill, or in a (usually direct) {@link ByteBuffer} provided by the
+ * frame grabber. In the latter case, the byte array returned by 
+ * {@link #getBytes()} is only created and filled if the application asks
+ * for it.<br>
+ * A video frame is returned to its frame grabber when its last reference
+ * is released. The frame grabber holds the first reference when it delivers 
+ * the frame, and more can be added with {@link #retain()}. Each call to
+ * {@link #recycle()} or {@link #release()} releases one reference.<br>
+ * If the <code>v4l4j.leak_detection</code> property is set to 
+ * <code>true</code>, the number of references still held when the capture
+ * is stopped is printed on the standard error stream, along with the stack
+ * trace of the code which created each {@link FrameLease} still open. 
+ * References added with {@link #retain()} are only counted, as nothing ties
+ * them to the {@link #release()} call which gives them back.<br>
+ * Delivering, retaining, releasing and recycling a video frame are done with
+ * its lock held. The methods returning image data and frame attributes do
+ * not take the lock: a volatile generation stamp, incremented when the 
+ * frame is delivered and again when it is recycled, tells them whether the
+ * frame is recycled, and is checked again after the attributes are read to
+ * catch a frame recycled in the meantime.
  * @author gilles
  *
  */
 class BaseVideoFrame implements VideoFrame{
-	protected int					frameLength;
+	private static final boolean	leakDetection = Boolean.getBoolean("v4l4j.leak_detection");
+
+	// the per-delivery attributes are read without this frame lock
+	protected volatile int			frameLength;
 	protected AbstractGrabber 		frameGrabber;
 	protected byte					frameBuffer[];
+	protected ByteBuffer			frameData;
+	private ByteBuffer				frameView;
+	private boolean					frameBufferValid;
 	
-	protected long					sequenceNumber;
-	protected long					captureTime;
+	protected volatile long			sequenceNumber;
+	protected volatile long			captureTime;
+	private volatile long			captureNanoTime;
+	private volatile long			captureWallTime;
 	protected int					bufferIndex;
+	private long					deliveryTime;
+	private long					handoffTime;
+	private long					recycleTime;
 	
 	protected V4L4JDataBuffer		dataBuffer;
-	protected boolean				recycled;
-	protected V4L4JRaster			raster;
+	// odd while delivered, even while recycled
+	private volatile int			generation;
+	private int						refCount;
+	private List<Throwable>			holders;
+	protected WritableRaster		raster;
 	protected BufferedImage			bufferedImage;
 	
 
@@ -58,11 +96,36 @@ class BaseVideoFrame implements VideoFrame{
 	protected BaseVideoFrame(AbstractGrabber grabber, int bufferSize) {
 		frameGrabber = grabber;
 		frameBuffer = new byte[bufferSize];
+		frameData = ByteBuffer.wrap(frameBuffer);
+		frameView = frameData.asReadOnlyBuffer();
+		frameBufferValid = true;
 		dataBuffer = new V4L4JDataBuffer(frameBuffer);
 		raster = null;
 		bufferedImage = null;
 		bufferIndex = 0;
-		recycled = true;
+		generation = 0;
+	}
+
+	/** 
+	 * This method creates the base for a video frame whose data is stored 
+	 * in the given buffer instead of a byte array. The byte array and data
+	 * buffer are only created if the application requests them.
+	 * Raster and bufferedImage are not instantiated. 
+	 * @param grabber the frame grabber to which this frame must be
+	 * returned to when recycled.
+	 * @param storage the buffer holding this frame's data.
+	 */
+	protected BaseVideoFrame(AbstractGrabber grabber, ByteBuffer storage) {
+		frameGrabber = grabber;
+		frameBuffer = null;
+		frameData = storage;
+		frameView = frameData.asReadOnlyBuffer();
+		frameBufferValid = false;
+		dataBuffer = null;
+		raster = null;
+		bufferedImage = null;
+		bufferIndex = 0;
+		generation = 0;
 	}
 
 	/**
@@ -71,15 +134,166 @@ class BaseVideoFrame implements VideoFrame{
 	 * @param length the length of the new frame.
 	 * @param sequence this frame's sequence number
 	 * @param timeUs this frame capture timestamp in elapsed microseconds since startup
+	 * @param clock the clock correlator which converts the capture timestamp
 	 */
 	final synchronized void prepareForDelivery(int length, int index, 
-			long sequence, long timeUs){
+			long sequence, long timeUs, ClockCorrelator clock){
 		frameLength = length;
-		dataBuffer.setNewFrameSize(length);
+		if (dataBuffer != null)
+			dataBuffer.setNewFrameSize(length);
+		frameBufferValid = frameData.hasArray();
 		sequenceNumber = sequence;
 		captureTime = timeUs;
 		bufferIndex = index;
-		recycled = false;
+		deliveryTime = System.nanoTime();
+		clock.sample(timeUs, deliveryTime, this);
+		refCount = 1;
+		if (leakDetection)
+			holders = new ArrayList<Throwable>();
+		// publish the new attributes
+		generation++;
+	}
+
+	/**
+	 * This method is called by the clock correlator, from
+	 * {@link #prepareForDelivery(int, int, long, long, ClockCorrelator)},
+	 * with this frame's converted capture times.
+	 * @param nanoTime the capture time in the time base of 
+	 * <code>System.nanoTime()</code>
+	 * @param wallTime the capture time in microseconds since the epoch
+	 */
+	final void setCaptureTimes(long nanoTime, long wallTime) {
+		captureNanoTime = nanoTime;
+		captureWallTime = wallTime;
+	}
+
+	/**
+	 * This method returns the value of <code>System.nanoTime()</code> when
+	 * this frame was last prepared for delivery. It must be called with this
+	 * video frame lock held, or by the thread which delivered it.
+	 * @return when this frame was last prepared for delivery
+	 */
+	final long getDeliveryTime() {
+		return deliveryTime;
+	}
+
+	/**
+	 * This method records when the capture thread handed this frame over to
+	 * the dispatcher.
+	 * @param time the value of <code>System.nanoTime()</code>
+	 */
+	final void setHandoffTime(long time) {
+		handoffTime = time;
+	}
+
+	/**
+	 * This method returns when the capture thread handed this frame over to
+	 * the dispatcher.
+	 * @return the value of <code>System.nanoTime()</code> at the time
+	 */
+	final long getHandoffTime() {
+		return handoffTime;
+	}
+
+	/**
+	 * This method records when this frame was last returned to the frame
+	 * grabber's queue of available frames. It is called with this video frame
+	 * lock held, or before the capture starts.
+	 * @param time the value of <code>System.nanoTime()</code>
+	 */
+	final void setRecycleTime(long time) {
+		recycleTime = time;
+	}
+
+	/**
+	 * This method returns when this frame was last returned to the frame
+	 * grabber's queue of available frames.
+	 * @return the value of <code>System.nanoTime()</code> at the time
+	 */
+	final long getRecycleTime() {
+		return recycleTime;
+	}
+
+	/**
+	 * This method adds a reference to this frame for a lease and, with leak 
+	 * detection, records where the lease was created.
+	 * @return the recorded stack trace, or null without leak detection
+	 * @throws StateException if this video frame is recycled.
+	 */
+	final synchronized Throwable acquire() {
+		checkIfRecycled();
+		refCount++;
+		if (! leakDetection)
+			return null;
+
+		Throwable holder = new Throwable("Leased in thread "
+				+ Thread.currentThread().getName());
+		holders.add(holder);
+		return holder;
+	}
+
+	/**
+	 * This method releases a reference acquired with {@link #acquire()} or
+	 * {@link #retain()}, unless this frame was recycled since, in which case
+	 * the reference was dropped with the rest and this method does nothing.
+	 * @param holder the stack trace returned by {@link #acquire()}, or null
+	 * @param stamp the generation of this frame when the reference was 
+	 * acquired
+	 */
+	final synchronized void release(Throwable holder, int stamp) {
+		if (generation != stamp)
+			return;
+
+		if (holder != null)
+			holders.remove(holder);
+		release();
+	}
+
+	/**
+	 * This method returns this video frame's generation, which changes every
+	 * time it is delivered.
+	 * @return this video frame's generation
+	 */
+	final int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * This method returns whether this video frame is recycled.
+	 * @return whether this video frame is recycled.
+	 */
+	final boolean isRecycled() {
+		return (generation & 1) == 0;
+	}
+
+	/**
+	 * This method is used by the owning frame grabber when the capture is 
+	 * stopped to recycle this frame regardless of how many references to it 
+	 * are still held.
+	 */
+	final synchronized void forceRecycle() {
+		if (! isRecycled()){
+			if (leakDetection)
+				reportLeak();
+			generation++;
+			frameGrabber.recycleVideoBuffer(this);
+			refCount = 0;
+			holders = null;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * This method prints the number of references still held on this frame,
+	 * and the stack traces of the code which created the leases still open.
+	 */
+	private void reportLeak() {
+		System.err.println("v4l4j: video frame " + sequenceNumber + " was not "
+				+ "recycled when the capture stopped (" + refCount 
+				+ " reference(s) held, " + holders.size() + " by open leases)"
+				+ (holders.isEmpty() ? "" : ". Open leases were created at:"));
+		for (Throwable holder : holders)
+			holder.printStackTrace();
 	}
 	
 	/**
@@ -89,17 +303,52 @@ class BaseVideoFrame implements VideoFrame{
 	 * for the frame to be recycled.
 	 */
 	final synchronized void waitTillRecycled() throws InterruptedException {
-		while(! recycled)
+		while(! isRecycled())
 			wait();
 	}
 	
 	/**
 	 * This method is used by the owning frame grabber to get a reference
 	 * to the byte array used to hold the frame data.
-	 * @return the byte array used to hold the frame data
+	 * @return the byte array used to hold the frame data, or null if this
+	 * frame's data is not stored in a byte array.
 	 */
 	final byte[] getByteArray() {
-		return frameBuffer;
+		return frameData.hasArray() ? frameBuffer : null;
+	}
+
+	/**
+	 * This method is used by the owning frame grabber to get a reference
+	 * to the buffer used to hold the frame data.
+	 * @return the buffer used to hold the frame data
+	 */
+	final ByteBuffer getStorage() {
+		return frameData;
+	}
+
+	/**
+	 * This method must be called with this video frame lock held. If this
+	 * frame's data is not stored in a byte array, it copies the current 
+	 * frame into one (creating it the first time round) so it can be 
+	 * returned by {@link #getBytes()}. The copy is only made once per
+	 * frame.
+	 */
+	private final void refreshByteArray() {
+		if (frameBufferValid)
+			return;
+
+		if (frameBuffer == null) {
+			frameBuffer = new byte[frameData.capacity()];
+			dataBuffer = new V4L4JDataBuffer(frameBuffer);
+		}
+
+		ByteBuffer src = frameData.duplicate();
+		src.clear();
+		src.limit(frameLength);
+		src.get(frameBuffer, 0, frameLength);
+		dataBuffer.setNewFrameSize(frameLength);
+		frameBufferValid = true;
+		frameGrabber.getStatistics().bytesCopied(frameLength);
 	}
 	
 	/**
@@ -146,12 +395,30 @@ class BaseVideoFrame implements VideoFrame{
 	}
 	
 	/**
-	 * This method must be called with this video frame lock held, and
-	 * throws a {@link StateException} if it is recycled.
+	 * This method throws a {@link StateException} if this video frame is
+	 * recycled. Methods which do not hold this video frame lock must call
+	 * it before reading its attributes, and pass the returned generation to
+	 * {@link #checkGeneration(int)} after.
+	 * @return the current generation
 	 * @throws StateException if this video frame is recycled.
 	 */
-	private final void checkIfRecycled() throws StateException {
-		if (recycled)
+	private final int checkIfRecycled() throws StateException {
+		int stamp = generation;
+		if ((stamp & 1) == 0)
+			throw new StateException("This video frame has been recycled");
+		return stamp;
+	}
+
+	/**
+	 * This method throws a {@link StateException} if this video frame was
+	 * recycled since {@link #checkIfRecycled()} returned the given 
+	 * generation, in which case the attributes read in between may belong to
+	 * another frame.
+	 * @param stamp the generation returned by {@link #checkIfRecycled()}
+	 * @throws StateException if this video frame was recycled
+	 */
+	private final void checkGeneration(int stamp) throws StateException {
+		if (generation != stamp)
 			throw new StateException("This video frame has been recycled");
 	}
 	
@@ -167,21 +434,51 @@ class BaseVideoFrame implements VideoFrame{
 	}
 	
 	@Override
-	public final synchronized int getFrameLength(){
-		checkIfRecycled();
-		return frameLength;
+	public final int getFrameLength(){
+		int stamp = checkIfRecycled();
+		int length = frameLength;
+		checkGeneration(stamp);
+		return length;
 	}
 	
 	@Override
-	public final synchronized byte[] getBytes(){
-		checkIfRecycled();
-		return frameBuffer;
+	public final byte[] getBytes(){
+		int stamp = checkIfRecycled();
+		// the byte array of array-backed frames never needs refreshing
+		if (frameData.hasArray()) {
+			checkGeneration(stamp);
+			return frameBuffer;
+		}
+
+		synchronized (this) {
+			checkIfRecycled();
+			refreshByteArray();
+			return frameBuffer;
+		}
 	}
 
 	@Override
-	public final synchronized DataBuffer getDataBuffer() {
-		checkIfRecycled();
-		return dataBuffer;
+	public final ByteBuffer getByteBuffer(){
+		int stamp = checkIfRecycled();
+		ByteBuffer view = frameView.duplicate();
+		view.limit(frameLength);
+		checkGeneration(stamp);
+		return view;
+	}
+
+	@Override
+	public final DataBuffer getDataBuffer() {
+		int stamp = checkIfRecycled();
+		if (frameData.hasArray()) {
+			checkGeneration(stamp);
+			return dataBuffer;
+		}
+
+		synchronized (this) {
+			checkIfRecycled();
+			refreshByteArray();
+			return dataBuffer;
+		}
 	}
 	
 	@Override
@@ -197,23 +494,61 @@ class BaseVideoFrame implements VideoFrame{
 	}
 	
 	@Override
-	public final synchronized long getSequenceNumber(){
-		checkIfRecycled();
-		return sequenceNumber;
+	public final long getSequenceNumber(){
+		int stamp = checkIfRecycled();
+		long value = sequenceNumber;
+		checkGeneration(stamp);
+		return value;
 	}
 	
 	@Override
-	public final synchronized long getCaptureTime(){
-		checkIfRecycled();
-		return captureTime;
+	public final long getCaptureTime(){
+		int stamp = checkIfRecycled();
+		long value = captureTime;
+		checkGeneration(stamp);
+		return value;
+	}
+
+	@Override
+	public final long getCaptureNanoTime(){
+		int stamp = checkIfRecycled();
+		long value = captureNanoTime;
+		checkGeneration(stamp);
+		return value;
+	}
+
+	@Override
+	public final long getCaptureWallTime(){
+		int stamp = checkIfRecycled();
+		long value = captureWallTime;
+		checkGeneration(stamp);
+		return value;
 	}
 	
 	@Override
-	public final synchronized void recycle() {
-		if (! recycled){
+	public final synchronized void retain() {
+		checkIfRecycled();
+		refCount++;
+	}
+
+	@Override
+	public final synchronized void release() {
+		if (! isRecycled() && --refCount == 0){
+			generation++;
 			frameGrabber.recycleVideoBuffer(this);
-			recycled = true;
+			holders = null;
 			notifyAll();
 		}
 	}
+
+	@Override
+	public final void recycle() {
+		release();
+	}
+
+	@Override
+	public final synchronized FrameLease lease() {
+		Throwable holder = acquire();
+		return new FrameLease(this, holder, generation);
+	}
 }
@@ -0,0 +1,49 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.List;
+
+/**
+ * A BatchCaptureCallback receives captured frames in batches rather than one
+ * at a time, which reduces the fixed cost of each delivery at high frame 
+ * rates. When a frame grabber's capture callback implements this interface,
+ * frames are queued by the capture thread, and a delivery thread hands all 
+ * the queued frames over in a single call to {@link #nextFrames(List)}. While
+ * the callback processes a batch, new frames accumulate in the queue and form
+ * the next batch. {@link #nextFrame(VideoFrame)} is not called.<br>
+ * Batches are delivered by a single thread with the
+ * {@link DispatchStrategy#inline()} strategy, in which case frames are
+ * delivered in order. With the other dispatch strategies, each worker 
+ * delivers its own batches.
+ * @author gilles
+ *
+ */
+public interface BatchCaptureCallback extends CaptureCallback {
+
+	/**
+	 * This method is called by v4l4j with all the frames captured since the
+	 * previous batch, oldest first. The list is reused for the next batch, 
+	 * and must not be kept after this method returns, but the frames in it
+	 * can be. Each frame must be recycled when no longer used, for instance
+	 * all at once with {@link FrameGrabber#recycleVideoFrames(java.util.Collection)}.
+	 * @param frames the latest captured frames. This list contains at least
+	 * one frame, and at most {@link FrameGrabber#getNumberOfVideoFrames()}.
+	 */
+	public void nextFrames(List<VideoFrame> frames);
+}
@@ -0,0 +1,226 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BufferUsage object measures how a {@link FrameGrabber}'s video frames are
+ * used during capture, and suggests how many of them the driver should
+ * allocate. It is obtained by calling {@link FrameGrabber#getBufferUsage()},
+ * and is a live view, like {@link CaptureStatistics}.<br>
+ * Too few video frames and the frame grabber runs out of recycled frames
+ * when the application is slow to recycle them: the driver then drops frames.
+ * Too many and memory is wasted, and frames wait longer in the driver's queue
+ * before being delivered. The suggested number is the number of frames
+ * captured while the application holds one (the hold time divided by the
+ * frame interval), plus one being filled by the driver and one to absorb
+ * jitter. If the frame grabber often finds no recycled frame, one more frame
+ * is suggested. The suggestion is capped by the memory budget, if any.<br>
+ * The number of video frames can only change when a frame grabber is
+ * created. If a memory budget is set with 
+ * {@link VideoDevice#setBufferMemoryBudget(long)}, the video device uses the
+ * number suggested by the last frame grabber when it creates the next one.
+ * Otherwise, the suggestion can be applied by setting the
+ * <code>v4l4j.num_driver_buffers</code> property.<br>
+ * All times are in nanoseconds.
+ * @author gilles
+ *
+ */
+public final class BufferUsage {
+	// V4L2 limits the number of buffers to VIDEO_MAX_FRAME
+	private static final int	MAX_BUFFERS = 32;
+	private static final int	MIN_BUFFERS = 2;
+
+	private final AtomicLong	holdTime;
+	private final AtomicLong	heldFrames;
+	private final AtomicLong	peakHoldTime;
+	private final AtomicLong	starvations;
+	// only updated by the thread retrieving frames, one at a time
+	private volatile long		firstDelivery;
+	private volatile long		lastDelivery;
+	// frames delivered since the capture was last started
+	private volatile long		intervalFrames;
+	private volatile long		deliveredFrames;
+	private volatile int		numberOfFrames;
+	private volatile int		frameSize;
+	private volatile long		memoryBudget;
+
+	BufferUsage() {
+		holdTime = new AtomicLong();
+		heldFrames = new AtomicLong();
+		peakHoldTime = new AtomicLong();
+		starvations = new AtomicLong();
+		memoryBudget = 0;
+	}
+
+	/**
+	 * This method is called by the frame grabber when its video frames are
+	 * created.
+	 * @param count the number of video frames
+	 * @param size the size of each video frame in bytes
+	 */
+	void setBuffers(int count, int size) {
+		numberOfFrames = count;
+		frameSize = size;
+	}
+
+	/**
+	 * This method sets the memory budget used to cap the suggested number of
+	 * video frames.
+	 * @param bytes the maximum amount of memory used by video frames, or 0
+	 * for no limit
+	 */
+	void setMemoryBudget(long bytes) {
+		memoryBudget = bytes;
+	}
+
+	/**
+	 * This method is called by the frame grabber when the capture is started.
+	 * The frame interval is measured again from the next delivered frame, so 
+	 * that it does not include the time the capture was stopped. The hold 
+	 * times are kept.
+	 */
+	void captureStarted() {
+		intervalFrames = 0;
+	}
+
+	/**
+	 * This method is called by the frame grabber when it hands a frame over
+	 * to the application.
+	 * @param now the current value of <code>System.nanoTime()</code>
+	 */
+	void frameDelivered(long now) {
+		if (intervalFrames++ == 0)
+			firstDelivery = now;
+		lastDelivery = now;
+		deliveredFrames++;
+	}
+
+	/**
+	 * This method is called by the frame grabber when a frame is recycled
+	 * during capture.
+	 * @param duration how long the application held the frame
+	 */
+	void frameRecycled(long duration) {
+		holdTime.addAndGet(duration);
+		heldFrames.incrementAndGet();
+
+		// the peak decays slowly, so that it follows recent hold times
+		long peak, newPeak;
+		do {
+			peak = peakHoldTime.get();
+			newPeak = Math.max(duration, peak - (peak >> 4));
+		} while (! peakHoldTime.compareAndSet(peak, newPeak));
+	}
+
+	/**
+	 * This method is called by the frame grabber when it needs a recycled
+	 * frame and there is none.
+	 */
+	void noFrameAvailable() {
+		starvations.incrementAndGet();
+	}
+
+	/**
+	 * This method returns the average interval between frames delivered
+	 * since the capture was last started.
+	 * @return the average frame interval, or 0 if fewer than two frames
+	 * were delivered
+	 */
+	public long getFrameInterval() {
+		long frames = intervalFrames;
+		return (frames < 2) ? 0 : (lastDelivery - firstDelivery) / (frames - 1);
+	}
+
+	/**
+	 * This method returns the average time frames are held by the 
+	 * application, from delivery until they are recycled.
+	 * @return the average hold time, or 0 if no frames were recycled
+	 */
+	public long getAverageHoldTime() {
+		long frames = heldFrames.get();
+		return (frames == 0) ? 0 : holdTime.get() / frames;
+	}
+
+	/**
+	 * This method returns the recent peak hold time. It is the longest hold
+	 * time observed, decaying by 1/16th with each recycled frame.
+	 * @return the recent peak hold time
+	 */
+	public long getPeakHoldTime() {
+		return peakHoldTime.get();
+	}
+
+	/**
+	 * This method returns how many times the frame grabber needed a recycled
+	 * video frame to store a new image and found none.
+	 * @return the number of times no recycled video frame was available
+	 */
+	public long getStarvations() {
+		return starvations.get();
+	}
+
+	/**
+	 * This method returns the suggested number of video frames, based on the
+	 * measurements made so far. If not enough frames have been captured yet,
+	 * the current number is returned.
+	 * @return the suggested number of video frames
+	 */
+	public int getSuggestedNumberOfVideoFrames() {
+		int current = numberOfFrames;
+		long interval = getFrameInterval();
+		if ((interval == 0) || (heldFrames.get() == 0))
+			return current;
+
+		long hold = Math.max(getAverageHoldTime(), getPeakHoldTime());
+		long suggested = (hold + interval - 1) / interval + 2;
+
+		// starved on more than 1% of frames
+		if (starvations.get() * 100 > deliveredFrames)
+			suggested = Math.max(suggested, current + 1);
+
+		long max = MAX_BUFFERS;
+		if ((memoryBudget > 0) && (frameSize > 0))
+			max = Math.min(max, memoryBudget / frameSize);
+
+		return (int) Math.max(MIN_BUFFERS, Math.min(suggested, max));
+	}
+
+	/**
+	 * This method resets all measurements.
+	 */
+	public void reset() {
+		holdTime.set(0);
+		heldFrames.set(0);
+		peakHoldTime.set(0);
+		starvations.set(0);
+		intervalFrames = 0;
+		deliveredFrames = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "frames: " + numberOfFrames
+			+ " (suggested: " + getSuggestedNumberOfVideoFrames() + ")"
+			+ " - hold time: " + getAverageHoldTime()
+			+ "ns (peak: " + getPeakHoldTime() + "ns)"
+			+ " - frame interval: " + getFrameInterval()
+			+ "ns - starvations: " + getStarvations();
+	}
+}
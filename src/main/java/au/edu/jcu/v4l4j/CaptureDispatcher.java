@@ -0,0 +1,303 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A CaptureDispatcher is used by a {@link PushSource} to hand captured frames
+ * over to the {@link CaptureCallback}. A new dispatcher is created by the
+ * {@link DispatchStrategy} every time the capture is started, and shut down
+ * when it is stopped.
+ * @author gilles
+ *
+ */
+abstract class CaptureDispatcher {
+	protected final CaptureCallback		callback;
+	protected final CaptureStatistics	statistics;
+
+	CaptureDispatcher(CaptureCallback cb, CaptureStatistics stats) {
+		callback = cb;
+		statistics = stats;
+	}
+
+	/**
+	 * This method is called by the capture thread to deliver a new frame
+	 * to the capture callback, either right away or later on.
+	 * @param frame the frame to be delivered
+	 */
+	abstract void dispatch(VideoFrame frame);
+
+	/**
+	 * This method is called when the capture thread exits, and again when
+	 * the capture is stopped. It drops frames which have not been delivered
+	 * yet, and optionally waits for callbacks in progress to return (unless
+	 * it is called from one of them). It can be called more than once.
+	 * @param wait whether to wait for callbacks in progress
+	 */
+	void shutdown(boolean wait) {
+	}
+
+	/**
+	 * This method calls the capture callback with the given frame, and
+	 * records how long it waited to be delivered, and how long the callback
+	 * took. Exceptions thrown by the callback are
+	 * ignored.
+	 * @param frame the frame to be delivered
+	 */
+	final void deliver(VideoFrame frame) {
+		long start = System.nanoTime();
+		statistics.callbackStarted(start - ((BaseVideoFrame) frame).getHandoffTime());
+		try { callback.nextFrame(frame); }
+		catch (Throwable t) {} // ignore any exception thrown by the callback
+		statistics.callbackCompleted(1, System.nanoTime() - start);
+	}
+
+	/**
+	 * This method calls the batch capture callback with the given frames,
+	 * and records how long they waited to be delivered, and how long the
+	 * callback took. Exceptions thrown by the callback are
+	 * ignored.
+	 * @param frames the frames to be delivered
+	 */
+	final void deliver(List<VideoFrame> frames) {
+		long start = System.nanoTime();
+		for (int i = 0; i < frames.size(); i++)
+			statistics.callbackStarted(start - ((BaseVideoFrame) frames.get(i)).getHandoffTime());
+		try { ((BatchCaptureCallback) callback).nextFrames(frames); }
+		catch (Throwable t) {} // ignore any exception thrown by the callback
+		statistics.callbackCompleted(frames.size(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Inline dispatchers call the capture callback from the capture thread.
+	 */
+	static class Inline extends CaptureDispatcher {
+		Inline(CaptureCallback cb, CaptureStatistics stats) {
+			super(cb, stats);
+		}
+
+		@Override
+		void dispatch(VideoFrame frame) {
+			deliver(frame);
+		}
+	}
+
+	/**
+	 * Asynchronous dispatchers queue frames, and have them delivered by
+	 * worker tasks run by an {@link Executor}. A worker delivers queued frames
+	 * until the queue is empty. A new worker is submitted when a frame is 
+	 * queued, unless the maximum number of workers are already running. The
+	 * same task object is submitted every time, so dispatching a frame does not
+	 * allocate anything (the executor itself may).<br>
+	 * The queue holds at most as many frames as the lag budget. When it is 
+	 * full, the oldest frame is dropped to make room for the new one, unless
+	 * the {@link BackpressurePolicy} is {@link BackpressurePolicy#BLOCK}, in 
+	 * which case the queue is as large as the number of video frames, so it
+	 * is never full.<br>
+	 * If the callback is a {@link BatchCaptureCallback}, a worker takes all
+	 * queued frames at once and delivers them in a single call. Each running
+	 * worker uses one of a set of lists, one per worker, created with the 
+	 * dispatcher and reused for every batch.
+	 */
+	static class Async extends CaptureDispatcher implements Runnable {
+		// used to detect shutdown() being called from a callback
+		private static final ThreadLocal<Async>	current = new ThreadLocal<Async>();
+
+		private final Executor					executor;
+		private final boolean					ownExecutor;
+		private final BackpressurePolicy		policy;
+		private final BlockingQueue<VideoFrame>	pending;
+		private final int						maxWorkers;
+		private final AtomicInteger				workers;
+		// lists passed to a batch callback, null for other callbacks
+		private final BlockingQueue<List<VideoFrame>>	batches;
+		private int								inFlight;
+		private volatile boolean				stopped;
+
+		/**
+		 * This method builds an asynchronous dispatcher.
+		 * @param cb the capture callback
+		 * @param stats the statistics object to update
+		 * @param e the executor which will run the delivery tasks
+		 * @param own whether this dispatcher owns the executor, and must shut
+		 * it down when the capture is stopped (only if it is an
+		 * {@link ExecutorService})
+		 * @param workers the maximum number of workers running at any one time
+		 * @param p the backpressure policy
+		 * @param size the maximum number of frames which can be queued
+		 * at any one time
+		 */
+		Async(CaptureCallback cb, CaptureStatistics stats, Executor e,
+				boolean own, int workers, BackpressurePolicy p, int size) {
+			super(cb, stats);
+			executor = e;
+			ownExecutor = own;
+			policy = p;
+			pending = new ArrayBlockingQueue<VideoFrame>(Math.max(1, size));
+			maxWorkers = Math.max(1, workers);
+			this.workers = new AtomicInteger();
+			inFlight = 0;
+			stopped = false;
+
+			if (cb instanceof BatchCaptureCallback) {
+				// there are never more workers than lists
+				batches = new ArrayBlockingQueue<List<VideoFrame>>(maxWorkers);
+				for (int i = 0; i < maxWorkers; i++)
+					batches.offer(new ArrayList<VideoFrame>(pending.remainingCapacity()));
+			} else
+				batches = null;
+		}
+
+		@Override
+		void dispatch(VideoFrame frame) {
+			// with the BLOCK policy, there are never more frames than video
+			// frames, so this always succeeds
+			while (! pending.offer(frame)) {
+				VideoFrame oldest = pending.poll();
+				if (oldest != null) {
+					statistics.frameDequeued();
+					statistics.frameDropped(policy);
+					oldest.recycle();
+				}
+			}
+			statistics.frameQueued();
+
+			if (addWorker()) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// the executor is saturated or shut down: deliver it ourselves
+					run();
+				}
+			}
+		}
+
+		/**
+		 * This method increments the number of workers, unless it has 
+		 * reached the maximum.
+		 * @return whether the number of workers was incremented
+		 */
+		private boolean addWorker() {
+			int w;
+			while ((w = workers.get()) < maxWorkers)
+				if (workers.compareAndSet(w, w + 1))
+					return true;
+			return false;
+		}
+
+		@Override
+		public void run() {
+			current.set(this);
+			try {
+				// a frame could have been queued after the last poll() and 
+				// before the number of workers was decremented, without
+				// adding a worker. Make sure it is delivered.
+				do {
+					deliverQueuedFrames();
+					workers.decrementAndGet();
+				} while (! pending.isEmpty() && ! stopped && addWorker());
+			} finally {
+				current.remove();
+			}
+		}
+
+		private void deliverQueuedFrames() {
+			List<VideoFrame> batch = (batches == null) ? null : batches.poll();
+			try {
+				deliverQueuedFrames(batch);
+			} finally {
+				if (batch != null) {
+					batch.clear();
+					batches.offer(batch);
+				}
+			}
+		}
+
+		/**
+		 * This method delivers queued frames until the queue is empty.
+		 * @param batch the list in which frames are delivered to a batch 
+		 * callback, or null to deliver them one at a time
+		 */
+		private void deliverQueuedFrames(List<VideoFrame> batch) {
+			VideoFrame frame = null;
+
+			for (;;) {
+				synchronized (this) {
+					if (stopped)
+						return;
+					if (batch == null) {
+						if ((frame = pending.poll()) == null)
+							return;
+					} else {
+						batch.clear();
+						if (pending.drainTo(batch) == 0)
+							return;
+					}
+					inFlight++;
+				}
+
+				try {
+					if (batch == null) {
+						statistics.frameDequeued();
+						deliver(frame);
+					} else {
+						statistics.framesDequeued(batch.size());
+						deliver(batch);
+					}
+				} finally {
+					synchronized (this) {
+						if (--inFlight == 0 && stopped)
+							notifyAll();
+					}
+				}
+			}
+		}
+
+		@Override
+		void shutdown(boolean wait) {
+			synchronized (this) {
+				stopped = true;
+
+				// frames not delivered yet are recycled by the frame grabber
+				while (pending.poll() != null)
+					statistics.frameDequeued();
+
+				// wait for callbacks in progress, unless we are one of them
+				int self = (current.get() == this) ? 1 : 0;
+				while (wait && inFlight > self) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// keep waiting, as in PushSource.stopCapture()
+					}
+				}
+			}
+
+			if (ownExecutor && (executor instanceof ExecutorService))
+				((ExecutorService) executor).shutdown();
+		}
+	}
+}
@@ -0,0 +1,477 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A CaptureStatistics object holds counters updated by a {@link FrameGrabber}
+ * while it captures. It is obtained by calling
+ * {@link FrameGrabber#getStatistics()}, and is a live view: values returned
+ * by its methods change as the capture goes on. Counters are kept across
+ * capture restarts, until {@link #reset()} is called.<br>
+ * The time each frame spends in every stage of its life cycle is recorded in
+ * a {@link LatencyHistogram}:
+ * <ul>
+ * <li>{@link #getCaptureLatencies()}: from the moment the driver captures an 
+ * image until it is retrieved, as estimated by the frame grabber's
+ * {@link ClockCorrelator},</li>
+ * <li>{@link #getAvailableTimes()}: from the moment a video frame is recycled
+ * until it is taken to store a new image,</li>
+ * <li>{@link #getCaptureTimes()}: from then until the image is retrieved from
+ * the driver and converted, which includes waiting for the driver to capture
+ * it,</li>
+ * <li>{@link #getDispatchTimes()}: from the moment the capture thread hands
+ * the frame over until the capture callback is called (push mode only),</li>
+ * <li>{@link #getCallbackTimes()}: how long the capture callback runs 
+ * (push mode only),</li>
+ * <li>{@link #getHoldTimes()}: from the moment the frame is retrieved from the
+ * driver until it is recycled.</li>
+ * </ul>
+ * Frames lost by the driver are detected from gaps in sequence numbers: see
+ * {@link #getLostFrames()}, {@link #getGapDurations()} and 
+ * {@link FrameLossListener}.<br>
+ * Timestamps are taken with <code>System.nanoTime()</code>, and recording
+ * them does not allocate memory.<br>
+ * All times are in nanoseconds.
+ * @author gilles
+ *
+ */
+public final class CaptureStatistics {
+	private final StripedCounter		deliveredFrames;
+	private final StripedCounter		callbackTime;
+	private final StripedCounter		bytesCopied;
+	private final AtomicLong			sequenceGaps;
+	private final AtomicLong			lostFrames;
+	private final AtomicLong			starvedGaps;
+	// only used by the thread retrieving frames, one at a time
+	private long						lastSequence;
+	private long						lastCaptureTime;
+	private long						lastGapDuration;
+	private final AtomicLong			maxCallbackTime;
+	private final AtomicInteger			queueDepth;
+	private final AtomicInteger			maxQueueDepth;
+	private final AtomicLongArray		droppedFrames;
+	private final LatencyHistogram		availableTimes;
+	private final LatencyHistogram		captureTimes;
+	private final LatencyHistogram		dispatchTimes;
+	private final LatencyHistogram		callbackTimes;
+	private final LatencyHistogram		holdTimes;
+	private final LatencyHistogram		gapDurations;
+	private final LatencyHistogram		captureLatencies;
+
+	CaptureStatistics() {
+		deliveredFrames = new StripedCounter();
+		callbackTime = new StripedCounter();
+		bytesCopied = new StripedCounter();
+		sequenceGaps = new AtomicLong();
+		lostFrames = new AtomicLong();
+		starvedGaps = new AtomicLong();
+		lastSequence = -1;
+		maxCallbackTime = new AtomicLong();
+		queueDepth = new AtomicInteger();
+		maxQueueDepth = new AtomicInteger();
+		droppedFrames = new AtomicLongArray(BackpressurePolicy.values().length);
+		availableTimes = new LatencyHistogram("available");
+		captureTimes = new LatencyHistogram("capture");
+		dispatchTimes = new LatencyHistogram("dispatch");
+		callbackTimes = new LatencyHistogram("callback");
+		holdTimes = new LatencyHistogram("hold");
+		gapDurations = new LatencyHistogram("gap");
+		captureLatencies = new LatencyHistogram("capture latency");
+	}
+
+	/**
+	 * This method is called by the frame grabber when it has retrieved a new
+	 * image from the driver.
+	 * @param available how long the video frame waited in the queue of
+	 * available frames
+	 * @param capture how long it took to retrieve the image
+	 * @param latency how long after its capture the image was retrieved
+	 */
+	void frameCaptured(long available, long capture, long latency) {
+		availableTimes.record(available);
+		captureTimes.record(capture);
+		captureLatencies.record(Math.max(0, latency));
+	}
+
+	/**
+	 * This method is called by the frame grabber with the sequence number of
+	 * every new frame, to detect frames lost by the driver.
+	 * @param sequence the frame's sequence number
+	 * @param captureTime the frame's capture time in microseconds
+	 * @param starved whether the frame grabber had to wait for a video frame
+	 * to be recycled before retrieving this frame
+	 * @return the number of frames lost before this one. If any, the time
+	 * between the frames either side of the gap is returned by 
+	 * {@link #getLastGapDuration()}.
+	 */
+	long frameSequence(long sequence, long captureTime, boolean starved) {
+		long lost = 0;
+
+		if ((lastSequence >= 0) && (sequence > lastSequence + 1)) {
+			lost = sequence - lastSequence - 1;
+			lastGapDuration = Math.max(0, captureTime - lastCaptureTime) * 1000;
+			sequenceGaps.incrementAndGet();
+			lostFrames.addAndGet(lost);
+			gapDurations.record(lastGapDuration);
+			if (starved)
+				starvedGaps.incrementAndGet();
+		}
+		lastSequence = sequence;
+		lastCaptureTime = captureTime;
+		return lost;
+	}
+
+	/**
+	 * This method returns the duration of the last gap detected by 
+	 * {@link #frameSequence(long, long, boolean)}. It must be called by the
+	 * thread retrieving frames.
+	 * @return the duration of the last gap in nanoseconds
+	 */
+	long getLastGapDuration() {
+		return lastGapDuration;
+	}
+
+	/**
+	 * This method is called by the frame grabber when the capture starts, so
+	 * that sequence numbers restarting from 0 are not taken for a gap.
+	 */
+	void captureStarted() {
+		lastSequence = -1;
+	}
+
+	/**
+	 * This method is called whenever image data is copied, either from the
+	 * driver's buffers into a video frame, or within a video frame to make it
+	 * available in another form.
+	 * @param bytes the number of bytes copied
+	 */
+	void bytesCopied(long bytes) {
+		bytesCopied.add(bytes);
+	}
+
+	/**
+	 * This method is called by the dispatcher right before calling the 
+	 * capture callback, once for each frame delivered.
+	 * @param delay how long the frame waited after the capture thread handed
+	 * it over
+	 */
+	void callbackStarted(long delay) {
+		dispatchTimes.record(delay);
+	}
+
+	/**
+	 * This method is called by the frame grabber when a frame is recycled
+	 * during capture.
+	 * @param hold how long the frame was held by the application
+	 */
+	void frameRecycled(long hold) {
+		holdTimes.record(hold);
+	}
+
+	/**
+	 * This method is called by the dispatcher when a frame is queued for
+	 * delivery to the capture callback.
+	 */
+	void frameQueued() {
+		int depth = queueDepth.incrementAndGet();
+		int max;
+		while (depth > (max = maxQueueDepth.get()))
+			if (maxQueueDepth.compareAndSet(max, depth))
+				break;
+	}
+
+	/**
+	 * This method is called by the dispatcher when a queued frame is taken
+	 * off the queue, either to be delivered or dropped.
+	 */
+	void frameDequeued() {
+		queueDepth.decrementAndGet();
+	}
+
+	/**
+	 * This method is called by the dispatcher when several queued frames are
+	 * taken off the queue at once to be delivered as a batch.
+	 * @param count the number of frames taken off the queue
+	 */
+	void framesDequeued(int count) {
+		queueDepth.addAndGet(-count);
+	}
+
+	/**
+	 * This method is called by the dispatcher when a queued frame is dropped
+	 * to make room for a new one.
+	 * @param policy the backpressure policy which dropped the frame
+	 */
+	void frameDropped(BackpressurePolicy policy) {
+		droppedFrames.incrementAndGet(policy.ordinal());
+	}
+
+	/**
+	 * This method is called by the dispatcher when the capture callback
+	 * returns.
+	 * @param frames the number of frames delivered to the callback
+	 * @param duration how long the callback ran for
+	 */
+	void callbackCompleted(int frames, long duration) {
+		deliveredFrames.add(frames);
+		callbackTimes.record(duration);
+		callbackTime.add(duration);
+		long max;
+		while (duration > (max = maxCallbackTime.get()))
+			if (maxCallbackTime.compareAndSet(max, duration))
+				break;
+	}
+
+	/**
+	 * This method returns the number of frames delivered to the capture
+	 * callback.
+	 * @return the number of frames delivered to the capture callback
+	 */
+	public long getDeliveredFrames() {
+		return deliveredFrames.get();
+	}
+
+	/**
+	 * This method returns the number of gaps in the sequence numbers of
+	 * captured frames, ie. how many times the driver dropped one or more
+	 * frames in a row.
+	 * @return the number of gaps in sequence numbers
+	 */
+	public long getSequenceGaps() {
+		return sequenceGaps.get();
+	}
+
+	/**
+	 * This method returns the number of frames dropped by the driver, as
+	 * counted from the gaps in the sequence numbers of captured frames.
+	 * @return the number of frames dropped by the driver
+	 */
+	public long getLostFrames() {
+		return lostFrames.get();
+	}
+
+	/**
+	 * This method returns the number of gaps in sequence numbers which 
+	 * occurred while the frame grabber waited for the application to recycle
+	 * a video frame, ie. gaps most likely caused by the application holding 
+	 * all video frames. If this is close to {@link #getSequenceGaps()}, more 
+	 * video frames or a faster consumer are needed (see 
+	 * {@link BufferUsage#getSuggestedNumberOfVideoFrames()}).
+	 * @return the number of gaps which occurred while waiting for a
+	 * recycled video frame
+	 */
+	public long getStarvedSequenceGaps() {
+		return starvedGaps.get();
+	}
+
+	/**
+	 * This method returns the distribution of the duration of gaps in 
+	 * sequence numbers, ie. the time between the capture of the frames either
+	 * side of each gap.
+	 * @return the distribution of gap durations
+	 */
+	public LatencyHistogram getGapDurations() {
+		return gapDurations;
+	}
+
+	/**
+	 * This method returns the number of bytes of image data copied by v4l4j.
+	 * @return the number of bytes copied
+	 */
+	public long getBytesCopied() {
+		return bytesCopied.get();
+	}
+
+	/**
+	 * This method returns the number of frames currently waiting to be
+	 * delivered to the capture callback. With
+	 * {@link DispatchStrategy#inline()} dispatch, frames are delivered by the
+	 * capture thread and this number is always 0.
+	 * @return the number of frames waiting to be delivered
+	 */
+	public int getDispatchQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * This method returns the highest number of frames that were waiting to
+	 * be delivered at the same time.
+	 * @return the highest number of frames waiting to be delivered
+	 */
+	public int getMaxDispatchQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * This method returns the number of frames recycled without being
+	 * delivered to the capture callback, because it fell behind by more than
+	 * the lag budget. See
+	 * {@link FrameGrabber#setBackpressurePolicy(BackpressurePolicy, int)}.
+	 * @return the number of dropped frames
+	 */
+	public long getDroppedFrames() {
+		long total = 0;
+		for (int i = 0; i < droppedFrames.length(); i++)
+			total += droppedFrames.get(i);
+		return total;
+	}
+
+	/**
+	 * This method returns the number of frames dropped while the given
+	 * backpressure policy was in use. This is always 0 for
+	 * {@link BackpressurePolicy#BLOCK}.
+	 * @param policy the backpressure policy
+	 * @return the number of frames dropped by the given policy
+	 */
+	public long getDroppedFrames(BackpressurePolicy policy) {
+		return droppedFrames.get(policy.ordinal());
+	}
+
+	/**
+	 * This method returns the total time spent in the capture callback.
+	 * @return the total time spent in the capture callback
+	 */
+	public long getTotalCallbackTime() {
+		return callbackTime.get();
+	}
+
+	/**
+	 * This method returns the average time spent in the capture callback for
+	 * each frame. For a {@link BatchCaptureCallback}, this is the time spent
+	 * on a batch divided by the number of frames in it.
+	 * @return the average time spent in the capture callback, or 0 if no
+	 * frames were delivered
+	 */
+	public long getAverageCallbackTime() {
+		long frames = deliveredFrames.get();
+		return (frames == 0) ? 0 : callbackTime.get() / frames;
+	}
+
+	/**
+	 * This method returns the longest time spent in a single call to the 
+	 * capture callback.
+	 * @return the longest time spent in the capture callback
+	 */
+	public long getMaxCallbackTime() {
+		return maxCallbackTime.get();
+	}
+
+	/**
+	 * This method returns the distribution of the time video frames wait to
+	 * be reused after being recycled.
+	 * @return the distribution of the time video frames wait to be reused
+	 */
+	public LatencyHistogram getAvailableTimes() {
+		return availableTimes;
+	}
+
+	/**
+	 * This method returns the distribution of the time taken to retrieve an
+	 * image from the driver (and convert it), once a video frame is available
+	 * to store it.
+	 * @return the distribution of the time taken to retrieve an image
+	 */
+	public LatencyHistogram getCaptureTimes() {
+		return captureTimes;
+	}
+
+	/**
+	 * This method returns the distribution of the time frames wait between
+	 * the capture thread and the capture callback. With 
+	 * {@link DispatchStrategy#inline()} dispatch, this is close to 0.
+	 * @return the distribution of the time frames wait to be delivered
+	 */
+	public LatencyHistogram getDispatchTimes() {
+		return dispatchTimes;
+	}
+
+	/**
+	 * This method returns the distribution of the time spent in each call
+	 * to the capture callback.
+	 * @return the distribution of the time spent in the capture callback
+	 */
+	public LatencyHistogram getCallbackTimes() {
+		return callbackTimes;
+	}
+
+	/**
+	 * This method returns the distribution of the time frames are held by
+	 * the application, from the moment they are retrieved from the driver
+	 * until they are recycled.
+	 * @return the distribution of the time frames are held
+	 */
+	public LatencyHistogram getHoldTimes() {
+		return holdTimes;
+	}
+
+	/**
+	 * This method returns the distribution of the time from the capture of
+	 * an image by the driver until the frame grabber retrieves it. Capture
+	 * times are converted with the frame grabber's {@link ClockCorrelator},
+	 * which estimates the offset between the driver clock and 
+	 * <code>System.nanoTime()</code> from the smallest of these latencies, so
+	 * this distribution shows how much longer than the quickest frame others
+	 * took to be retrieved, eg. because they waited in the driver's queue.
+	 * The latency of the quickest frame itself (dequeuing and copying it) is
+	 * not included.
+	 * @return the distribution of capture latencies
+	 */
+	public LatencyHistogram getCaptureLatencies() {
+		return captureLatencies;
+	}
+
+	/**
+	 * This method resets all counters, except the current dispatch queue
+	 * depth, to 0, and discards the values recorded in all histograms.
+	 */
+	public void reset() {
+		deliveredFrames.reset();
+		callbackTime.reset();
+		bytesCopied.reset();
+		sequenceGaps.set(0);
+		lostFrames.set(0);
+		starvedGaps.set(0);
+		maxCallbackTime.set(0);
+		maxQueueDepth.set(queueDepth.get());
+		for (int i = 0; i < droppedFrames.length(); i++)
+			droppedFrames.set(i, 0);
+		availableTimes.reset();
+		captureTimes.reset();
+		dispatchTimes.reset();
+		callbackTimes.reset();
+		holdTimes.reset();
+		gapDurations.reset();
+		captureLatencies.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "delivered: " + getDeliveredFrames()
+			+ " - dropped: " + getDroppedFrames()
+			+ " - lost: " + getLostFrames()
+			+ " in " + getSequenceGaps() + " gaps (starved: " + getStarvedSequenceGaps() + ")"
+			+ " - queue depth: " + getDispatchQueueDepth()
+			+ " (max: " + getMaxDispatchQueueDepth() + ")"
+			+ " - callback time: " + getAverageCallbackTime()
+			+ "ns (max: " + getMaxCallbackTime() + "ns)";
+	}
+}
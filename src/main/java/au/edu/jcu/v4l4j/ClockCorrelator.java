@@ -0,0 +1,272 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * A ClockCorrelator converts the capture times reported by the driver (see
+ * {@link VideoFrame#getCaptureTime()}) to the JVM's clocks. Drivers timestamp
+ * frames with a clock of their choosing, usually the kernel's monotonic clock
+ * but sometimes its real-time clock, and always in microseconds. These 
+ * timestamps cannot be compared with values returned by 
+ * <code>System.nanoTime()</code> or <code>System.currentTimeMillis()</code>,
+ * nor with timestamps from another device.<br>
+ * Each frame grabber has its own correlator, obtained with
+ * {@link FrameGrabber#getClockCorrelator()}. It is updated with every frame
+ * retrieved from the driver, and continuously estimates the offset and the 
+ * drift between the driver's clock and <code>System.nanoTime()</code>. A 
+ * frame is always retrieved some time after it is captured, so the smallest 
+ * difference between the time a frame is retrieved and its capture time, 
+ * over a one-second window, is the best estimate of the offset between the
+ * two clocks. Comparing the estimates of windows up to 16 seconds apart gives
+ * the drift.<br>
+ * The time a frame is retrieved is taken once the driver has handed it over
+ * and its data has been copied to the video frame, so the offset includes
+ * the smallest latency of the pipeline: dequeuing the buffer and copying the
+ * frame (about 1 ms for 4 MB frames). Converted times are therefore the 
+ * capture time plus this minimum latency, not the exact time of the capture.
+ * Comparing them with later values of <code>System.nanoTime()</code> gives 
+ * the latency beyond what the fastest frame took to be retrieved, as in 
+ * {@link CaptureStatistics#getCaptureLatencies()}.<br>
+ * The offset between <code>System.nanoTime()</code> and the wall clock is 
+ * sampled once per window.<br>
+ * Converted capture times are stored in each video frame when it is 
+ * retrieved (see {@link VideoFrame#getCaptureNanoTime()} and 
+ * {@link VideoFrame#getCaptureWallTime()}), so reading them does not 
+ * allocate memory or take a lock. Until a full window of frames has been
+ * captured, the drift is assumed to be 0. If the driver clock goes 
+ * backwards, for instance when a real-time clock is set, the estimate starts
+ * over.
+ * @author gilles
+ *
+ */
+public final class ClockCorrelator {
+	// length of an estimation window, in nanoseconds of driver time
+	private static final long	WINDOW = 1000000000L;
+	// a window whose minimum offset is this far from the estimate means the
+	// driver clock has jumped
+	private static final long	MAX_JUMP = 1000000000L;
+	// number of past window minima kept: drift is measured against the
+	// oldest one, so noise in the minima is spread over a longer time
+	private static final int	HISTORY = 16;
+	// weight of a new drift measurement
+	private static final double	DRIFT_GAIN = 1.0 / 4;
+	// drift measurements larger than this are discarded (1000 ppm)
+	private static final double	MAX_DRIFT = 1e-3;
+
+	// the offset (System.nanoTime() - driver time) at anchorTime
+	private long				anchorTime;
+	private long				anchorOffset;
+	private double				drift;
+	private boolean				anchored;
+
+	// the current window, and the minimum offset observed in it
+	private long				windowStart;
+	private long				windowMinTime;
+	private long				windowMinOffset;
+	private boolean				windowEmpty;
+
+	// the minimum offsets of past windows, for drift measurements
+	private final long[]		historyTimes = new long[HISTORY];
+	private final long[]		historyOffsets = new long[HISTORY];
+	private int					historySize;
+	private int					historyNext;
+
+	// System.currentTimeMillis() - System.nanoTime(), in nanoseconds
+	private long				wallOffset;
+	private long				lastTime;
+	private long				samples;
+
+	ClockCorrelator() {
+		reset();
+	}
+
+	/**
+	 * This method discards the current estimate. The next sample starts a
+	 * new one.
+	 */
+	synchronized void reset() {
+		anchored = false;
+		drift = 0;
+		windowEmpty = true;
+		historySize = 0;
+		historyNext = 0;
+		samples = 0;
+	}
+
+	/**
+	 * This method is called by the frame grabber with the capture time of
+	 * every frame retrieved from the driver. It updates the estimate and
+	 * stores the converted capture times in the frame, so that the lock is
+	 * taken once per frame.
+	 * @param captureTime the capture time reported by the driver in
+	 * microseconds
+	 * @param retrieved the value of <code>System.nanoTime()</code> when the
+	 * frame was retrieved
+	 * @param frame the video frame which receives the converted times
+	 */
+	synchronized void sample(long captureTime, long retrieved, BaseVideoFrame frame) {
+		long time = captureTime * 1000;
+		long offset = retrieved - time;
+
+		// capture times only go backwards if the driver clock was set
+		if ((samples > 0) && (time < lastTime))
+			reset();
+		if (samples++ == 0)
+			sampleWallClock();
+		lastTime = time;
+
+		if (! anchored) {
+			anchor(time, offset);
+		} else if (offset < predict(time)) {
+			// this frame was retrieved sooner after its capture than the 
+			// estimate allows: the estimate is too high. This also catches
+			// a driver clock jumping forward.
+			anchor(time, offset);
+		}
+
+		if (windowEmpty || offset < windowMinOffset) {
+			windowMinTime = time;
+			windowMinOffset = offset;
+		}
+		if (windowEmpty) {
+			windowStart = time;
+			windowEmpty = false;
+		} else if (time - windowStart >= WINDOW)
+			closeWindow();
+
+		long nanoTime = time + predict(time);
+		frame.setCaptureTimes(nanoTime, (nanoTime + wallOffset) / 1000);
+	}
+
+	/**
+	 * This method updates the estimate with the minimum offset of the 
+	 * current window, and starts a new window.
+	 */
+	private void closeWindow() {
+		if (windowMinOffset - predict(windowMinTime) > MAX_JUMP) {
+			// the driver clock has fallen behind: start over
+			drift = 0;
+			historySize = 0;
+		} else if (historySize > 0) {
+			// the oldest entry is overwritten next
+			int oldest = (historySize < HISTORY) ? 0 : historyNext;
+			double measured = (double) (windowMinOffset - historyOffsets[oldest])
+					/ (windowMinTime - historyTimes[oldest]);
+			if (Math.abs(measured) <= MAX_DRIFT)
+				drift += (measured - drift) * DRIFT_GAIN;
+		}
+
+		anchor(windowMinTime, windowMinOffset);
+		historyTimes[historyNext] = windowMinTime;
+		historyOffsets[historyNext] = windowMinOffset;
+		historyNext = (historyNext + 1) % HISTORY;
+		historySize = Math.min(historySize + 1, HISTORY);
+		windowEmpty = true;
+		sampleWallClock();
+	}
+
+	private void anchor(long time, long offset) {
+		anchorTime = time;
+		anchorOffset = offset;
+		anchored = true;
+	}
+
+	/**
+	 * This method returns the estimated offset at the given driver time.
+	 * @param time a driver time in nanoseconds
+	 * @return the estimated value of <code>System.nanoTime()</code> minus
+	 * the driver time
+	 */
+	private long predict(long time) {
+		return anchorOffset + (long) (drift * (time - anchorTime));
+	}
+
+	/**
+	 * This method samples the offset between the wall clock and 
+	 * <code>System.nanoTime()</code>.
+	 */
+	private void sampleWallClock() {
+		long before = System.nanoTime();
+		long wall = System.currentTimeMillis();
+		long after = System.nanoTime();
+		wallOffset = wall * 1000000 - (before + (after - before) / 2);
+	}
+
+	/**
+	 * This method converts a capture time reported by the driver to the
+	 * time base of <code>System.nanoTime()</code>. The result is later than 
+	 * the actual capture by the minimum latency of the pipeline (see above).
+	 * @param captureTime a capture time in microseconds, as returned by
+	 * {@link VideoFrame#getCaptureTime()}
+	 * @return the corresponding value of <code>System.nanoTime()</code>, or
+	 * <code>captureTime</code> in nanoseconds if no frame has been captured
+	 * yet
+	 */
+	public synchronized long toNanoTime(long captureTime) {
+		long time = captureTime * 1000;
+		return anchored ? time + predict(time) : time;
+	}
+
+	/**
+	 * This method converts a capture time reported by the driver to the
+	 * wall clock.
+	 * @param captureTime a capture time in microseconds, as returned by
+	 * {@link VideoFrame#getCaptureTime()}
+	 * @return the corresponding number of microseconds since the epoch (1st
+	 * of January 1970 UTC), or <code>captureTime</code> if no frame has been
+	 * captured yet
+	 */
+	public synchronized long toWallTime(long captureTime) {
+		return anchored ? (toNanoTime(captureTime) + wallOffset) / 1000 : captureTime;
+	}
+
+	/**
+	 * This method returns the current estimate of the offset between 
+	 * <code>System.nanoTime()</code> and the driver clock.
+	 * @return <code>System.nanoTime()</code> minus the driver time at the
+	 * last frame, in nanoseconds
+	 */
+	public synchronized long getOffset() {
+		return anchored ? anchorOffset : 0;
+	}
+
+	/**
+	 * This method returns the current estimate of the drift between 
+	 * <code>System.nanoTime()</code> and the driver clock.
+	 * @return by how much <code>System.nanoTime()</code> runs faster than 
+	 * the driver clock, in parts per million
+	 */
+	public synchronized double getDrift() {
+		return drift * 1e6;
+	}
+
+	/**
+	 * This method returns the number of capture times used since the 
+	 * estimate started.
+	 * @return the number of samples in the current estimate
+	 */
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "offset: " + getOffset() + "ns - drift: " + getDrift() + "ppm"
+			+ " - samples: " + samples;
+	}
+}
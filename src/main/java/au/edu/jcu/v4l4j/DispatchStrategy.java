@@ -0,0 +1,249 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
+
+/**
+ * A DispatchStrategy defines which thread calls
+ * {@link CaptureCallback#nextFrame(VideoFrame)} in push mode. Frames are
+ * always retrieved from the driver by the frame grabber's capture thread. With
+ * the {@link #inline()} strategy (the default), the capture thread also calls
+ * the capture callback, and does not retrieve the next frame until the callback
+ * returns. With the other strategies, the capture thread hands frames over to
+ * other threads and goes back to retrieving frames straight away, so a slow
+ * callback does not delay dequeuing frames from the driver. Note that with
+ * these strategies, frames may be delivered out of order, and
+ * {@link CaptureCallback#nextFrame(VideoFrame)} may be called concurrently.
+ * <br>
+ * Dispatch strategies are set with
+ * {@link FrameGrabber#setDispatchStrategy(DispatchStrategy)}. The number of
+ * frames waiting to be delivered, and the time spent in the callback can be
+ * monitored with the {@link CaptureStatistics} object returned by
+ * {@link FrameGrabber#getStatistics()}.<br>
+ * What happens to frames when the callback falls behind is decided by the
+ * frame grabber's {@link BackpressurePolicy} (see
+ * {@link FrameGrabber#setBackpressurePolicy(BackpressurePolicy, int)}). With
+ * a policy other than {@link BackpressurePolicy#BLOCK}, the inline strategy
+ * delivers frames with a single thread, so that the capture thread never
+ * waits for the callback. The same applies to a {@link BatchCaptureCallback}.
+ * @author gilles
+ *
+ */
+public abstract class DispatchStrategy {
+	private static final DispatchStrategy	INLINE = new DispatchStrategy() {
+		@Override
+		CaptureDispatcher newDispatcher(CaptureCallback cb, CaptureStatistics stats,
+				ThreadFactory factory, int capacity, BackpressurePolicy policy, int lagBudget) {
+			if ((policy == BackpressurePolicy.BLOCK)
+					&& ! (cb instanceof BatchCaptureCallback))
+				return new CaptureDispatcher.Inline(cb, stats);
+
+			// frames can only be dropped or batched if the capture thread does
+			// not wait for the callback: use a single delivery thread, which
+			// keeps frames in order
+			return new CaptureDispatcher.Async(cb, stats, newPool(1, factory),
+					true, 1, policy, queueSize(policy, lagBudget, capacity));
+		}
+
+		@Override
+		public String toString() {
+			return "inline";
+		}
+	};
+
+	DispatchStrategy() {
+	}
+
+	/**
+	 * This method creates the dispatcher used for one capture session, ie.
+	 * between a call to {@link FrameGrabber#startCapture()} and
+	 * {@link FrameGrabber#stopCapture()}.
+	 * @param cb the capture callback
+	 * @param stats the statistics object to be updated
+	 * @param factory the frame grabber's thread factory
+	 * @param capacity the number of video frames
+	 * @param policy the frame grabber's backpressure policy
+	 * @param lagBudget the frame grabber's lag budget
+	 * @return a new dispatcher
+	 */
+	abstract CaptureDispatcher newDispatcher(CaptureCallback cb, CaptureStatistics stats,
+			ThreadFactory factory, int capacity, BackpressurePolicy policy, int lagBudget);
+
+	/**
+	 * This method returns the maximum number of frames waiting to be
+	 * delivered for the given backpressure policy.
+	 * @param policy the backpressure policy
+	 * @param lagBudget the lag budget
+	 * @param capacity the number of video frames
+	 * @return the size of the dispatch queue
+	 */
+	static int queueSize(BackpressurePolicy policy, int lagBudget, int capacity) {
+		switch (policy) {
+		case LATEST_ONLY:
+			return 1;
+		case DROP_OLDEST:
+			return Math.max(1, Math.min(lagBudget, capacity));
+		default:
+			return Math.max(1, capacity);
+		}
+	}
+
+	/**
+	 * This method creates a fixed-size thread pool whose threads are created
+	 * by the given factory.
+	 * @param threads the number of threads
+	 * @param factory the frame grabber's thread factory
+	 * @return the thread pool
+	 */
+	static ThreadPoolExecutor newPool(int threads, final ThreadFactory factory) {
+		// a dispatcher never submits more tasks than it has workers
+		return new ThreadPoolExecutor(threads, threads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = factory.newThread(r);
+						t.setName(t.getName() + " - v4l4j dispatcher");
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * This method returns the strategy where the capture thread calls the
+	 * capture callback itself. This is the default strategy, and has the
+	 * lowest overhead when the callback returns quickly.
+	 * @return the inline dispatch strategy
+	 */
+	public static DispatchStrategy inline() {
+		return INLINE;
+	}
+
+	/**
+	 * This method returns a strategy where frames are delivered by a pool of
+	 * threads, created by the frame grabber's thread factory (see
+	 * {@link VideoDevice#setThreadFactory(ThreadFactory)}) when the capture
+	 * starts, and terminated when it stops.
+	 * @param threads the number of threads in the pool
+	 * @return a pooled dispatch strategy
+	 * @throws IllegalArgumentException if <code>threads</code> is less than 1
+	 */
+	public static DispatchStrategy pooled(final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("The number of threads must be at least 1");
+
+		return new DispatchStrategy() {
+			@Override
+			CaptureDispatcher newDispatcher(CaptureCallback cb, CaptureStatistics stats,
+					ThreadFactory factory, int capacity, BackpressurePolicy policy, int lagBudget) {
+				return new CaptureDispatcher.Async(cb, stats, newPool(threads, factory),
+						true, threads, policy, queueSize(policy, lagBudget, capacity));
+			}
+
+			@Override
+			public String toString() {
+				return "pooled(" + threads + ")";
+			}
+		};
+	}
+
+	/**
+	 * This method returns a strategy where frames are delivered by tasks
+	 * submitted to the given executor. The executor is not shut down when the
+	 * capture stops. If it rejects a task, the capture thread delivers the
+	 * frame itself.
+	 * @param executor the executor to which frames are submitted
+	 * @return an executor dispatch strategy
+	 */
+	public static DispatchStrategy executor(final Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("The executor cannot be null");
+
+		return new DispatchStrategy() {
+			@Override
+			CaptureDispatcher newDispatcher(CaptureCallback cb, CaptureStatistics stats,
+					ThreadFactory factory, int capacity, BackpressurePolicy policy, int lagBudget) {
+				return new CaptureDispatcher.Async(cb, stats, executor, false,
+						capacity, policy, queueSize(policy, lagBudget, capacity));
+			}
+
+			@Override
+			public String toString() {
+				return "executor(" + executor + ")";
+			}
+		};
+	}
+
+	/**
+	 * This method returns a strategy where each frame is delivered by a new
+	 * virtual thread. Virtual threads are cheap to create, so this strategy
+	 * suits callbacks which spend most of their time blocked. It requires
+	 * Java 21 or later.
+	 * @return a virtual-thread-per-frame dispatch strategy
+	 * @throws UnsupportedMethod if virtual threads are not supported by this JVM
+	 */
+	public static DispatchStrategy virtualThreads() {
+		final Method factoryMethod;
+
+		try {
+			factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedMethod("Virtual threads require Java 21 or later", e);
+		}
+
+		// make sure they are not a disabled preview feature
+		((ExecutorService) newVirtualThreadExecutor(factoryMethod)).shutdown();
+
+		return new DispatchStrategy() {
+			@Override
+			CaptureDispatcher newDispatcher(CaptureCallback cb, CaptureStatistics stats,
+					ThreadFactory factory, int capacity, BackpressurePolicy policy, int lagBudget) {
+				return new CaptureDispatcher.Async(cb, stats,
+						newVirtualThreadExecutor(factoryMethod), true,
+						capacity, policy, queueSize(policy, lagBudget, capacity));
+			}
+
+			@Override
+			public String toString() {
+				return "virtual threads";
+			}
+		};
+	}
+
+	private static Executor newVirtualThreadExecutor(Method factoryMethod) {
+		try {
+			return (Executor) factoryMethod.invoke(null);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedMethod("Virtual threads are not available", e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedMethod("Virtual threads are not available", e);
+		}
+	}
+}
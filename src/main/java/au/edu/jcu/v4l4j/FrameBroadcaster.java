@@ -0,0 +1,331 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A FrameBroadcaster delivers the frames captured by one {@link FrameGrabber}
+ * to several subscribers, without copying them. Every subscriber receives the
+ * same {@link VideoFrame} object, and must recycle it when done with it, as
+ * usual. The frame is only returned to the frame grabber when the last
+ * subscriber has recycled it.<br>
+ * Each subscriber is a {@link CaptureCallback} with its own delivery thread
+ * and queue of frames waiting to be delivered. What happens when this queue
+ * is full is decided by the subscriber's {@link BackpressurePolicy}, so that a
+ * slow subscriber using {@link BackpressurePolicy#DROP_OLDEST} or
+ * {@link BackpressurePolicy#LATEST_ONLY} only loses frames itself, and does not
+ * hold up the others. Note that a subscriber holds as many video frames as
+ * its queue size, plus the one it is processing: the sum of these for all
+ * subscribers must be less than {@link FrameGrabber#getNumberOfVideoFrames()}
+ * or the capture will stall until a subscriber recycles a frame.<br>
+ * A broadcaster is used as follows:
+ * <code><br>
+ * <br>FrameBroadcaster broadcaster = new FrameBroadcaster(frameGrabber);
+ * <br>broadcaster.subscribe(recorder, BackpressurePolicy.BLOCK, 2);
+ * <br>broadcaster.subscribe(preview, BackpressurePolicy.LATEST_ONLY, 1);
+ * <br>frameGrabber.startCapture();
+ * <br>...
+ * <br>frameGrabber.stopCapture();
+ * <br>broadcaster.close();
+ * </code>
+ * @author gilles
+ *
+ */
+public class FrameBroadcaster implements CaptureCallback {
+	private final ThreadFactory						threadFactory;
+	private final CopyOnWriteArrayList<Subscription>	subscriptions;
+
+	/**
+	 * This method builds a new broadcaster and sets it as the given frame
+	 * grabber's capture callback. Subscriber threads are created by the
+	 * thread factory returned by <code>Executors.defaultThreadFactory()</code>.
+	 * @param grabber the frame grabber whose frames will be broadcast
+	 * @throws StateException if the frame grabber is capturing
+	 */
+	public FrameBroadcaster(FrameGrabber grabber) {
+		this(grabber, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This method builds a new broadcaster and sets it as the given frame
+	 * grabber's capture callback.
+	 * @param grabber the frame grabber whose frames will be broadcast
+	 * @param factory the thread factory used to create subscriber threads
+	 * @throws StateException if the frame grabber is capturing
+	 */
+	public FrameBroadcaster(FrameGrabber grabber, ThreadFactory factory) {
+		if ((grabber == null) || (factory == null))
+			throw new NullPointerException("the frame grabber and thread factory cannot be null");
+
+		threadFactory = factory;
+		subscriptions = new CopyOnWriteArrayList<Subscription>();
+		grabber.setCaptureCallback(this);
+	}
+
+	/**
+	 * This method adds a subscriber to this broadcaster. It can be called at
+	 * any time, including during capture, and will receive frames captured
+	 * from then on.
+	 * @param subscriber the capture callback to which frames will be delivered
+	 * @param policy what to do when the subscriber's queue is full
+	 * @param queueSize how many frames can wait to be delivered to this
+	 * subscriber. This is ignored (and 1 is used instead) if the policy is
+	 * {@link BackpressurePolicy#LATEST_ONLY}.
+	 * @return the subscription object, used to remove the subscriber and
+	 * obtain its statistics
+	 * @throws IllegalArgumentException if <code>queueSize</code> is less than 1
+	 */
+	public Subscription subscribe(CaptureCallback subscriber,
+			BackpressurePolicy policy, int queueSize) {
+		if ((subscriber == null) || (policy == null))
+			throw new NullPointerException("the subscriber and policy cannot be null");
+		if (queueSize < 1)
+			throw new IllegalArgumentException("The queue size must be at least 1");
+
+		Subscription s = new Subscription(subscriber, policy,
+				(policy == BackpressurePolicy.LATEST_ONLY) ? 1 : queueSize);
+		subscriptions.add(s);
+		s.start(threadFactory);
+		return s;
+	}
+
+	/**
+	 * This method removes all subscribers from this broadcaster and stops
+	 * their threads. Frames waiting to be delivered are recycled.
+	 */
+	public void close() {
+		for (Subscription s : subscriptions)
+			s.cancel();
+	}
+
+	/**
+	 * This method is called by the frame grabber with every new frame, and
+	 * queues it for every subscriber.
+	 * @param frame the latest captured frame
+	 */
+	@Override
+	public void nextFrame(VideoFrame frame) {
+		if (! (frame instanceof BaseVideoFrame))
+			throw new IllegalArgumentException("Only frames delivered by a v4l4j "
+					+ "frame grabber can be broadcast");
+
+		BaseVideoFrame f = (BaseVideoFrame) frame;
+		try {
+			for (Subscription s : subscriptions)
+				s.offer(f);
+		} finally {
+			// release the reference the frame grabber gave us
+			f.recycle();
+		}
+	}
+
+	/**
+	 * This method is called by the frame grabber if an error occurs during
+	 * capture, and passes the exception on to all subscribers.
+	 * @param e the exception that was raised during the capture.
+	 */
+	@Override
+	public void exceptionReceived(V4L4JException e) {
+		for (Subscription s : subscriptions) {
+			try { s.subscriber.exceptionReceived(e); }
+			catch (Throwable t) {} // ignore any exception thrown by the subscriber
+		}
+	}
+
+	/**
+	 * A Subscription represents one subscriber to a {@link FrameBroadcaster},
+	 * and is returned by
+	 * {@link FrameBroadcaster#subscribe(CaptureCallback, BackpressurePolicy, int)}.
+	 * @author gilles
+	 *
+	 */
+	public final class Subscription implements Runnable {
+		private final CaptureCallback				subscriber;
+		private final BackpressurePolicy			policy;
+		private final BlockingQueue<QueuedFrame>	queue;
+		private final AtomicLong					delivered;
+		private final AtomicLong					dropped;
+		private volatile Thread						thread;
+		private volatile boolean					cancelled;
+
+		private Subscription(CaptureCallback s, BackpressurePolicy p, int size) {
+			subscriber = s;
+			policy = p;
+			queue = new ArrayBlockingQueue<QueuedFrame>(size);
+			delivered = new AtomicLong();
+			dropped = new AtomicLong();
+			cancelled = false;
+		}
+
+		private void start(ThreadFactory factory) {
+			thread = factory.newThread(this);
+			thread.setName(thread.getName() + " - v4l4j broadcast subscriber");
+			thread.start();
+		}
+
+		/**
+		 * This method is called by the frame grabber's capture thread to
+		 * queue a new frame for this subscriber, as per its policy.
+		 * @param frame the new frame
+		 */
+		private void offer(BaseVideoFrame frame) {
+			if (cancelled)
+				return;
+
+			frame.retain();
+			QueuedFrame entry = new QueuedFrame(frame, frame.getGeneration());
+
+			if (policy == BackpressurePolicy.BLOCK) {
+				try {
+					queue.put(entry);
+				} catch (InterruptedException e) {
+					entry.release();
+					Thread.currentThread().interrupt();
+				}
+			} else {
+				while (! queue.offer(entry)) {
+					QueuedFrame oldest = queue.poll();
+					if (oldest != null) {
+						oldest.release();
+						dropped.incrementAndGet();
+					}
+				}
+			}
+
+			// we might have raced with cancel()
+			if (cancelled)
+				drain();
+		}
+
+		@Override
+		public void run() {
+			while (! cancelled) {
+				QueuedFrame entry;
+				try {
+					entry = queue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+
+				// frames recycled by the frame grabber when the capture
+				// was stopped are stale, even if they were delivered again 
+				// since: their reference was dropped with the others
+				if (entry.isStale())
+					continue;
+
+				delivered.incrementAndGet();
+				try { subscriber.nextFrame(entry.frame); }
+				catch (Throwable t) {} // ignore any exception thrown by the subscriber
+			}
+
+			drain();
+		}
+
+		private void drain() {
+			QueuedFrame entry;
+			while ((entry = queue.poll()) != null)
+				entry.release();
+		}
+
+		/**
+		 * This method removes this subscriber from the broadcaster, and stops
+		 * its thread. Frames waiting to be delivered are recycled. If the
+		 * subscriber is processing a frame, this method does not wait for it
+		 * to return.
+		 */
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			if (thread != null)
+				thread.interrupt();
+		}
+
+		/**
+		 * This method returns this subscriber's backpressure policy.
+		 * @return this subscriber's backpressure policy
+		 */
+		public BackpressurePolicy getPolicy() {
+			return policy;
+		}
+
+		/**
+		 * This method returns the number of frames delivered to this
+		 * subscriber.
+		 * @return the number of frames delivered to this subscriber
+		 */
+		public long getDeliveredFrames() {
+			return delivered.get();
+		}
+
+		/**
+		 * This method returns the number of frames dropped because this
+		 * subscriber's queue was full.
+		 * @return the number of frames dropped for this subscriber
+		 */
+		public long getDroppedFrames() {
+			return dropped.get();
+		}
+
+		/**
+		 * This method returns the number of frames currently waiting to be
+		 * delivered to this subscriber.
+		 * @return the number of frames waiting to be delivered
+		 */
+		public int getQueueDepth() {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * A frame waiting to be delivered to a subscriber, with the generation 
+	 * it had when it was queued. The frame grabber delivers the same frame 
+	 * objects again after the capture is restarted, so the generation tells 
+	 * whether the reference held by the queue still belongs to the frame's
+	 * current delivery.
+	 */
+	private static final class QueuedFrame {
+		final BaseVideoFrame	frame;
+		final int				generation;
+
+		QueuedFrame(BaseVideoFrame f, int g) {
+			frame = f;
+			generation = g;
+		}
+
+		boolean isStale() {
+			return frame.getGeneration() != generation;
+		}
+
+		/**
+		 * This method releases the reference held by the queue, unless the
+		 * frame was recycled since it was queued.
+		 */
+		void release() {
+			frame.release(null, generation);
+		}
+	}
+}
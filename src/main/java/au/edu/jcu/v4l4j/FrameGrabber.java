@@ -24,6 +24,9 @@
 
 package au.edu.jcu.v4l4j;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 import au.edu.jcu.v4l4j.VideoFrame;
 import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
 import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
@@ -98,6 +101,29 @@ import au.edu.jcu.v4l4j.exceptions.V4L4JException;
  * <br>Again, you must recycle video frames when they are no
  * longer used.<br></br>
  * 
+ * Frame grabbers can also operate in pull mode, if {@link #startCapture()}
+ * is called without setting a capture callback first. In pull mode, v4l4j
+ * does not create a thread. Instead, your application retrieves frames
+ * from its own thread(s) by calling {@link #take()}, {@link #poll(long, TimeUnit)}
+ * or {@link #tryPoll()}, which saves a thread hand-off for each frame:
+ * <code>
+ * <br>f.startCapture();
+ * <br>while (capturing) {
+ * <br>&nbsp;&nbsp; VideoFrame frame = f.take();
+ * <br>&nbsp;&nbsp; //do something useful with frame, then recycle it
+ * <br>&nbsp;&nbsp; frame.recycle();
+ * <br>}
+ * <br>f.stopCapture();
+ * </code><br>
+ * Calling {@link #stopCapture()} wakes up threads blocked in any of these 
+ * methods, which then throw a {@link StateException}.<br>
+ * At high frame rates, a {@link BatchCaptureCallback} receives all the frames
+ * captured while it processed the previous ones in a single call.<br>
+ * A {@link FramePublisher} uses pull mode to deliver frames to a
+ * {@link FrameSubscriber} only as fast as it requests them.<br>
+ * A {@link SyntheticFrameGrabber} generates test pattern frames without a 
+ * video device, so that applications can be tested on hosts without one.<br></br>
+ * 
  * Only one frame grabber can be used at any one time on a given video device.
  * Once a frame grabber is released with 
  * {@link VideoDevice#releaseFrameGrabber()}, another one can be obtained. 
@@ -141,6 +167,8 @@ public interface FrameGrabber {
 	 * setting the <code>v4l4j.num_driver_buffers</code> property to an integer value 
 	 * <b>before creating a frame grabber object</b>. The number you specify is only an
 	 * indication, and the driver can decide to allocate a different number of buffers.
+	 * The number of buffers can also be adjusted automatically: see
+	 * {@link VideoDevice#setBufferMemoryBudget(long)} and {@link BufferUsage}.
 	 * Before setting this number, make sure you fully understand the implications of doing this.
 	 * @return the number of frame buffers used to retrieve frames from 
 	 * the driver
@@ -158,7 +186,57 @@ public interface FrameGrabber {
 	 * @see #getNumberOfVideoFrames()
 	 */
 	public int getNumberOfRecycledVideoFrames();
-	
+
+	/**
+	 * This method returns the {@link BufferUsage} object which measures how
+	 * long video frames are held by the application, and suggests how many
+	 * video frames should be used.
+	 * @return this frame grabber's buffer usage
+	 */
+	public BufferUsage getBufferUsage();
+
+	/**
+	 * This method returns the {@link ClockCorrelator} which converts the 
+	 * capture times reported by the driver to the time bases of 
+	 * <code>System.nanoTime()</code> and of the wall clock. It is updated by 
+	 * this frame grabber with every captured frame, and used to compute the
+	 * values returned by {@link VideoFrame#getCaptureNanoTime()} and 
+	 * {@link VideoFrame#getCaptureWallTime()}.
+	 * @return this frame grabber's clock correlator
+	 */
+	public ClockCorrelator getClockCorrelator();
+
+	/**
+	 * This method recycles all the given video frames, as if 
+	 * {@link VideoFrame#recycle()} was called on each of them. It is meant to
+	 * return a whole batch received by a {@link BatchCaptureCallback} at once.
+	 * The collection itself is not modified.
+	 * @param frames the video frames to recycle
+	 */
+	public void recycleVideoFrames(Collection<? extends VideoFrame> frames);
+
+	/**
+	 * This method sets the {@link WaitStrategy} used by the capture thread
+	 * when it waits for a video frame to be recycled, ie. when all video frames
+	 * are held by your application. The default strategy is
+	 * {@link WaitStrategy#PARK}, unless the <code>v4l4j.wait_strategy</code>
+	 * property was set before creating this frame grabber. This method can be
+	 * called at any time, including during capture.
+	 * @param strategy the new wait strategy
+	 * @throws StateException if this
+	 * <code>FrameGrabber</code> has been already released, and therefore must
+	 * not be used anymore.
+	 */
+	public void setWaitStrategy(WaitStrategy strategy);
+
+	/**
+	 * This method returns the {@link WaitStrategy} currently used by the
+	 * capture thread when waiting for a video frame to be recycled.
+	 * @return the current wait strategy
+	 * @see #setWaitStrategy(WaitStrategy)
+	 */
+	public WaitStrategy getWaitStrategy();
+
 	/**
 	 * This method sets the frame interval used for capture. The frame interval
 	 * defined the lapse of time (in second) between two captured frames and is 
@@ -244,17 +322,149 @@ public interface FrameGrabber {
 	 */
 	public void setCaptureCallback(CaptureCallback callback);
 
+	/**
+	 * This method sets the {@link DispatchStrategy} which decides what thread
+	 * calls the {@link CaptureCallback} in push mode. By default, the capture
+	 * thread calls it directly ({@link DispatchStrategy#inline()}).<br>
+	 * This method cannot be called while the capture is active, ie. in between
+	 * a call to {@link #startCapture()} and {@link #stopCapture()}.
+	 * @param strategy the dispatch strategy to use from the next call to
+	 * {@link #startCapture()}
+	 * @throws StateException if this method is invoked while capture is active,
+	 * ie. after a call to {@link #startCapture()} and prior a call 
+	 * to {@link #stopCapture()}.  
+	 */
+	public void setDispatchStrategy(DispatchStrategy strategy);
+
+	/**
+	 * This method returns the current {@link DispatchStrategy}.
+	 * @return the current dispatch strategy
+	 * @see #setDispatchStrategy(DispatchStrategy)
+	 */
+	public DispatchStrategy getDispatchStrategy();
+
+	/**
+	 * This method sets what happens in push mode when the
+	 * {@link CaptureCallback} falls behind the capture. With
+	 * {@link BackpressurePolicy#BLOCK} (the default), the capture thread waits
+	 * for the callback to recycle a frame, and the driver drops frames once it
+	 * runs out of buffers. With the other policies, frames waiting to be
+	 * delivered are recycled by the frame grabber itself once there are more
+	 * than <code>lagBudget</code> of them, so that the callback always receives
+	 * recent frames. Dropped frames are counted by the
+	 * {@link CaptureStatistics} object returned by {@link #getStatistics()}.
+	 * <br>Frames held by the callback are not counted in the lag budget, which
+	 * must therefore be less than {@link #getNumberOfVideoFrames()} minus the
+	 * number of frames the callback holds at any one time, or the capture
+	 * thread still ends up waiting for the callback. The lag budget is
+	 * ignored by {@link BackpressurePolicy#BLOCK} and
+	 * {@link BackpressurePolicy#LATEST_ONLY}, which uses a budget of 1.<br>
+	 * Backpressure policies have no effect in pull mode, where the application
+	 * decides when frames are retrieved.<br>
+	 * This method cannot be called while the capture is active, ie. in between
+	 * a call to {@link #startCapture()} and {@link #stopCapture()}.
+	 * @param policy the backpressure policy to use from the next call to
+	 * {@link #startCapture()}
+	 * @param lagBudget the maximum number of frames waiting to be delivered
+	 * with the {@link BackpressurePolicy#DROP_OLDEST} policy
+	 * @throws IllegalArgumentException if <code>lagBudget</code> is less than 1
+	 * @throws StateException if this method is invoked while capture is active,
+	 * ie. after a call to {@link #startCapture()} and prior a call 
+	 * to {@link #stopCapture()}.  
+	 */
+	public void setBackpressurePolicy(BackpressurePolicy policy, int lagBudget);
+
+	/**
+	 * This method returns the current {@link BackpressurePolicy}.
+	 * @return the current backpressure policy
+	 * @see #setBackpressurePolicy(BackpressurePolicy, int)
+	 */
+	public BackpressurePolicy getBackpressurePolicy();
+
+	/**
+	 * This method returns the current lag budget.
+	 * @return the current lag budget
+	 * @see #setBackpressurePolicy(BackpressurePolicy, int)
+	 */
+	public int getLagBudget();
+
+	/**
+	 * This method sets the {@link FrameLossListener} notified when gaps in
+	 * frame sequence numbers show that the driver lost frames. Lost frames
+	 * are counted by the {@link CaptureStatistics} object returned by 
+	 * {@link #getStatistics()} whether or not a listener is set. This method
+	 * can be called at any time, including while the capture is active.
+	 * @param listener the listener to notify, or <code>null</code> to remove
+	 * the current one
+	 */
+	public void setFrameLossListener(FrameLossListener listener);
+
+	/**
+	 * This method returns the {@link CaptureStatistics} object updated by
+	 * this frame grabber during capture.
+	 * @return this frame grabber's capture statistics
+	 */
+	public CaptureStatistics getStatistics();
+
 	/**
 	 * This method starts the capture. Frames will
-	 * be delivered to the provided {@link CaptureCallback} object.
-	 * @throws V4L4JException if no valid {@link CaptureCallback} object was 
-	 * provided (call {@link #setCaptureCallback(CaptureCallback callback)}
-	 * OR if the capture cannot be started
+	 * be delivered to the provided {@link CaptureCallback} object. If no
+	 * capture callback was set, the capture starts in pull mode, and frames
+	 * must be retrieved with {@link #take()}, {@link #poll(long, TimeUnit)} 
+	 * or {@link #tryPoll()}.
+	 * @throws V4L4JException if the capture cannot be started
 	 * @throws StateException if this <code>FrameGrabber</code> has been already
 	 * released, and therefore must not be used anymore
 	 */
 	public void startCapture() throws V4L4JException;
 
+	/**
+	 * This method retrieves the next captured frame in pull mode, waiting 
+	 * for a video frame to be recycled if your application holds all of them,
+	 * and then for the driver to capture a new frame. Several threads can call
+	 * this method concurrently, in which case they receive frames in turn.
+	 * @return the next captured frame
+	 * @throws V4L4JException if there is an error capturing the frame
+	 * @throws StateException if this frame grabber is not capturing, 
+	 * delivers frames to a {@link CaptureCallback}, or if the capture is
+	 * stopped or the calling thread interrupted while waiting.
+	 */
+	public VideoFrame take() throws V4L4JException;
+
+	/**
+	 * This method retrieves the next captured frame in pull mode, waiting 
+	 * at most the given time for a video frame to be recycled if your 
+	 * application holds all of them. The timeout does not cover the
+	 * time spent waiting for the driver to capture the frame, which is 
+	 * normally at most one frame interval.
+	 * @param timeout how long to wait for a recycled video frame
+	 * @param unit the unit of <code>timeout</code>
+	 * @return the next captured frame, or <code>null</code> if no video
+	 * frame was recycled within the timeout
+	 * @throws V4L4JException if there is an error capturing the frame
+	 * @throws StateException if this frame grabber is not capturing, 
+	 * delivers frames to a {@link CaptureCallback}, or if the capture is
+	 * stopped or the calling thread interrupted while waiting.
+	 * @see #take()
+	 */
+	public VideoFrame poll(long timeout, TimeUnit unit) throws V4L4JException;
+
+	/**
+	 * This method retrieves the next captured frame in pull mode if a video
+	 * frame is available to store it, or returns <code>null</code> right
+	 * away otherwise. If a video frame is available, this method waits for
+	 * the driver to capture a new frame.
+	 * @return the next captured frame, or <code>null</code> if all video 
+	 * frames are held by your application or another thread is 
+	 * retrieving a frame
+	 * @throws V4L4JException if there is an error capturing the frame
+	 * @throws StateException if this frame grabber is not capturing, 
+	 * delivers frames to a {@link CaptureCallback}, or if the capture is
+	 * stopped.
+	 * @see #take()
+	 */
+	public VideoFrame tryPoll() throws V4L4JException;
+
 	/**
 	 * This method stops the capture, and recycles all @link {@link VideoFrame}s.
 	 * @throws StateException if the capture has not been started, is already 
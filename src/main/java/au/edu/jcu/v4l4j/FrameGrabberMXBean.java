@@ -0,0 +1,165 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * This interface defines the attributes of the management bean registered
+ * for each {@link FrameGrabber}, under the name
+ * <code>au.edu.jcu.v4l4j:type=FrameGrabber,name="&lt;device file&gt;"</code>.
+ * Most attributes are read from the frame grabber's 
+ * {@link CaptureStatistics}. Rates are averaged over at least one second,
+ * between two reads of the attribute. Times are in nanoseconds.
+ * @author gilles
+ *
+ */
+public interface FrameGrabberMXBean {
+	/**
+	 * @return the full path to the device file
+	 */
+	public String getDeviceFile();
+
+	/**
+	 * @return the name of the image format frames are captured in
+	 */
+	public String getImageFormat();
+
+	/**
+	 * @return the width of captured frames
+	 */
+	public int getWidth();
+
+	/**
+	 * @return the height of captured frames
+	 */
+	public int getHeight();
+
+	/**
+	 * @return the current frame interval, as "numerator/denominator", or
+	 * "unknown" if it cannot be obtained
+	 */
+	public String getFrameInterval();
+
+	/**
+	 * @return whether the frame grabber is capturing
+	 */
+	public boolean isCapturing();
+
+	/**
+	 * @return the name of the dispatch strategy
+	 */
+	public String getDispatchStrategy();
+
+	/**
+	 * @return the name of the backpressure policy
+	 */
+	public String getBackpressurePolicy();
+
+	/**
+	 * @return the number of video frames
+	 */
+	public int getNumberOfVideoFrames();
+
+	/**
+	 * @return the number of video frames available to store new images
+	 */
+	public int getNumberOfRecycledVideoFrames();
+
+	/**
+	 * @return the number of frames waiting to be delivered to the capture
+	 * callback
+	 */
+	public int getDispatchQueueDepth();
+
+	/**
+	 * @return the number of frames retrieved from the driver per second
+	 */
+	public double getFrameRate();
+
+	/**
+	 * @return the number of bytes of image data copied per second
+	 */
+	public double getBytesCopiedPerSecond();
+
+	/**
+	 * @return the number of frames delivered to the capture callback
+	 */
+	public long getDeliveredFrames();
+
+	/**
+	 * @return the number of frames dropped by the backpressure policy
+	 */
+	public long getDroppedFrames();
+
+	/**
+	 * @return the number of gaps in frame sequence numbers
+	 */
+	public long getSequenceGaps();
+
+	/**
+	 * @return the number of frames dropped by the driver
+	 */
+	public long getLostFrames();
+
+	/**
+	 * @return the number of gaps in frame sequence numbers which occurred
+	 * while waiting for the application to recycle a video frame
+	 */
+	public long getStarvedSequenceGaps();
+
+	/**
+	 * @return the longest gap in frame sequence numbers, in nanoseconds
+	 */
+	public long getGapDurationMax();
+
+	/**
+	 * @return the mean time spent in the capture callback
+	 */
+	public long getCallbackTimeMean();
+
+	/**
+	 * @return the median time spent in the capture callback
+	 */
+	public long getCallbackTime50thPercentile();
+
+	/**
+	 * @return the 99th percentile of the time spent in the capture callback
+	 */
+	public long getCallbackTime99thPercentile();
+
+	/**
+	 * @return the longest time spent in the capture callback
+	 */
+	public long getCallbackTimeMax();
+
+	/**
+	 * @return the 99th percentile of the time frames are held by the 
+	 * application
+	 */
+	public long getHoldTime99thPercentile();
+
+	/**
+	 * @return the 99th percentile of the time from the capture of an image
+	 * by the driver until it is retrieved
+	 */
+	public long getCaptureLatency99thPercentile();
+
+	/**
+	 * This method resets the frame grabber's statistics.
+	 */
+	public void resetStatistics();
+}
@@ -0,0 +1,524 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A FrameJournalWriter records raw frames to disk, for later analysis or
+ * replay. Frames are appended to segment files of a fixed size, which are
+ * memory-mapped: each frame is copied once, straight from the video frame to
+ * the file's pages, and nothing is allocated per frame. When a frame does 
+ * not fit in the current segment, the segment is truncated to its actual 
+ * size, its index is written, and a new segment is started.<br>
+ * A journal writer can be used as the {@link CaptureCallback} of a frame 
+ * grabber, or a subscriber of a {@link FrameBroadcaster}, in which case it
+ * recycles frames once written. Frames can also be written with 
+ * {@link #append(VideoFrame)}, which leaves them to the caller, and it is
+ * a {@link FrameSink}, eg. to record the frames of a {@link PreTriggerBuffer}.
+ * When to force written frames to disk is set with 
+ * {@link #setSyncPolicy(SyncPolicy, long, TimeUnit)}.<br>
+ * Segment <code>n</code> of a journal named <code>name</code> is stored in
+ * <code>name-00000n.journal</code>, and its index in 
+ * <code>name-00000n.index</code>. All values are big-endian. A segment file 
+ * starts with a 32-byte header: magic number <code>0x56344c4a</code>, 
+ * version, segment number, image format index, width, height and 8 
+ * reserved bytes. Each frame follows as a 24-byte record header (magic 
+ * number <code>0x46524d45</code>, frame length, sequence number and capture 
+ * time) and the frame data, padded to a multiple of 8 bytes. An index file 
+ * starts with a 16-byte header (magic number <code>0x56344c49</code>, 
+ * version, number of frames and segment number), followed by one 24-byte
+ * entry per frame: sequence number, capture time, offset of the frame data
+ * in the segment and frame length. The index is only written when a segment
+ * is complete: the records of an incomplete segment, eg. after a crash, can
+ * be read until the first zero magic number.
+ * @author gilles
+ *
+ */
+public class FrameJournalWriter implements CaptureCallback, FrameSink, Closeable {
+	/**
+	 * The SyncPolicy enumeration defines when a {@link FrameJournalWriter}
+	 * forces written frames to disk. Frames which have not been forced are
+	 * not lost if the application crashes, but may be if the system does.
+	 */
+	public enum SyncPolicy {
+		/**
+		 * Written frames are never forced to disk: the operating system writes
+		 * them back when it sees fit.
+		 */
+		NONE,
+		/**
+		 * A segment is forced to disk when it is complete, and when the 
+		 * journal is closed.
+		 */
+		ROLLOVER,
+		/**
+		 * The current segment is forced to disk at most once per sync 
+		 * interval, as well as when it is complete or the journal is closed.
+		 */
+		PERIODIC,
+		/**
+		 * The current segment is forced to disk after every frame. This is 
+		 * the safest and by far the slowest policy.
+		 */
+		EVERY_FRAME
+	}
+
+	static final int	JOURNAL_MAGIC = 0x56344c4a;	// "V4LJ"
+	static final int	RECORD_MAGIC = 0x46524d45;	// "FRME"
+	static final int	INDEX_MAGIC = 0x56344c49;	// "V4LI"
+	static final int	VERSION = 1;
+	static final int	SEGMENT_HEADER_SIZE = 32;
+	static final int	RECORD_HEADER_SIZE = 24;
+	static final int	INDEX_HEADER_SIZE = 16;
+	static final int	INDEX_ENTRY_SIZE = 24;
+
+	private final File			directory;
+	private final String		name;
+	private final int			segmentSize;
+	private SyncPolicy			syncPolicy;
+	private long				syncInterval;
+
+	// the current segment, or null if none was started yet
+	private RandomAccessFile	segmentFile;
+	private MappedByteBuffer	segment;
+	private int					segmentNumber;
+	private long				lastSync;
+
+	// the index of the current segment
+	private long[]				sequences;
+	private long[]				captureTimes;
+	private int[]				offsets;
+	private int[]				lengths;
+	private int					count;
+
+	// the format of the recorded frames, read from the first frame
+	private int					format;
+	private int					width;
+	private int					height;
+
+	private long				frames;
+	private long				bytes;
+	private long				droppedFrames;
+	private IOException			error;
+	private boolean				closed;
+
+	/**
+	 * This method builds a journal writer which creates its segments in the
+	 * given directory. The first segment is created when the first frame is
+	 * written. Existing segments with the same name are overwritten.
+	 * Written frames are forced to disk when a segment is complete (see 
+	 * {@link SyncPolicy#ROLLOVER}).
+	 * @param dir the directory segments are stored in
+	 * @param n the name of the journal, which prefixes segment file names
+	 * @param size the size of a segment in bytes, at most 
+	 * <code>Integer.MAX_VALUE</code>. Frames larger than a segment cannot be
+	 * recorded.
+	 * @throws IOException if the directory does not exist and cannot be
+	 * created
+	 * @throws IllegalArgumentException if the segment size is too small or too
+	 * large
+	 */
+	public FrameJournalWriter(File dir, String n, long size) throws IOException {
+		if ((dir == null) || (n == null))
+			throw new NullPointerException("The directory and name cannot be null");
+		if ((size <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) || (size > Integer.MAX_VALUE))
+			throw new IllegalArgumentException("Invalid segment size " + size);
+		if (! dir.isDirectory() && ! dir.mkdirs())
+			throw new IOException("Cannot create directory " + dir);
+
+		directory = dir;
+		name = n;
+		segmentSize = (int) size;
+		syncPolicy = SyncPolicy.ROLLOVER;
+		syncInterval = 0;
+		segmentNumber = 0;
+		sequences = new long[64];
+		captureTimes = new long[64];
+		offsets = new int[64];
+		lengths = new int[64];
+		count = 0;
+		format = -1;
+	}
+
+	/**
+	 * This method sets when written frames are forced to disk. It can be 
+	 * called at any time.
+	 * @param policy the sync policy
+	 * @param interval the minimum time between two syncs with the 
+	 * {@link SyncPolicy#PERIODIC} policy, ignored otherwise
+	 * @param unit the unit of <code>interval</code>
+	 */
+	public synchronized void setSyncPolicy(SyncPolicy policy, long interval, TimeUnit unit) {
+		if ((policy == null) || (unit == null))
+			throw new NullPointerException("The policy and unit cannot be null");
+		if (interval < 0)
+			throw new IllegalArgumentException("The sync interval cannot be negative");
+
+		syncPolicy = policy;
+		syncInterval = unit.toNanos(interval);
+	}
+
+	/**
+	 * This method returns the current sync policy.
+	 * @return the sync policy
+	 */
+	public synchronized SyncPolicy getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * This method writes the given frame to the journal. The frame is not
+	 * recycled.
+	 * @param frame the frame to write
+	 * @throws IOException if the frame cannot be written, or a previous 
+	 * frame could not be
+	 * @throws IllegalArgumentException if the frame is larger than a segment
+	 * @throws StateException if the frame has been recycled
+	 * @throws IllegalStateException if the journal has been closed
+	 */
+	public void append(VideoFrame frame) throws IOException {
+		if (frame instanceof BaseVideoFrame) {
+			// copy the frame data from its array straight into the segment
+			BaseVideoFrame f = (BaseVideoFrame) frame;
+			byte[] array = f.getByteArray();
+			if ((array != null) && ! f.isRecycled()) {
+				write(f.getFrameGrabber(), array, null, f.getFrameLength(), 
+						f.getSequenceNumber(), f.getCaptureTime());
+				return;
+			}
+		}
+
+		write(frame.getFrameGrabber(), null, frame.getByteBuffer(), frame.getFrameLength(),
+				frame.getSequenceNumber(), frame.getCaptureTime());
+	}
+
+	/**
+	 * This method writes the given frame data to the journal.
+	 * @param source the frame grabber which captured the frame
+	 * @param data the frame data, between the buffer's position and limit
+	 * @param sequence the frame's sequence number
+	 * @param captureTime the frame's capture time in microseconds
+	 * @throws IOException if the frame cannot be written, or a previous 
+	 * frame could not be
+	 * @throws IllegalArgumentException if the frame is larger than a segment
+	 * @throws IllegalStateException if the journal has been closed
+	 */
+	@Override
+	public void writeFrame(FrameGrabber source, ByteBuffer data, long sequence, 
+			long captureTime) throws IOException {
+		write(source, null, data, data.remaining(), sequence, captureTime);
+	}
+
+	/**
+	 * This method writes a frame whose data is either in the given array 
+	 * (from 0) or the given buffer (from its position).
+	 */
+	private synchronized void write(FrameGrabber source, byte[] array, ByteBuffer buffer, 
+			int length, long sequence, long captureTime) throws IOException {
+		if (closed)
+			throw new IllegalStateException("The journal has been closed");
+		if (error != null)
+			throw error;
+
+		int recordSize = align(RECORD_HEADER_SIZE + length);
+		if (recordSize > segmentSize - SEGMENT_HEADER_SIZE)
+			throw new IllegalArgumentException("A frame of " + length 
+					+ " bytes does not fit in a segment");
+
+		try {
+			if (segment == null)
+				openSegment(source);
+			else if (recordSize > segment.remaining()) {
+				closeSegment();
+				openSegment(source);
+			}
+
+			int offset = segment.position() + RECORD_HEADER_SIZE;
+			segment.putInt(RECORD_MAGIC);
+			segment.putInt(length);
+			segment.putLong(sequence);
+			segment.putLong(captureTime);
+			if (array != null)
+				segment.put(array, 0, length);
+			else {
+				int position = buffer.position();
+				segment.put(buffer);
+				buffer.position(position);
+			}
+			segment.position(offset - RECORD_HEADER_SIZE + recordSize);
+
+			addIndexEntry(sequence, captureTime, offset, length);
+			frames++;
+			bytes += length;
+
+			if ((syncPolicy == SyncPolicy.EVERY_FRAME) || ((syncPolicy == SyncPolicy.PERIODIC)
+					&& (System.nanoTime() - lastSync >= syncInterval)))
+				sync();
+		} catch (IOException e) {
+			error = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * This method writes the given frame to the journal and recycles it.
+	 * If the frame cannot be written, it is counted as dropped, and the 
+	 * error is thrown by {@link #close()}.
+	 * @param frame the frame to write
+	 */
+	@Override
+	public void nextFrame(VideoFrame frame) {
+		try {
+			append(frame);
+		} catch (IOException e) {
+			synchronized (this) {
+				droppedFrames++;
+			}
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				droppedFrames++;
+			}
+		} finally {
+			frame.recycle();
+		}
+	}
+
+	/**
+	 * This method does nothing: capture errors are for the application to
+	 * handle.
+	 * @param e the exception raised during the capture
+	 */
+	@Override
+	public void exceptionReceived(V4L4JException e) {
+	}
+
+	/**
+	 * This method completes the current segment, writes its index, and 
+	 * closes the journal. It can be called more than once.
+	 * @throws IOException if the segment or index could not be written, or
+	 * a frame could not be written earlier
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (segment != null) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * This method returns the number of frames written to the journal.
+	 * @return the number of frames written
+	 */
+	public synchronized long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * This method returns the number of frames passed to 
+	 * {@link #nextFrame(VideoFrame)} which could not be written.
+	 * @return the number of frames which could not be written
+	 */
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * This method returns the number of bytes of frame data written to the
+	 * journal, excluding headers and padding.
+	 * @return the number of bytes of frame data written
+	 */
+	public synchronized long getBytesWritten() {
+		return bytes;
+	}
+
+	/**
+	 * This method returns the number of segments started so far.
+	 * @return the number of segments
+	 */
+	public synchronized int getSegmentCount() {
+		return segmentNumber;
+	}
+
+	/**
+	 * This method returns the file holding the given segment.
+	 * @param n the segment number, starting from 1
+	 * @return the segment file
+	 */
+	public File getSegmentFile(int n) {
+		return segmentFile(directory, name, n);
+	}
+
+	/**
+	 * This method returns the file holding the index of the given segment.
+	 * @param n the segment number, starting from 1
+	 * @return the index file
+	 */
+	public File getIndexFile(int n) {
+		return indexFile(directory, name, n);
+	}
+
+	static File segmentFile(File dir, String name, int n) {
+		return new File(dir, String.format("%s-%06d.journal", name, n));
+	}
+
+	static File indexFile(File dir, String name, int n) {
+		return new File(dir, String.format("%s-%06d.index", name, n));
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	private void addIndexEntry(long sequence, long captureTime, int offset, int length) {
+		if (count == sequences.length) {
+			int size = count * 2;
+			sequences = copyOf(sequences, size);
+			captureTimes = copyOf(captureTimes, size);
+			int[] o = new int[size], l = new int[size];
+			System.arraycopy(offsets, 0, o, 0, count);
+			System.arraycopy(lengths, 0, l, 0, count);
+			offsets = o;
+			lengths = l;
+		}
+
+		sequences[count] = sequence;
+		captureTimes[count] = captureTime;
+		offsets[count] = offset;
+		lengths[count] = length;
+		count++;
+	}
+
+	private static long[] copyOf(long[] a, int size) {
+		long[] copy = new long[size];
+		System.arraycopy(a, 0, copy, 0, a.length);
+		return copy;
+	}
+
+	private void openSegment(FrameGrabber source) throws IOException {
+		if (format == -1) {
+			format = source.getImageFormat().getIndex();
+			width = source.getWidth();
+			height = source.getHeight();
+		}
+
+		segmentNumber++;
+		File file = segmentFile(directory, name, segmentNumber);
+		segmentFile = new RandomAccessFile(file, "rw");
+		// stopCapture() interrupts the push source thread, and an interrupt
+		// closes the channel of a file being mapped: hold it off until the
+		// segment is mapped
+		boolean interrupted = Thread.interrupted();
+		try {
+			segmentFile.setLength(segmentSize);
+			segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} catch (IOException e) {
+			segmentFile.close();
+			segmentFile = null;
+			throw e;
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		segment.putInt(JOURNAL_MAGIC);
+		segment.putInt(VERSION);
+		segment.putInt(segmentNumber);
+		segment.putInt(format);
+		segment.putInt(width);
+		segment.putInt(height);
+		segment.putLong(0);
+		count = 0;
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * This method forces the current segment to disk.
+	 */
+	private void sync() {
+		segment.force();
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * This method forces the current segment to disk as per the sync 
+	 * policy, truncates it to its actual size, and writes its index.
+	 */
+	private void closeSegment() throws IOException {
+		int used = segment.position();
+		if (syncPolicy != SyncPolicy.NONE)
+			segment.force();
+		segment = null;
+
+		try {
+			segmentFile.setLength(used);
+		} finally {
+			segmentFile.close();
+			segmentFile = null;
+		}
+
+		writeIndex();
+	}
+
+	private void writeIndex() throws IOException {
+		ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_SIZE + count * INDEX_ENTRY_SIZE);
+		index.putInt(INDEX_MAGIC);
+		index.putInt(VERSION);
+		index.putInt(count);
+		index.putInt(segmentNumber);
+		for (int i = 0; i < count; i++) {
+			index.putLong(sequences[i]);
+			index.putLong(captureTimes[i]);
+			index.putInt(offsets[i]);
+			index.putInt(lengths[i]);
+		}
+
+		// written without a FileChannel, which an interrupt would close
+		RandomAccessFile file = new RandomAccessFile(indexFile(directory, name, segmentNumber), "rw");
+		try {
+			file.setLength(0);
+			file.write(index.array(), 0, index.position());
+			if (syncPolicy != SyncPolicy.NONE)
+				file.getFD().sync();
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.io.Closeable;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * A FrameLease holds one reference to a {@link VideoFrame}, obtained with
+ * {@link VideoFrame#lease()}, and releases it when closed. As it implements
+ * {@link Closeable}, it can be used in a try-with-resources statement on 
+ * Java 7 or later, which guarantees the reference is released even if an
+ * exception is thrown.<br>
+ * With leak detection enabled (see the <code>v4l4j.leak_detection</code>
+ * property), the stack trace of the code which created a lease is printed if
+ * it is still open when the capture is stopped.
+ * @author gilles
+ *
+ */
+public final class FrameLease implements Closeable {
+	private final BaseVideoFrame	frame;
+	private final Throwable			holder;
+	// the delivery of the frame this lease holds a reference to
+	private final int				generation;
+	private boolean					closed;
+
+	FrameLease(BaseVideoFrame f, Throwable h, int g) {
+		frame = f;
+		holder = h;
+		generation = g;
+		closed = false;
+	}
+
+	/**
+	 * This method returns the leased video frame.
+	 * @return the leased video frame
+	 * @throws StateException if this lease is closed
+	 */
+	public synchronized VideoFrame getFrame() {
+		if (closed)
+			throw new StateException("This frame lease has been closed");
+		return frame;
+	}
+
+	/**
+	 * This method returns whether this lease is closed.
+	 * @return whether this lease is closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * This method releases the reference held by this lease. Closing a lease
+	 * more than once has no effect, and neither does closing it after the
+	 * frame was recycled when the capture stopped, even if the frame has
+	 * been delivered again since.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		frame.release(holder, generation);
+	}
+}
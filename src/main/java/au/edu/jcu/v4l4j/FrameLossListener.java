@@ -0,0 +1,55 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * Objects implementing this interface are notified by a {@link FrameGrabber}
+ * when the sequence numbers of captured frames show that the driver lost 
+ * frames, most often because the application held all video frames and the
+ * driver had nowhere to store new images. A listener is set with
+ * {@link FrameGrabber#setFrameLossListener(FrameLossListener)}. Lost frames
+ * are also counted by the frame grabber's {@link CaptureStatistics}.
+ * @author gilles
+ *
+ */
+public interface FrameLossListener {
+
+	/**
+	 * This method is called when the frame grabber retrieves the first frame
+	 * following a gap in sequence numbers, before the frame is delivered. It
+	 * is called by the thread retrieving frames: the capture thread in push
+	 * mode, or the thread calling {@link FrameGrabber#take()} or one of the
+	 * <code>poll()</code> methods in pull mode, and should return quickly.
+	 * It may stop the capture with {@link FrameGrabber#stopCapture()}, in 
+	 * which case the frame following the gap is not delivered: in pull mode,
+	 * the call which retrieved it throws a <code>StateException</code>, as 
+	 * when the capture is stopped while it waits.
+	 * Exceptions thrown by this method are ignored.
+	 * @param grabber the frame grabber which lost frames
+	 * @param sequence the sequence number of the first frame after the gap
+	 * @param lost the number of frames lost
+	 * @param duration the time between the capture of the frames either side
+	 * of the gap, in nanoseconds
+	 * @param starved whether the frame grabber had to wait for the application
+	 * to recycle a video frame before retrieving this one. If it did, the 
+	 * frames were most likely lost because the application held all video
+	 * frames, and more video frames, or a faster consumer, are needed.
+	 */
+	public void framesLost(FrameGrabber grabber, long sequence, long lost, 
+			long duration, boolean starved);
+}
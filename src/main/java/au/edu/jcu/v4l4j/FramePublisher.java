@@ -0,0 +1,333 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A FramePublisher delivers the frames captured by a {@link FrameGrabber} to
+ * a {@link FrameSubscriber}, at the rate requested by the subscriber. It
+ * follows the same protocol as <code>java.util.concurrent.Flow.Publisher</code>
+ * and can be adapted to it with a few lines of code on Java 9 or later.<br>
+ * The publisher uses the frame grabber in pull mode (it must not have a
+ * {@link CaptureCallback}), and its own thread retrieves frames from the
+ * driver only while the subscriber's demand is greater than 0. While the
+ * demand is 0, no frames are dequeued, converted or copied: the driver keeps
+ * capturing into its own buffers and drops frames once they are full. The 
+ * capture is started when a subscriber subscribes, and stopped when it 
+ * cancels its subscription.<br>
+ * Frames are recycled in one of two ways, chosen when the publisher is 
+ * created:
+ * <ul>
+ * <li>automatically, when {@link FrameSubscriber#onNext(VideoFrame)} 
+ * returns. The subscriber must not use the frame afterwards, and at most one
+ * video frame is ever held by the subscriber.</li>
+ * <li>explicitly, by the subscriber calling {@link VideoFrame#recycle()}. The
+ * subscriber then holds as many video frames as it has received and not
+ * recycled yet. Once it holds all of them
+ * ({@link FrameGrabber#getNumberOfVideoFrames()}), no more frames are
+ * delivered until one is recycled, whatever the demand.</li>
+ * </ul>
+ * A publisher accepts one subscriber at a time. A new subscriber can
+ * subscribe once the previous one has cancelled its subscription, or 
+ * received {@link FrameSubscriber#onError(Throwable)} or 
+ * {@link FrameSubscriber#onComplete()}.<br>
+ * A publisher is used as follows:
+ * <code><br>
+ * <br>FramePublisher publisher = new FramePublisher(frameGrabber, true);
+ * <br>publisher.subscribe(subscriber);
+ * <br>// subscriber.onSubscribe() calls subscription.request(n)
+ * <br>...
+ * <br>// subscriber calls subscription.cancel() when done
+ * </code>
+ * @author gilles
+ *
+ */
+public class FramePublisher {
+	private final FrameGrabber						grabber;
+	private final ThreadFactory						threadFactory;
+	private final boolean							autoRecycle;
+	private final AtomicReference<Subscription>		current;
+
+	/**
+	 * This method builds a new publisher for the given frame grabber. The
+	 * publisher thread is created by the thread factory returned by
+	 * <code>Executors.defaultThreadFactory()</code>.
+	 * @param grabber the frame grabber whose frames will be published. It
+	 * must not have a capture callback.
+	 * @param autoRecycle whether frames are recycled when 
+	 * {@link FrameSubscriber#onNext(VideoFrame)} returns, or by the subscriber
+	 */
+	public FramePublisher(FrameGrabber grabber, boolean autoRecycle) {
+		this(grabber, Executors.defaultThreadFactory(), autoRecycle);
+	}
+
+	/**
+	 * This method builds a new publisher for the given frame grabber.
+	 * @param grabber the frame grabber whose frames will be published. It
+	 * must not have a capture callback.
+	 * @param factory the thread factory used to create the publisher thread
+	 * @param autoRecycle whether frames are recycled when 
+	 * {@link FrameSubscriber#onNext(VideoFrame)} returns, or by the subscriber
+	 */
+	public FramePublisher(FrameGrabber grabber, ThreadFactory factory,
+			boolean autoRecycle) {
+		if ((grabber == null) || (factory == null))
+			throw new NullPointerException("the frame grabber and thread factory cannot be null");
+
+		this.grabber = grabber;
+		threadFactory = factory;
+		this.autoRecycle = autoRecycle;
+		current = new AtomicReference<Subscription>();
+	}
+
+	/**
+	 * This method registers the given subscriber, and starts the capture in
+	 * the publisher thread. The subscriber's 
+	 * {@link FrameSubscriber#onSubscribe(FrameSubscription)} method is
+	 * called before this method returns. If another subscriber is already
+	 * registered, the frame grabber has a capture callback, or the capture 
+	 * cannot be started, the subscriber's 
+	 * {@link FrameSubscriber#onError(Throwable)} method is called. If 
+	 * <code>onSubscribe()</code> throws an exception, the subscription is
+	 * cancelled and the exception is propagated to the caller.
+	 * @param subscriber the subscriber to which frames will be delivered
+	 */
+	public void subscribe(FrameSubscriber subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("The subscriber cannot be null");
+
+		Subscription s = new Subscription(subscriber);
+		if (isPushMode()) {
+			reject(s, "The frame grabber delivers frames to a capture callback");
+			return;
+		}
+		if (! current.compareAndSet(null, s)) {
+			reject(s, "This publisher already has a subscriber");
+			return;
+		}
+
+		boolean subscribed = false;
+		try {
+			subscriber.onSubscribe(s);
+			subscribed = true;
+		} finally {
+			// let another subscriber in if this one threw
+			if (! subscribed) {
+				s.cancelled = true;
+				current.compareAndSet(s, null);
+			}
+		}
+
+		s.thread = threadFactory.newThread(s);
+		s.thread.setName(s.thread.getName() + " - v4l4j publisher");
+		s.thread.start();
+	}
+
+	/**
+	 * This method hands the given cancelled subscription to its subscriber,
+	 * followed by an error.
+	 */
+	private static void reject(Subscription s, String message) {
+		s.cancelled = true;
+		s.subscriber.onSubscribe(s);
+		s.subscriber.onError(new StateException(message));
+	}
+
+	/**
+	 * This method returns whether the frame grabber delivers frames to a
+	 * capture callback, in which case it cannot be polled.
+	 */
+	private boolean isPushMode() {
+		return (grabber instanceof AbstractGrabber)
+				&& ((AbstractGrabber) grabber).isPushMode();
+	}
+
+	/**
+	 * This method returns whether this publisher has a subscriber.
+	 * @return whether this publisher has a subscriber
+	 */
+	public boolean hasSubscriber() {
+		return current.get() != null;
+	}
+
+	private final class Subscription implements FrameSubscription, Runnable {
+		private final FrameSubscriber	subscriber;
+		private long					demand;
+		private boolean					invalidRequest;
+		private volatile boolean		cancelled;
+		private volatile Thread			thread;
+		// whether the publisher thread is in take(), the only place where 
+		// cancel() interrupts it, and whether cancel() did
+		private boolean					taking;
+		private boolean					interrupted;
+
+		private Subscription(FrameSubscriber s) {
+			subscriber = s;
+			demand = 0;
+			invalidRequest = false;
+			cancelled = false;
+		}
+
+		@Override
+		public synchronized void request(long n) {
+			if (n <= 0)
+				invalidRequest = true;
+			else if (demand + n < demand)
+				demand = Long.MAX_VALUE;
+			else
+				demand += n;
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void cancel() {
+			cancelled = true;
+			notifyAll();
+
+			// wake up the publisher thread if it waits for a video frame, but
+			// not if it runs the subscriber's code
+			Thread t = thread;
+			if (taking && (t != null) && (t != Thread.currentThread())) {
+				t.interrupt();
+				interrupted = true;
+			}
+		}
+
+		/**
+		 * This method is called by the publisher thread before 
+		 * {@link FrameGrabber#take()}.
+		 * @return false if the subscription was cancelled, true otherwise
+		 */
+		private synchronized boolean startTaking() {
+			taking = ! cancelled;
+			return taking;
+		}
+
+		/**
+		 * This method is called by the publisher thread after 
+		 * {@link FrameGrabber#take()} returns or throws. It clears the 
+		 * interrupt status if {@link #cancel()} interrupted the thread after 
+		 * <code>take()</code> returned, so the subscriber does not see it.
+		 */
+		private synchronized void stopTaking() {
+			taking = false;
+			if (interrupted) {
+				Thread.interrupted();
+				interrupted = false;
+			}
+		}
+
+		/**
+		 * This method waits until the subscriber requests a frame, and
+		 * decrements the demand.
+		 * @return false if the subscription was cancelled or an invalid
+		 * request was made, true otherwise
+		 */
+		private synchronized boolean awaitDemand() {
+			while ((demand == 0) && ! cancelled && ! invalidRequest) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// cancel() does not interrupt us here
+				}
+			}
+
+			if (cancelled || invalidRequest)
+				return false;
+
+			if (demand != Long.MAX_VALUE)
+				demand--;
+			return true;
+		}
+
+		@Override
+		public void run() {
+			Throwable error = null;
+			boolean complete = false;
+
+			try {
+				grabber.startCapture();
+			} catch (Throwable t) {
+				current.compareAndSet(this, null);
+				if (! cancelled)
+					subscriber.onError(t);
+				return;
+			}
+
+			try {
+				while (awaitDemand()) {
+					VideoFrame frame;
+
+					if (! startTaking())
+						break;
+					try {
+						frame = grabber.take();
+					} catch (StateException e) {
+						// the capture was stopped by the application, or we
+						// were interrupted by cancel(), unless a capture 
+						// callback was set since the subscription
+						if (isPushMode())
+							error = e;
+						else
+							complete = true;
+						break;
+					} catch (V4L4JException e) {
+						error = e;
+						break;
+					} finally {
+						stopTaking();
+					}
+
+					try {
+						subscriber.onNext(frame);
+					} catch (Throwable t) {
+						// subscribers must not throw: give up
+						cancelled = true;
+					} finally {
+						if (autoRecycle)
+							frame.recycle();
+					}
+				}
+
+				if (invalidRequest)
+					error = new IllegalArgumentException("The number of "
+							+ "requested frames must be positive");
+			} finally {
+				try {
+					grabber.stopCapture();
+				} catch (StateException e) {
+					// already stopped by the application
+				}
+				current.compareAndSet(this, null);
+			}
+
+			if (! cancelled) {
+				if (error != null)
+					subscriber.onError(error);
+				else if (complete)
+					subscriber.onComplete();
+			}
+		}
+	}
+}
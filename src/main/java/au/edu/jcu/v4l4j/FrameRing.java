@@ -0,0 +1,229 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * A FrameRing is a bounded, lock-free queue of recycled {@link BaseVideoFrame}s
+ * waiting to be filled with a new image. Frames are added by whichever thread
+ * recycles them (there can be several), and removed by a single consumer, the
+ * capture thread. The ring never has to hold more frames than the number of
+ * V4L buffers, so it is sized once and producers never have to check for
+ * overflow.<br>
+ * When the ring is empty, the consumer waits according to the
+ * {@link WaitStrategy} given to it, until a frame is added or the ring is
+ * closed.
+ * @author gilles
+ *
+ */
+class FrameRing {
+	private final AtomicReferenceArray<BaseVideoFrame>	slots;
+	private final int					mask;
+
+	// index of the next slot producers will fill
+	private final AtomicLong			tail;
+	// index of the next slot the consumer will empty. Only the consumer
+	// writes this one, others only read it (see size())
+	private final AtomicLong			head;
+
+	// the consumer thread if it is parked (or about to), null otherwise
+	private volatile Thread				waiter;
+	private volatile WaitStrategy		strategy;
+	private volatile boolean			closed;
+
+	/**
+	 * This method builds a new ring which can hold at least the given
+	 * number of frames.
+	 * @param capacity the maximum number of frames in this ring
+	 * @param s the wait strategy used when taking a frame from an empty ring
+	 */
+	FrameRing(int capacity, WaitStrategy s) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+
+		slots = new AtomicReferenceArray<BaseVideoFrame>(size);
+		mask = size - 1;
+		tail = new AtomicLong(0);
+		head = new AtomicLong(0);
+		waiter = null;
+		closed = false;
+		setWaitStrategy(s);
+	}
+
+	/**
+	 * This method sets the wait strategy used by {@link #take()}. It can be
+	 * changed at any time, and will be used the next time the consumer checks
+	 * the ring.
+	 * @param s the new wait strategy
+	 */
+	void setWaitStrategy(WaitStrategy s) {
+		if (s == null)
+			throw new NullPointerException("The wait strategy cannot be null");
+		strategy = s;
+	}
+
+	WaitStrategy getWaitStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * This method adds a frame to this ring and wakes up the consumer if it
+	 * is parked. It never blocks.
+	 * @param frame the frame to be added
+	 */
+	void offer(BaseVideoFrame frame) {
+		long t = tail.getAndIncrement();
+		slots.lazySet((int) t & mask, frame);
+
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+
+	/**
+	 * This method removes the oldest frame from this ring if there is one.
+	 * It must only be called by the consumer.
+	 * @return the oldest frame in this ring or <code>null</code> if empty
+	 */
+	BaseVideoFrame poll() {
+		long h = head.get();
+		if (h == tail.get())
+			return null;
+
+		// a producer has claimed this slot, but might not have stored its
+		// frame yet. It is about to, so wait for it.
+		int index = (int) h & mask;
+		BaseVideoFrame frame;
+		while ((frame = slots.get(index)) == null)
+			Thread.yield();
+
+		slots.lazySet(index, null);
+		head.lazySet(h + 1);
+		return frame;
+	}
+
+	/**
+	 * This method removes the oldest frame from this ring, waiting for one
+	 * to be added if the ring is empty. It must only be called by the
+	 * consumer.
+	 * @return the oldest frame in this ring
+	 * @throws StateException if the calling thread is interrupted while
+	 * waiting, or if the ring is closed
+	 */
+	BaseVideoFrame take() {
+		return take(-1);
+	}
+
+	/**
+	 * This method removes the oldest frame from this ring, waiting at most
+	 * the given amount of time for one to be added if the ring is empty. It
+	 * must only be called by the consumer.
+	 * @param timeout how long to wait in nanoseconds, 0 not to wait at all, 
+	 * or a negative value to wait until a frame is added
+	 * @return the oldest frame in this ring, or <code>null</code> if none
+	 * was added within the timeout
+	 * @throws StateException if the calling thread is interrupted while
+	 * waiting, or if the ring is closed
+	 */
+	BaseVideoFrame take(long timeout) {
+		BaseVideoFrame frame;
+		long deadline = (timeout > 0) ? System.nanoTime() + timeout : 0;
+
+		while ((frame = poll()) == null) {
+			if (closed)
+				throw new StateException("The capture has been stopped");
+
+			long remaining = 1;
+			if (timeout == 0 || 
+					(timeout > 0 && (remaining = deadline - System.nanoTime()) <= 0))
+				return null;
+
+			switch (strategy) {
+			case SPIN:
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			default:
+				// advertise ourselves before checking again, so a producer
+				// adding a frame (or closing the ring) in between will see us 
+				// and unpark us
+				waiter = Thread.currentThread();
+				if ((frame = poll()) == null && !closed) {
+					if (timeout > 0)
+						LockSupport.parkNanos(this, remaining);
+					else
+						LockSupport.park(this);
+				}
+				waiter = null;
+				if (frame != null)
+					return frame;
+			}
+
+			if (Thread.interrupted())
+				throw new StateException("Interrupted while waiting for a video frame");
+		}
+
+		return frame;
+	}
+
+	/**
+	 * This method closes this ring: a consumer waiting in {@link #take()} is
+	 * woken up and receives a {@link StateException}, and so will further
+	 * calls to {@link #take()} while the ring is empty. Frames can still be 
+	 * added and removed.
+	 */
+	void close() {
+		closed = true;
+
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+
+	/**
+	 * This method reopens this ring after a call to {@link #close()}.
+	 */
+	void open() {
+		closed = false;
+	}
+
+	/**
+	 * This method returns the number of frames currently in this ring.
+	 * @return the number of frames in this ring
+	 */
+	int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+
+	/**
+	 * This method empties this ring. It must only be called by the consumer,
+	 * or when there is none.
+	 */
+	void clear() {
+		while (poll() != null)
+			;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Objects implementing this interface receive frame data which is no longer
+ * held in a {@link VideoFrame}, together with its metadata, for instance 
+ * when a {@link PreTriggerBuffer} is drained. A {@link FrameJournalWriter}
+ * is a frame sink.
+ * @author gilles
+ *
+ */
+public interface FrameSink {
+
+	/**
+	 * This method is called with the data and metadata of a frame. The 
+	 * data must be used (or copied) before this method returns, as it may be
+	 * overwritten afterwards. The position and limit of the buffer must be 
+	 * left unchanged.
+	 * @param source the frame grabber which captured the frame. The frame's
+	 * image format and dimensions are those of this frame grabber.
+	 * @param data the frame data, between the buffer's position and limit
+	 * @param sequence the frame's sequence number
+	 * @param captureTime the frame's capture time in microseconds
+	 * @throws IOException if the frame cannot be written
+	 */
+	public void writeFrame(FrameGrabber source, ByteBuffer data, long sequence, 
+			long captureTime) throws IOException;
+}
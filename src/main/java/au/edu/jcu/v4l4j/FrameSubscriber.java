@@ -0,0 +1,63 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * Objects implementing this interface receive frames from a
+ * {@link FramePublisher}, at the rate they request them. This interface
+ * mirrors <code>java.util.concurrent.Flow.Subscriber&lt;VideoFrame&gt;</code>,
+ * which is not available on all the Java versions v4l4j supports. Methods of
+ * a subscriber are never called concurrently.
+ * @author gilles
+ *
+ */
+public interface FrameSubscriber {
+
+	/**
+	 * This method is called once when the subscriber is registered with a
+	 * {@link FramePublisher}, before any other method. No frames are
+	 * delivered until {@link FrameSubscription#request(long)} is called on
+	 * the given subscription.
+	 * @param subscription the subscription used to request frames, and to
+	 * cancel the subscription.
+	 */
+	public void onSubscribe(FrameSubscription subscription);
+
+	/**
+	 * This method is called with every new frame requested by the subscriber.
+	 * Whether the frame must be recycled by the subscriber depends on how
+	 * the {@link FramePublisher} was created.
+	 * @param frame the latest captured frame
+	 */
+	public void onNext(VideoFrame frame);
+
+	/**
+	 * This method is called if an error occurs during capture, or if the
+	 * subscription is invalid. No other methods are called afterwards.
+	 * @param t the error
+	 */
+	public void onError(Throwable t);
+
+	/**
+	 * This method is called if the capture is stopped by the application
+	 * (by calling {@link FrameGrabber#stopCapture()} on the frame grabber)
+	 * rather than by cancelling the subscription. No other methods are called
+	 * afterwards.
+	 */
+	public void onComplete();
+}
@@ -0,0 +1,49 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * A FrameSubscription links a {@link FrameSubscriber} to a 
+ * {@link FramePublisher}. It mirrors
+ * <code>java.util.concurrent.Flow.Subscription</code>, which is not available
+ * on all the Java versions v4l4j supports. Its methods can be called from any
+ * thread, including from within the subscriber's methods.
+ * @author gilles
+ *
+ */
+public interface FrameSubscription {
+
+	/**
+	 * This method adds the given number of frames to the subscriber's demand.
+	 * Frames are only retrieved from the driver while the demand is greater
+	 * than 0. Requesting <code>Long.MAX_VALUE</code> frames makes the demand
+	 * unbounded.
+	 * @param n the number of additional frames to deliver. If it is not
+	 * positive, the subscription is cancelled and the subscriber's
+	 * {@link FrameSubscriber#onError(Throwable)} method receives an
+	 * <code>IllegalArgumentException</code>.
+	 */
+	public void request(long n);
+
+	/**
+	 * This method cancels the subscription, and stops the capture. A few
+	 * more frames may still be delivered before it takes effect. This 
+	 * method can be called more than once.
+	 */
+	public void cancel();
+}
@@ -24,6 +24,7 @@
 
 package au.edu.jcu.v4l4j;
 
+import java.lang.reflect.Field;
 
 /**
  * Objects of this class represent an image format (YUV, RGB, GREY, BGR, ...) 
@@ -84,6 +85,49 @@ public class ImageFormat {
 		resolutions = new ResolutionInfo(i,o);
 	}
 	
+	/**
+	 * This method builds a new Image format with the given name and index,
+	 * which does not come from a video device. Its {@link ResolutionInfo} is
+	 * of type {@link ResolutionInfo.Type#UNSUPPORTED}.
+	 * @param n the name of this image format
+	 * @param i the index of this image format
+	 */
+	ImageFormat(String n, int i) {
+		name = n;
+		libvideoID = i;
+		resolutions = new ResolutionInfo();
+	}
+	
+	/**
+	 * This method builds a new Image format with the given index, which does
+	 * not come from a video device. Its name is that of the matching
+	 * <code>V4L4JConstants.IMF_*</code> constant, without the prefix.
+	 * @param i the index of this image format
+	 */
+	ImageFormat(int i) {
+		this(nameOf(i), i);
+	}
+	
+	/**
+	 * This method returns the name of the <code>V4L4JConstants.IMF_*</code>
+	 * constant with the given value, without the prefix.
+	 * @param index the image format index
+	 * @return the name of the image format, or "Unknown" if no constant has
+	 * the given value
+	 */
+	private static String nameOf(int index) {
+		for (Field f : V4L4JConstants.class.getFields()) {
+			try {
+				if (f.getName().startsWith("IMF_") && (f.getType() == int.class)
+						&& (f.getInt(null) == index))
+					return f.getName().substring(4);
+			} catch (IllegalAccessException e) {
+				// public fields, cannot happen
+			}
+		}
+		return "Unknown";
+	}
+	
 	/**
 	 * This method returns the {@link ResolutionInfo} object associated with
 	 * this image format. {@link ResolutionInfo} objects provide information
@@ -0,0 +1,198 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
+
+/**
+ * A JPEGDecoder decodes the JPEG frames of a frame grabber with a pool of
+ * {@link ImageReader}s. The JPEG reader provider is looked up in the 
+ * <code>ImageIO</code> registry once, and readers are only created when all
+ * existing ones are in use, ie. when several threads decode frames at the
+ * same time. Each reader comes with its own input stream over the frame's 
+ * byte array and its own read parameters, so decoding a frame does not 
+ * allocate these either.<br>
+ * Frames are decoded into the destination image passed by the caller if it 
+ * is compatible, so a video frame can keep decoding into the same image.
+ * @author gilles
+ *
+ */
+class JPEGDecoder {
+	private final ImageReaderSpi					provider;
+	private final ConcurrentLinkedQueue<Reader>		readers;
+
+	/**
+	 * This method builds a JPEG decoder, and looks up the JPEG reader 
+	 * provider. If there is none, decoding images will fail.
+	 */
+	JPEGDecoder() {
+		Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName("jpeg");
+		readers = new ConcurrentLinkedQueue<Reader>();
+		if (it.hasNext()) {
+			ImageReader reader = it.next();
+			provider = reader.getOriginatingProvider();
+			readers.add(new Reader(reader));
+		} else
+			provider = null;
+	}
+
+	/**
+	 * This method decodes a JPEG image.
+	 * @param data the array holding the JPEG image
+	 * @param length the length of the image
+	 * @param destination the image to decode into, or <code>null</code>. It
+	 * is only used if it has the size and type the decoder would create.
+	 * @return the decoded image, which is either <code>destination</code> or
+	 * a new image
+	 * @throws UnsupportedMethod if the image cannot be decoded
+	 */
+	BufferedImage decode(byte[] data, int length, BufferedImage destination) {
+		Reader reader = readers.poll();
+
+		try {
+			if ((reader == null) && (provider == null)) {
+				printSupportedTypes();
+				throw new UnsupportedMethod("This JVM cannot decode JPEG images");
+			}
+			if (reader == null)
+				reader = new Reader(provider.createReaderInstance());
+
+			return reader.read(data, length, destination);
+		} catch (IOException e) {
+			printSupportedTypes();
+			e.printStackTrace();
+			throw new UnsupportedMethod("Unable to decode the image", e);
+		} finally {
+			if (reader != null)
+				readers.offer(reader);
+		}
+	}
+
+	private static void printSupportedTypes() {
+		System.err.println("It seems your JVM is unable to decode this image.");
+
+		// print supported image types and mime types
+		System.err.println("Supported image types:");
+		String supportedTypes[] = ImageIO.getReaderFormatNames();
+		for (String name : supportedTypes)
+			System.err.println(name);
+		System.err.println("Supported MIME types:");
+		String supportedMimeTypes[] = ImageIO.getReaderMIMETypes();
+		for (String name : supportedMimeTypes)
+			System.err.println(name);
+	}
+
+	/**
+	 * A pooled image reader, with its input stream and read parameters.
+	 */
+	private static class Reader {
+		private final ImageReader				reader;
+		private final ImageReadParam			param;
+		private final ByteArrayImageInputStream	input;
+
+		Reader(ImageReader r) {
+			reader = r;
+			param = r.getDefaultReadParam();
+			input = new ByteArrayImageInputStream();
+		}
+
+		BufferedImage read(byte[] data, int length, BufferedImage destination)
+				throws IOException {
+			input.setData(data, length);
+			reader.setInput(input, true, true);
+			try {
+				if ((destination != null) 
+						&& (destination.getWidth() == reader.getWidth(0))
+						&& (destination.getHeight() == reader.getHeight(0))) {
+					param.setDestination(destination);
+					try {
+						return reader.read(0, param);
+					} catch (IIOException e) {
+						// the destination type does not suit this image
+						// (eg. a greyscale image): decode into a new one
+						input.setData(data, length);
+						reader.setInput(input, true, true);
+					}
+				}
+
+				param.setDestination(null);
+				return reader.read(0, param);
+			} finally {
+				param.setDestination(null);
+				reader.setInput(null);
+			}
+		}
+	}
+
+	/**
+	 * An image input stream over a byte array, which can be pointed at a new 
+	 * array without being recreated.
+	 */
+	private static class ByteArrayImageInputStream extends ImageInputStreamImpl {
+		private byte[]	data;
+		private int		length;
+
+		void setData(byte[] d, int l) {
+			data = d;
+			length = l;
+			streamPos = 0;
+			flushedPos = 0;
+			bitOffset = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			bitOffset = 0;
+			if (streamPos >= length)
+				return -1;
+
+			return data[(int) streamPos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			bitOffset = 0;
+			if (len == 0)
+				return 0;
+			if (streamPos >= length)
+				return -1;
+
+			int n = (int) Math.min(len, length - streamPos);
+			System.arraycopy(data, (int) streamPos, b, off, n);
+			streamPos += n;
+			return n;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+	}
+}
@@ -169,7 +169,8 @@ public class JPEGFrameGrabber extends AbstractGrabber {
 	@Override
 	protected void createBuffers(int bufferSize) {
 		int numberOfBuffers = nbV4LBuffers;
+		JPEGDecoder decoder = new JPEGDecoder();
 		while(numberOfBuffers-- > 0)
-			videoFrames.add(new JPEGVideoFrame(this, bufferSize));
+			videoFrames.add(new JPEGVideoFrame(this, bufferSize, decoder));
 	}
 }
@@ -20,10 +20,6 @@ package au.edu.jcu.v4l4j;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
 
 import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
 
@@ -31,13 +27,22 @@ import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
  * Instances of this class encapsulate image data for a JPEG compressed
  * image. They will not generate a {@link Raster} as rasters only support
  * uncompressed format. They do support however creation of {@link BufferedImage}s. 
+ * The image is decoded by the frame grabber's {@link JPEGDecoder} the first 
+ * time it is requested, and the result is returned until the frame is 
+ * recycled. Each video frame keeps decoding into the same 
+ * {@link BufferedImage}.
  * @author gilles
  *
  */
 class JPEGVideoFrame extends BaseVideoFrame {
+	private final JPEGDecoder	decoder;
+	// the generation of the frame last decoded into bufferedImage
+	private int					decodedGeneration;
 
-	JPEGVideoFrame(AbstractGrabber grabber, int bufferSize) {
+	JPEGVideoFrame(AbstractGrabber grabber, int bufferSize, JPEGDecoder d) {
 		super(grabber, bufferSize);
+		decoder = d;
+		decodedGeneration = -1;
 	}
 
 	@Override
@@ -47,24 +52,13 @@ class JPEGVideoFrame extends BaseVideoFrame {
 	
 	@Override
 	protected BufferedImage refreshBufferedImage() {
-		try {
-			return ImageIO.read(new ByteArrayInputStream(frameBuffer, 0, frameLength));
-		} catch (IOException e) {
-			System.err.println("It seems your JVM is unable to decode this image.");
-			
-			// print supported image types and mime types
-			System.err.println("Supported image types:");
-			String supportedTypes[] = ImageIO.getReaderFormatNames();
-			for (String name : supportedTypes)
-				System.err.println(name);
-			System.err.println("Supported MIME types:");
-			String supportedMimeTypes[] = ImageIO.getReaderMIMETypes();
-			for (String name : supportedMimeTypes)
-				System.err.println(name);
-			
-			e.printStackTrace();
-			throw new UnsupportedMethod("Unable to decode the image", e);
+		int current = getGeneration();
+		if (decodedGeneration != current) {
+			bufferedImage = decoder.decode(getBytes(), frameLength, bufferedImage);
+			decodedGeneration = current;
 		}
+
+		return bufferedImage;
 	}
 
 }
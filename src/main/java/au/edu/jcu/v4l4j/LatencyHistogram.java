@@ -0,0 +1,181 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram records the distribution of a duration, such as the
+ * time spent in the capture callback. Values are counted in buckets whose
+ * width grows with the value: each power of two is split in 8 buckets, so
+ * percentiles are accurate to within 12.5%. Recording a value does not 
+ * allocate memory or take a lock, and can be done by several threads at
+ * once without contending on a single counter.<br>
+ * Latency histograms are obtained from {@link CaptureStatistics}. All times
+ * are in nanoseconds.
+ * @author gilles
+ *
+ */
+public final class LatencyHistogram {
+	private static final int	SUB_BUCKET_BITS = 3;
+	private static final int	SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// enough buckets for any positive long
+	private static final int	BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String		name;
+	private final AtomicLongArray	counts;
+	private final StripedCounter	count;
+	private final StripedCounter	total;
+	private final AtomicLong	max;
+
+	LatencyHistogram(String n) {
+		name = n;
+		counts = new AtomicLongArray(BUCKETS);
+		count = new StripedCounter();
+		total = new StripedCounter();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * This method returns the index of the bucket the given value falls in.
+	 * @param value a positive value
+	 * @return the index of its bucket
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * This method returns the smallest value which falls in the given bucket.
+	 * @param bucket the index of a bucket
+	 * @return the smallest value in this bucket
+	 */
+	private static long lowestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket & (SUB_BUCKETS - 1);
+		return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * This method records a value. Negative values are recorded as 0.
+	 * @param value the value to record
+	 */
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		total.add(value);
+
+		long m;
+		while (value > (m = max.get()))
+			if (max.compareAndSet(m, value))
+				break;
+	}
+
+	/**
+	 * This method returns the name of the duration this histogram records.
+	 * @return the name of this histogram
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * This method returns the number of recorded values.
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * This method returns the mean of the recorded values.
+	 * @return the mean of the recorded values, or 0 if there are none
+	 */
+	public long getMean() {
+		long c = count.get();
+		return (c == 0) ? 0 : total.get() / c;
+	}
+
+	/**
+	 * This method returns the largest recorded value.
+	 * @return the largest recorded value, or 0 if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * This method returns an upper bound of the given percentile of the
+	 * recorded values, ie. of the value below which the given percentage of
+	 * recorded values fall.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the upper bound of the bucket containing the given percentile,
+	 * or 0 if no values were recorded
+	 * @throws IllegalArgumentException if the percentile is not between 0
+	 * and 100
+	 */
+	public long getPercentile(double percentile) {
+		if ((percentile < 0) || (percentile > 100))
+			throw new IllegalArgumentException("The percentile must be between 0 and 100");
+
+		long c = count.get();
+		if (c == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(c * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return (i == BUCKETS - 1) ? max.get()
+						: Math.min(max.get(), lowestValueOf(i + 1) - 1);
+		}
+
+		// values recorded while we were counting
+		return max.get();
+	}
+
+	/**
+	 * This method discards all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return name + ": mean " + getMean() + "ns - p50 " + getPercentile(50)
+			+ "ns - p99 " + getPercentile(99) + "ns - max " + getMax() + "ns";
+	}
+}
@@ -0,0 +1,325 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * This class registers and unregisters the management beans of video devices
+ * and frame grabbers with the platform MBean server. Registration errors
+ * (for instance, two {@link VideoDevice} objects opened on the same device 
+ * file) are ignored: monitoring must never prevent a capture.
+ * @author gilles
+ *
+ */
+final class Management {
+	private static final String		DOMAIN = "au.edu.jcu.v4l4j";
+	private static final boolean	enabled = ! "false".equals(System.getProperty("v4l4j.jmx"));
+
+	private Management() {
+	}
+
+	/**
+	 * This method builds the name of a management bean.
+	 * @param type the type of the bean
+	 * @param deviceFile the device file the bean relates to
+	 * @return the name of the bean, or <code>null</code> if it is invalid
+	 */
+	static ObjectName name(String type, String deviceFile) {
+		try {
+			return new ObjectName(DOMAIN + ":type=" + type + ",name=" 
+					+ ObjectName.quote(deviceFile));
+		} catch (JMException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * This method registers the given management bean.
+	 * @param bean the management bean
+	 * @param name its name
+	 * @return whether the bean was registered
+	 */
+	static boolean register(Object bean, ObjectName name) {
+		if (! enabled || (name == null))
+			return false;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+			return true;
+		} catch (JMException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * This method unregisters the management bean with the given name.
+	 * @param name the name of the bean
+	 */
+	static void unregister(ObjectName name) {
+		if (name == null)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			// already unregistered
+		} catch (SecurityException e) {
+		}
+	}
+
+	/**
+	 * The management bean of a {@link VideoDevice}.
+	 */
+	static final class VideoDeviceBean implements VideoDeviceMXBean {
+		private final VideoDevice		device;
+
+		VideoDeviceBean(VideoDevice d) {
+			device = d;
+		}
+
+		@Override
+		public String getDeviceFile() {
+			return device.getDevicefile();
+		}
+
+		@Override
+		public String getName() {
+			try {
+				return device.getDeviceInfo().getName();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		@Override
+		public boolean isFrameGrabberActive() {
+			return device.getActiveFrameGrabber() != null;
+		}
+
+		@Override
+		public String getFrameGrabberType() {
+			FrameGrabber fg = device.getActiveFrameGrabber();
+			return (fg == null) ? null : fg.getClass().getSimpleName();
+		}
+
+		@Override
+		public long getBufferMemoryBudget() {
+			return device.getBufferMemoryBudget();
+		}
+	}
+
+	/**
+	 * The management bean of a {@link FrameGrabber}.
+	 */
+	static final class FrameGrabberBean implements FrameGrabberMXBean {
+		private static final long		SAMPLE_PERIOD = 1000000000L;
+
+		private final AbstractGrabber	grabber;
+		private final String			deviceFile;
+		private final CaptureStatistics	statistics;
+		private long					sampleTime;
+		private long					sampleFrames;
+		private long					sampleBytes;
+		private double					frameRate;
+		private double					byteRate;
+
+		FrameGrabberBean(AbstractGrabber g, String file) {
+			grabber = g;
+			deviceFile = file;
+			statistics = g.getStatistics();
+			sampleTime = System.nanoTime();
+		}
+
+		/**
+		 * This method updates the rates if the last sample is old enough.
+		 */
+		private synchronized void sample() {
+			long now = System.nanoTime();
+			long elapsed = now - sampleTime;
+			if (elapsed < SAMPLE_PERIOD)
+				return;
+
+			long frames = statistics.getCaptureTimes().getCount();
+			long bytes = statistics.getBytesCopied();
+			// counters may have been reset since the last sample
+			frameRate = Math.max(0, frames - sampleFrames) * 1e9 / elapsed;
+			byteRate = Math.max(0, bytes - sampleBytes) * 1e9 / elapsed;
+			sampleTime = now;
+			sampleFrames = frames;
+			sampleBytes = bytes;
+		}
+
+		@Override
+		public String getDeviceFile() {
+			return deviceFile;
+		}
+
+		@Override
+		public String getImageFormat() {
+			return grabber.getImageFormat().getName();
+		}
+
+		@Override
+		public int getWidth() {
+			return grabber.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return grabber.getHeight();
+		}
+
+		@Override
+		public String getFrameInterval() {
+			try {
+				DiscreteInterval i = grabber.getCurrentFrameInterval();
+				return (i == null) ? "unknown" : i.getNum() + "/" + i.getDenom();
+			} catch (RuntimeException e) {
+				// not supported by the driver, or released
+				return "unknown";
+			}
+		}
+
+		@Override
+		public boolean isCapturing() {
+			try {
+				return grabber.isStarted();
+			} catch (StateException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public String getDispatchStrategy() {
+			return grabber.getDispatchStrategy().toString();
+		}
+
+		@Override
+		public String getBackpressurePolicy() {
+			return grabber.getBackpressurePolicy().toString();
+		}
+
+		@Override
+		public int getNumberOfVideoFrames() {
+			return grabber.getNumberOfVideoFrames();
+		}
+
+		@Override
+		public int getNumberOfRecycledVideoFrames() {
+			return grabber.getNumberOfRecycledVideoFrames();
+		}
+
+		@Override
+		public int getDispatchQueueDepth() {
+			return statistics.getDispatchQueueDepth();
+		}
+
+		@Override
+		public double getFrameRate() {
+			sample();
+			synchronized (this) {
+				return frameRate;
+			}
+		}
+
+		@Override
+		public double getBytesCopiedPerSecond() {
+			sample();
+			synchronized (this) {
+				return byteRate;
+			}
+		}
+
+		@Override
+		public long getDeliveredFrames() {
+			return statistics.getDeliveredFrames();
+		}
+
+		@Override
+		public long getDroppedFrames() {
+			return statistics.getDroppedFrames();
+		}
+
+		@Override
+		public long getSequenceGaps() {
+			return statistics.getSequenceGaps();
+		}
+
+		@Override
+		public long getLostFrames() {
+			return statistics.getLostFrames();
+		}
+
+		@Override
+		public long getStarvedSequenceGaps() {
+			return statistics.getStarvedSequenceGaps();
+		}
+
+		@Override
+		public long getGapDurationMax() {
+			return statistics.getGapDurations().getMax();
+		}
+
+		@Override
+		public long getCallbackTimeMean() {
+			return statistics.getCallbackTimes().getMean();
+		}
+
+		@Override
+		public long getCallbackTime50thPercentile() {
+			return statistics.getCallbackTimes().getPercentile(50);
+		}
+
+		@Override
+		public long getCallbackTime99thPercentile() {
+			return statistics.getCallbackTimes().getPercentile(99);
+		}
+
+		@Override
+		public long getCallbackTimeMax() {
+			return statistics.getCallbackTimes().getMax();
+		}
+
+		@Override
+		public long getHoldTime99thPercentile() {
+			return statistics.getHoldTimes().getPercentile(99);
+		}
+
+		@Override
+		public long getCaptureLatency99thPercentile() {
+			return statistics.getCaptureLatencies().getPercentile(99);
+		}
+
+		@Override
+		public void resetStatistics() {
+			statistics.reset();
+		}
+	}
+}
@@ -0,0 +1,495 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ParallelConverter converts frames of a given size with a 
+ * {@link YUVConverter}, splitting large frames into bands of rows which are
+ * converted at the same time by the threads of an {@link Executor} and by 
+ * the calling thread. Frames with fewer pixels than the threshold (see 
+ * {@link #setThreshold(int)}) are converted by the calling thread only, as 
+ * handing them over to other threads would take longer than converting them.
+ * <br>
+ * Converted frames are stored either in arrays supplied by the caller, or
+ * in arrays taken from a pool, which must be given back with 
+ * {@link #recycle(byte[])} or {@link #recycle(int[])} when they are no 
+ * longer needed. The pool grows to the largest number of arrays in use at 
+ * any one time, after which converting frames does not allocate memory:
+ * <br><code>
+ * <br>ParallelConverter c = new ParallelConverter(
+ * <br>&nbsp;&nbsp;YUVConverter.forFormat(V4L4JConstants.IMF_NV12), 1920, 1080);
+ * <br>byte[] bgr = c.toBGR24(frame.getBytes());
+ * <br>// use bgr
+ * <br>c.recycle(bgr);
+ * </code><br><br>
+ * By default, bands are converted by a pool of daemon threads shared by all
+ * parallel converters, with one thread per available processor, less one 
+ * for the calling thread. The pool is created the first time a frame is
+ * split. A ParallelConverter can be used by several threads, but only 
+ * splits one frame at a time: frames split while another one is being 
+ * converted are converted by the calling thread only.
+ * @author gilles
+ *
+ */
+public final class ParallelConverter {
+	/**
+	 * The default threshold: frames with more pixels than a 640x480 frame 
+	 * are split.
+	 */
+	public static final int				DEFAULT_THRESHOLD = 640 * 480;
+
+	// bands are at least this number of rows high
+	private static final int			MIN_ROWS = 16;
+
+	private final YUVConverter			converter;
+	private final int					width, height;
+	private final Executor				executor;
+	private final int					threads;
+	private volatile int				threshold;
+
+	// one task per band, except the one converted by the calling thread
+	private final Band[]				bands;
+	private final AtomicInteger			remaining;
+	private final AtomicInteger			busy;
+	private volatile Throwable			failure;
+
+	private final ConcurrentLinkedQueue<byte[]>	rgbBuffers, greyBuffers, yuvBuffers;
+	private final ConcurrentLinkedQueue<int[]>	argbBuffers;
+
+	/**
+	 * This constructor builds a parallel converter which uses the shared
+	 * pool of conversion threads.
+	 * @param c the converter used to convert frames
+	 * @param w the width of the frames
+	 * @param h the height of the frames
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * converter's image format
+	 */
+	public ParallelConverter(YUVConverter c, int w, int h) {
+		this(c, w, h, null, Math.max(0, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/**
+	 * This constructor builds a parallel converter which has frames 
+	 * converted by the given executor, such as a 
+	 * <code>ForkJoinPool</code>. Frames are split in at most 
+	 * <code>threads + 1</code> bands: <code>threads</code> are handed over to
+	 * the executor, and one is converted by the calling thread. If the 
+	 * executor rejects a band, the calling thread converts it.
+	 * @param c the converter used to convert frames
+	 * @param w the width of the frames
+	 * @param h the height of the frames
+	 * @param e the executor which converts bands
+	 * @param threads the number of bands handed over to the executor
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * converter's image format, or if <code>threads</code> is negative
+	 */
+	public ParallelConverter(YUVConverter c, int w, int h, Executor e, int threads) {
+		if (c == null)
+			throw new NullPointerException("The converter cannot be null");
+		if (threads < 0)
+			throw new IllegalArgumentException("The number of threads cannot be negative");
+		// check the dimensions once and for all
+		c.checkArguments(c.getFrameSize(w, h), Integer.MAX_VALUE, YUVConverter.GREY, w, h);
+
+		converter = c;
+		width = w;
+		height = h;
+		executor = e;
+		this.threads = threads;
+		threshold = DEFAULT_THRESHOLD;
+		bands = new Band[threads];
+		for (int i = 0; i < threads; i++)
+			bands[i] = new Band();
+		remaining = new AtomicInteger();
+		busy = new AtomicInteger();
+		rgbBuffers = new ConcurrentLinkedQueue<byte[]>();
+		greyBuffers = new ConcurrentLinkedQueue<byte[]>();
+		yuvBuffers = new ConcurrentLinkedQueue<byte[]>();
+		argbBuffers = new ConcurrentLinkedQueue<int[]>();
+	}
+
+	/**
+	 * This method sets the number of pixels above which frames are split
+	 * between several threads. It defaults to {@link #DEFAULT_THRESHOLD}.
+	 * @param pixels the threshold, in pixels. Use 
+	 * <code>Integer.MAX_VALUE</code> to always convert frames in the calling 
+	 * thread, and 0 to always split them.
+	 */
+	public void setThreshold(int pixels) {
+		threshold = pixels;
+	}
+
+	/**
+	 * This method returns the number of pixels above which frames are split
+	 * between several threads.
+	 * @return the threshold, in pixels
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * This method returns the converter used to convert frames.
+	 * @return the converter
+	 */
+	public YUVConverter getConverter() {
+		return converter;
+	}
+
+	/**
+	 * This method converts a frame to RGB24 into the given array. See 
+	 * {@link YUVConverter#toRGB24(byte[], byte[], int, int)}.
+	 * @param src the frame to convert
+	 * @param dst the array where the converted frame is stored
+	 * @throws IllegalArgumentException if one of the arrays is too short
+	 */
+	public void toRGB24(byte[] src, byte[] dst) {
+		convert(src, dst, YUVConverter.RGB24);
+	}
+
+	/**
+	 * This method converts a frame to RGB24 into a pooled array, which must
+	 * be given back with {@link #recycle(byte[])}.
+	 * @param src the frame to convert
+	 * @return the converted frame
+	 * @throws IllegalArgumentException if the source array is too short
+	 */
+	public byte[] toRGB24(byte[] src) {
+		byte[] dst = getBuffer(rgbBuffers, YUVConverter.RGB24);
+		convert(src, dst, YUVConverter.RGB24);
+		return dst;
+	}
+
+	/**
+	 * This method converts a frame to BGR24 into the given array. See 
+	 * {@link YUVConverter#toBGR24(byte[], byte[], int, int)}.
+	 * @param src the frame to convert
+	 * @param dst the array where the converted frame is stored
+	 * @throws IllegalArgumentException if one of the arrays is too short
+	 */
+	public void toBGR24(byte[] src, byte[] dst) {
+		convert(src, dst, YUVConverter.BGR24);
+	}
+
+	/**
+	 * This method converts a frame to BGR24 into a pooled array, which must
+	 * be given back with {@link #recycle(byte[])}.
+	 * @param src the frame to convert
+	 * @return the converted frame
+	 * @throws IllegalArgumentException if the source array is too short
+	 */
+	public byte[] toBGR24(byte[] src) {
+		byte[] dst = getBuffer(rgbBuffers, YUVConverter.BGR24);
+		convert(src, dst, YUVConverter.BGR24);
+		return dst;
+	}
+
+	/**
+	 * This method converts a frame to ARGB into the given array. See 
+	 * {@link YUVConverter#toARGB(byte[], int[], int, int)}.
+	 * @param src the frame to convert
+	 * @param dst the array where the converted frame is stored
+	 * @throws IllegalArgumentException if one of the arrays is too short
+	 */
+	public void toARGB(byte[] src, int[] dst) {
+		convert(src, dst, YUVConverter.ARGB);
+	}
+
+	/**
+	 * This method converts a frame to ARGB into a pooled array, which must
+	 * be given back with {@link #recycle(int[])}.
+	 * @param src the frame to convert
+	 * @return the converted frame
+	 * @throws IllegalArgumentException if the source array is too short
+	 */
+	public int[] toARGB(byte[] src) {
+		int[] dst = argbBuffers.poll();
+		if (dst == null)
+			dst = new int[width * height];
+		convert(src, dst, YUVConverter.ARGB);
+		return dst;
+	}
+
+	/**
+	 * This method extracts the luma of a frame into the given array. See 
+	 * {@link YUVConverter#toGrey(byte[], byte[], int, int)}.
+	 * @param src the frame to convert
+	 * @param dst the array where the converted frame is stored
+	 * @throws IllegalArgumentException if one of the arrays is too short
+	 */
+	public void toGrey(byte[] src, byte[] dst) {
+		convert(src, dst, YUVConverter.GREY);
+	}
+
+	/**
+	 * This method extracts the luma of a frame into a pooled array, which 
+	 * must be given back with {@link #recycle(byte[])}.
+	 * @param src the frame to convert
+	 * @return the converted frame
+	 * @throws IllegalArgumentException if the source array is too short
+	 */
+	public byte[] toGrey(byte[] src) {
+		byte[] dst = getBuffer(greyBuffers, YUVConverter.GREY);
+		convert(src, dst, YUVConverter.GREY);
+		return dst;
+	}
+
+	/**
+	 * This method converts a frame to planar YUV420 into the given array. 
+	 * See {@link YUVConverter#toYUV420(byte[], byte[], int, int)}.
+	 * @param src the frame to convert
+	 * @param dst the array where the converted frame is stored
+	 * @throws IllegalArgumentException if the height of the frames is odd,
+	 * or if one of the arrays is too short
+	 */
+	public void toYUV420(byte[] src, byte[] dst) {
+		convert(src, dst, YUVConverter.YUV420);
+	}
+
+	/**
+	 * This method converts a frame to planar YUV420 into a pooled array, 
+	 * which must be given back with {@link #recycle(byte[])}.
+	 * @param src the frame to convert
+	 * @return the converted frame
+	 * @throws IllegalArgumentException if the height of the frames is odd,
+	 * or if the source array is too short
+	 */
+	public byte[] toYUV420(byte[] src) {
+		byte[] dst = getBuffer(yuvBuffers, YUVConverter.YUV420);
+		convert(src, dst, YUVConverter.YUV420);
+		return dst;
+	}
+
+	/**
+	 * This method gives back an array returned by one of the conversion 
+	 * methods, so it can be reused. The array must not be used afterwards.
+	 * Arrays whose length is not that of a converted frame are ignored, but
+	 * any other array is pooled, even if it was not returned by this 
+	 * converter.
+	 * @param buffer the array to give back
+	 * @throws IllegalArgumentException if the array is already in the pool,
+	 * ie. it was given back twice
+	 */
+	public void recycle(byte[] buffer) {
+		int pixels = width * height;
+
+		if (buffer.length == pixels * 3)
+			pool(rgbBuffers, buffer);
+		else if (buffer.length == pixels)
+			pool(greyBuffers, buffer);
+		else if (buffer.length == pixels * 3 / 2)
+			pool(yuvBuffers, buffer);
+	}
+
+	/**
+	 * This method gives back an array returned by {@link #toARGB(byte[])},
+	 * so it can be reused. The array must not be used afterwards. Arrays 
+	 * whose length is not that of a converted frame are ignored, but any 
+	 * other array is pooled, even if it was not returned by this converter.
+	 * @param buffer the array to give back
+	 * @throws IllegalArgumentException if the array is already in the pool,
+	 * ie. it was given back twice
+	 */
+	public void recycle(int[] buffer) {
+		if (buffer.length == width * height)
+			pool(argbBuffers, buffer);
+	}
+
+	/**
+	 * This method adds an array to a pool, unless it is already there, so
+	 * that it is never handed out twice. The pool holds as many arrays as
+	 * were in use at once, so looking for the array is cheap.
+	 * @param pool the pool
+	 * @param buffer the array to add
+	 */
+	private static <T> void pool(ConcurrentLinkedQueue<T> pool, T buffer) {
+		// arrays are compared by identity. Polling does not take the lock: 
+		// an array being polled is not being given back
+		synchronized (pool) {
+			if (pool.contains(buffer))
+				throw new IllegalArgumentException("This array has already been recycled");
+			pool.offer(buffer);
+		}
+	}
+
+	private byte[] getBuffer(ConcurrentLinkedQueue<byte[]> pool, int layout) {
+		byte[] buffer = pool.poll();
+		return (buffer != null) ? buffer
+				: new byte[YUVConverter.getConvertedSize(layout, width, height)];
+	}
+
+	/**
+	 * This method converts a frame, either in the calling thread, or by 
+	 * splitting it in bands.
+	 * @param src the frame to convert
+	 * @param dst the destination array, a byte[] or an int[]
+	 * @param layout the layout of the converted frame
+	 */
+	private void convert(byte[] src, Object dst, int layout) {
+		int length = (layout == YUVConverter.ARGB) ? ((int[]) dst).length : ((byte[]) dst).length;
+		converter.checkArguments(src.length, length, layout, width, height);
+
+		// number of bands, with an even number of rows in each
+		int count = Math.min(threads + 1, height / MIN_ROWS);
+		if ((count < 2) || (width * height <= threshold) || ! busy.compareAndSet(0, 1)) {
+			convertRows(src, dst, layout, 0, height);
+			return;
+		}
+
+		try {
+			int rows = ((height + count - 1) / count + 1) & ~1;
+			count = (height + rows - 1) / rows;
+			failure = null;
+			remaining.set(count - 1);
+			for (int i = 1; i < count; i++) {
+				Band band = bands[i - 1];
+				band.set(src, dst, layout, i * rows, Math.min(height, (i + 1) * rows));
+				try {
+					getExecutor().execute(band);
+				} catch (RejectedExecutionException e) {
+					band.run();
+				}
+			}
+
+			// convert the first band, and wait for the others
+			convertRows(src, dst, layout, 0, rows);
+			if (remaining.get() > 0) {
+				boolean interrupted = false;
+				synchronized (remaining) {
+					while (remaining.get() > 0) {
+						try {
+							remaining.wait();
+						} catch (InterruptedException e) {
+							// the bands still write to dst: wait for them
+							interrupted = true;
+						}
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+
+			Throwable t = failure;
+			if (t != null) {
+				failure = null;
+				if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				if (t instanceof Error)
+					throw (Error) t;
+				throw new RuntimeException(t);
+			}
+		} finally {
+			busy.set(0);
+		}
+	}
+
+	private void convertRows(byte[] src, Object dst, int layout, int from, int to) {
+		switch (layout) {
+		case YUVConverter.RGB24:
+			converter.rowsToRGB24(src, (byte[]) dst, width, height, from, to, false);
+			break;
+		case YUVConverter.BGR24:
+			converter.rowsToRGB24(src, (byte[]) dst, width, height, from, to, true);
+			break;
+		case YUVConverter.ARGB:
+			converter.rowsToARGB(src, (int[]) dst, width, height, from, to);
+			break;
+		case YUVConverter.GREY:
+			converter.rowsToGrey(src, (byte[]) dst, width, height, from, to);
+			break;
+		default:
+			converter.rowsToYUV420(src, (byte[]) dst, width, height, from, to);
+		}
+	}
+
+	private Executor getExecutor() {
+		return (executor != null) ? executor : SharedPool.POOL;
+	}
+
+	/**
+	 * A band of rows converted by the executor. Band objects are reused 
+	 * for every frame, so splitting a frame does not allocate memory (the
+	 * executor itself may).
+	 */
+	private final class Band implements Runnable {
+		private byte[]		src;
+		private Object		dst;
+		private int			layout, from, to;
+
+		// the fields are published to the executing thread by execute()
+		void set(byte[] s, Object d, int l, int f, int t) {
+			src = s;
+			dst = d;
+			layout = l;
+			from = f;
+			to = t;
+		}
+
+		@Override
+		public void run() {
+			try {
+				convertRows(src, dst, layout, from, to);
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				src = null;
+				dst = null;
+				if (remaining.decrementAndGet() == 0) {
+					synchronized (remaining) {
+						remaining.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The pool of threads shared by parallel converters which are not given
+	 * an executor. It is created the first time it is used.
+	 */
+	private static final class SharedPool {
+		static final ThreadPoolExecutor	POOL;
+
+		static {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			POOL = new ThreadPoolExecutor(threads, threads,
+					0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final AtomicInteger	count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "v4l4j converter " + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+	}
+}
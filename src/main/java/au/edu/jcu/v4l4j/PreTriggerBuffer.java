@@ -0,0 +1,350 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A PreTriggerBuffer keeps a copy of the most recent frames of a capture, 
+ * so that the frames leading up to an event can be recorded once the event
+ * is detected. Frame data is stored in a fixed-size direct (off-heap) 
+ * buffer, and the metadata of each frame (sequence number, capture time, 
+ * length) in arrays of primitives: once the buffer has filled up, new frames 
+ * overwrite the oldest ones without allocating anything. Frames are also 
+ * discarded once they are older than the maximum age, relative to the
+ * newest frame.<br>
+ * A pre-trigger buffer can be used as the {@link CaptureCallback} of a 
+ * frame grabber, or a subscriber of a {@link FrameBroadcaster}, in which 
+ * case it recycles frames once copied. Frames can also be added with
+ * {@link #add(VideoFrame)}, which leaves them to the caller.<br>
+ * When an event fires, {@link #drainTo(FrameSink)} hands the buffered 
+ * frames over to a {@link FrameSink}, eg. a {@link FrameJournalWriter}, 
+ * oldest first, and removes them from the buffer. The frames being drained
+ * are not overwritten, but frames keep being added while the sink writes 
+ * them: if the buffer is full of frames still to be drained, new frames are
+ * dropped (see {@link #getDroppedFrames()}).
+ * <code><br>
+ * <br>PreTriggerBuffer preTrigger = new PreTriggerBuffer(256 << 20, 10, TimeUnit.SECONDS);
+ * <br>new FrameBroadcaster(frameGrabber).subscribe(preTrigger, BackpressurePolicy.DROP_OLDEST, 2);
+ * <br>...
+ * <br>// when the event is detected
+ * <br>preTrigger.drainTo(journalWriter);
+ * </code>
+ * @author gilles
+ *
+ */
+public class PreTriggerBuffer implements CaptureCallback {
+	private final ByteBuffer	data;
+	private final long			maxAge;
+
+	// frame metadata, indexed by frame number modulo the array length. 
+	// Frame numbers count frames added to this buffer.
+	private long[]				sequences;
+	private long[]				captureTimes;
+	private int[]				offsets;
+	private int[]				lengths;
+	private int					mask;
+
+	// the oldest buffered frame, and the next one to be added
+	private long				first;
+	private long				next;
+	// where the next frame's data goes
+	private int					writePosition;
+	// frames from this one onwards are being drained, -1 if none
+	private long				pinned;
+	private int					bufferedBytes;
+
+	private FrameGrabber			source;
+	private long				droppedFrames;
+
+	/**
+	 * This method builds a pre-trigger buffer.
+	 * @param capacity the size of the buffer holding frame data, in bytes. 
+	 * Frames larger than this cannot be buffered.
+	 * @param age the maximum age of buffered frames, relative to the newest
+	 * one, or 0 for no limit
+	 * @param unit the unit of <code>age</code>
+	 * @throws IllegalArgumentException if the capacity is not positive or 
+	 * greater than <code>Integer.MAX_VALUE</code>, or the age is negative
+	 */
+	public PreTriggerBuffer(long capacity, long age, TimeUnit unit) {
+		if ((capacity <= 0) || (capacity > Integer.MAX_VALUE))
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		if (age < 0)
+			throw new IllegalArgumentException("The maximum age cannot be negative");
+
+		data = ByteBuffer.allocateDirect((int) capacity);
+		maxAge = (age == 0) ? Long.MAX_VALUE : unit.toMicros(age);
+		sequences = new long[64];
+		captureTimes = new long[64];
+		offsets = new int[64];
+		lengths = new int[64];
+		mask = 63;
+		first = 0;
+		next = 0;
+		writePosition = 0;
+		pinned = -1;
+		bufferedBytes = 0;
+		droppedFrames = 0;
+	}
+
+	/**
+	 * This method copies the given frame into this buffer, and recycles it.
+	 * @param frame the latest captured frame
+	 */
+	@Override
+	public void nextFrame(VideoFrame frame) {
+		try {
+			add(frame);
+		} finally {
+			frame.recycle();
+		}
+	}
+
+	/**
+	 * This method does nothing: capture errors are for the application to
+	 * handle.
+	 * @param e the exception raised during the capture
+	 */
+	@Override
+	public void exceptionReceived(V4L4JException e) {
+	}
+
+	/**
+	 * This method copies the given frame into this buffer, overwriting the
+	 * oldest frames if needed. The frame is not recycled.
+	 * @param frame the frame to be added
+	 * @return whether the frame was added. It is not if it is larger than
+	 * this buffer, or if the frames it would overwrite are being drained.
+	 * @throws StateException if the frame has been recycled
+	 */
+	public synchronized boolean add(VideoFrame frame) {
+		int length = frame.getFrameLength();
+		long captureTime = frame.getCaptureTime();
+
+		// discard frames which are too old
+		while ((first < next) && (first != pinned)
+				&& (captureTime - captureTimes[slot(first)] > maxAge))
+			discardOldest();
+
+		int position;
+		while ((position = allocate(length)) < 0) {
+			if ((first == next) || (first == pinned)) {
+				droppedFrames++;
+				return false;
+			}
+			discardOldest();
+		}
+
+		if (next - first == sequences.length)
+			growMetadata();
+
+		// copy the frame data, from its array if it has one
+		data.clear().position(position);
+		byte[] array = (frame instanceof BaseVideoFrame) 
+				? ((BaseVideoFrame) frame).getByteArray() : null;
+		if ((array != null) && ! ((BaseVideoFrame) frame).isRecycled())
+			data.put(array, 0, length);
+		else
+			data.put(frame.getByteBuffer());
+
+		int s = slot(next);
+		sequences[s] = frame.getSequenceNumber();
+		captureTimes[s] = captureTime;
+		offsets[s] = position;
+		lengths[s] = length;
+		next++;
+		writePosition = position + length;
+		bufferedBytes += length;
+		source = frame.getFrameGrabber();
+		return true;
+	}
+
+	/**
+	 * This method hands all buffered frames over to the given sink, oldest 
+	 * first, and removes them from this buffer. Frames added while they are
+	 * written are not drained.
+	 * @param sink the sink to which frames are written
+	 * @return the number of frames written to the sink
+	 * @throws IOException if the sink fails to write a frame. The frames 
+	 * which were not written yet remain in the buffer.
+	 * @throws IllegalStateException if another thread is draining this 
+	 * buffer
+	 */
+	public int drainTo(FrameSink sink) throws IOException {
+		long end;
+		FrameGrabber fg;
+		ByteBuffer view;
+
+		synchronized (this) {
+			if (pinned != -1)
+				throw new IllegalStateException("This buffer is already being drained");
+			pinned = first;
+			end = next;
+			fg = source;
+			view = data.duplicate();
+		}
+
+		int drained = 0;
+		try {
+			for (long n = pinned; n < end; n++) {
+				long sequence, captureTime;
+				synchronized (this) {
+					int s = slot(n);
+					sequence = sequences[s];
+					captureTime = captureTimes[s];
+					view.limit(offsets[s] + lengths[s]).position(offsets[s]);
+				}
+
+				// the frame cannot be overwritten while pinned
+				sink.writeFrame(fg, view, sequence, captureTime);
+				drained++;
+
+				synchronized (this) {
+					discardOldest();
+					pinned = first;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				pinned = -1;
+			}
+		}
+
+		return drained;
+	}
+
+	/**
+	 * This method discards all buffered frames.
+	 * @throws IllegalStateException if another thread is draining this 
+	 * buffer
+	 */
+	public synchronized void clear() {
+		if (pinned != -1)
+			throw new IllegalStateException("This buffer is being drained");
+		first = next;
+		writePosition = 0;
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * This method returns the number of frames in this buffer.
+	 * @return the number of buffered frames
+	 */
+	public synchronized int getFrameCount() {
+		return (int) (next - first);
+	}
+
+	/**
+	 * This method returns the amount of frame data in this buffer.
+	 * @return the number of bytes of frame data in this buffer
+	 */
+	public synchronized int getBufferedBytes() {
+		return bufferedBytes;
+	}
+
+	/**
+	 * This method returns the time between the capture of the oldest and 
+	 * newest frames in this buffer.
+	 * @param unit the unit in which to return the duration
+	 * @return the duration covered by the buffered frames, 0 if there are 
+	 * less than two
+	 */
+	public synchronized long getBufferedDuration(TimeUnit unit) {
+		if (next - first < 2)
+			return 0;
+		return unit.convert(captureTimes[slot(next - 1)] - captureTimes[slot(first)], 
+				TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * This method returns the size of the buffer holding frame data.
+	 * @return the capacity of this buffer in bytes
+	 */
+	public int getCapacity() {
+		return data.capacity();
+	}
+
+	/**
+	 * This method returns the number of frames which could not be added,
+	 * because they were larger than this buffer or the frames they would 
+	 * have overwritten were being drained.
+	 * @return the number of dropped frames
+	 */
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	private int slot(long n) {
+		return (int) n & mask;
+	}
+
+	private void discardOldest() {
+		bufferedBytes -= lengths[slot(first)];
+		first++;
+		if (first == next)
+			writePosition = 0;
+	}
+
+	/**
+	 * This method finds room for a frame of the given length after the
+	 * newest frame, without overwriting the oldest one.
+	 * @return the offset of the frame data, or -1 if there is no room
+	 */
+	private int allocate(int length) {
+		int capacity = data.capacity();
+		if (first == next)
+			return (length <= capacity) ? 0 : -1;
+
+		int start = offsets[slot(first)];
+		if (writePosition > start) {
+			// free space after the newest frame, and before the oldest one
+			if (capacity - writePosition >= length)
+				return writePosition;
+			return (start >= length) ? 0 : -1;
+		}
+
+		// the newest frame wrapped around: free space is between them
+		return (start - writePosition >= length) ? writePosition : -1;
+	}
+
+	private void growMetadata() {
+		int size = sequences.length * 2;
+		long[] seq = new long[size], times = new long[size];
+		int[] off = new int[size], len = new int[size];
+
+		for (long n = first; n < next; n++) {
+			int from = slot(n), to = (int) n & (size - 1);
+			seq[to] = sequences[from];
+			times[to] = captureTimes[from];
+			off[to] = offsets[from];
+			len[to] = lengths[from];
+		}
+
+		sequences = seq;
+		captureTimes = times;
+		offsets = off;
+		lengths = len;
+		mask = size - 1;
+	}
+}
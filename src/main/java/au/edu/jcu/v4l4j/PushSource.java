@@ -27,7 +27,9 @@ import au.edu.jcu.v4l4j.exceptions.V4L4JException;
  * PushSource instances create their own thread which polls
  * a frame grabber and notify the 
  * {@link CaptureCallback} object given in the constructor
- * each time a new frame is available.
+ * each time a new frame is available. Frames are handed over to the callback 
+ * by a {@link CaptureDispatcher}, created from the frame grabber's
+ * {@link DispatchStrategy} when the capture starts.
  * @author gilles
  *
  */
@@ -36,6 +38,7 @@ class PushSource implements Runnable {
 	private AbstractGrabber			frameGrabber;
 	private Thread					thread;
 	private ThreadFactory			threadFactory;
+	private CaptureDispatcher		dispatcher;
 	
 	private int						state;
 	private static final int		STATE_STOPPED = 0;
@@ -72,7 +75,11 @@ class PushSource implements Runnable {
 		if (state != STATE_STOPPED)
 			throw new StateException("The capture has already been started");
 		
-		// Update our state and start the thread
+		// Create the dispatcher, update our state and start the thread
+		dispatcher = frameGrabber.getDispatchStrategy().newDispatcher(callback,
+				frameGrabber.getStatistics(), threadFactory, 
+				frameGrabber.getNumberOfVideoFrames(),
+				frameGrabber.getBackpressurePolicy(), frameGrabber.getLagBudget());
 		state = STATE_RUNNING;
 		thread = threadFactory.newThread(this);
 		thread.setName(thread.getName() + " - v4l4j push source");
@@ -83,21 +90,28 @@ class PushSource implements Runnable {
 	
 	/**
 	 * This method instructs this source to stop frame delivery
-	 * to the {@link CaptureCallback} object.
+	 * to the {@link CaptureCallback} object. When it returns, the push thread
+	 * has exited (unless it is the calling thread) and no callback is in
+	 * progress (except the calling one).
 	 * @throws StateException if the capture has already been stopped
 	 */
 	public final void stopCapture() {
+		boolean running;
+
 		synchronized (this) {
 			// make sure we are running
-			if ((state == STATE_STOPPED) || (state == STATE_ABOUT_TO_STOP))
+			if ((dispatcher == null) || (state == STATE_ABOUT_TO_STOP))
 				//throw new StateException("The capture is about to stop");
 				return;
 
-			// update our state
-			state = STATE_ABOUT_TO_STOP;
+			// update our state, unless the push thread has exited on its own
+			// (in which case callbacks might still be in progress)
+			running = (state == STATE_RUNNING);
+			if (running)
+				state = STATE_ABOUT_TO_STOP;
 		}
 		
-		if (thread.isAlive()) {
+		if (running && thread.isAlive()) {
 			thread.interrupt();
 			
 			// wait for thread to exit if the push thread is not the one
@@ -119,11 +133,14 @@ class PushSource implements Runnable {
 			}
 			
 		}
+
+		// drop undelivered frames and wait for callbacks in progress
+		dispatcher.shutdown(true);
 	}
 
 	@Override
 	public final void run() {
-		VideoFrame frame = null;
+		BaseVideoFrame frame = null;
 		
 		while (! Thread.interrupted()){
 			try {
@@ -131,8 +148,8 @@ class PushSource implements Runnable {
 				frame = frameGrabber.getNextVideoFrame();
 				
 				// and deliver it to the callback object
-				try { callback.nextFrame(frame); }
-				catch (Throwable t) {} // ignore any exception thrown by the callback
+				frame.setHandoffTime(System.nanoTime());
+				dispatcher.dispatch(frame);
 			} catch (Throwable t) {
 				// Received an exception. If we are in the middle of a capture (ie. it does not
 				// happen as the result of the capture having been stopped or the frame 
@@ -150,6 +167,10 @@ class PushSource implements Runnable {
 			}
 		}
 
+		// no more frames will be dispatched. Do not wait for callbacks here,
+		// as one of them might be joining this thread in stopCapture()
+		dispatcher.shutdown(false);
+
 		// update state
 		state = STATE_STOPPED;
 	}
@@ -51,6 +51,9 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * method must be called on the associated {@link VideoDevice}. RGB frame grabbers
  * implement the {@link FrameGrabber} interface which provides methods to handle
  * video capture. See {@link FrameGrabber its documentation} for more information.
+ * <br>Java2D has no image type for RGB24 data, so it draws the images 
+ * returned by {@link VideoFrame#getBufferedImage()} with a generic, slower
+ * loop. Use a {@link BGRFrameGrabber} for on-screen display.
  * 
  * @see FrameGrabber {@link FrameGrabber}
  * @author gilles
@@ -0,0 +1,785 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
+import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
+import au.edu.jcu.v4l4j.exceptions.InitialisationException;
+import au.edu.jcu.v4l4j.exceptions.InvalidValue;
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A ReplayFrameGrabber plays back recorded frames, without a video device 
+ * or the JNI library, so that they go through the same 
+ * {@link CaptureCallback} (or pull mode) code as live frames. It reads 
+ * either a journal written by a {@link FrameJournalWriter}, or a directory
+ * of frames stored one per file (raw or JPEG), in file name order. Frames
+ * are read straight into the video frames, without memory mapping.<br>
+ * Frames from a journal keep their original sequence numbers and capture 
+ * times. Frames from a directory are numbered from 0, and their capture 
+ * times are spaced by the frame interval (see 
+ * {@link #setFrameInterval(int, int)}).<br>
+ * By default, frames are delivered at the pace they were captured. 
+ * {@link #setSpeed(double)} speeds up or slows down the playback, or 
+ * delivers frames as fast as they are requested. Unlike a live frame
+ * grabber, a replay frame grabber never drops frames: if the application 
+ * falls behind, playback falls behind too. Once the last frame has been 
+ * delivered, {@link FrameGrabber#take()} throws a {@link StateException}, 
+ * and in push mode, the capture callback receives an exception (see 
+ * {@link #isFinished()}), unless the playback loops (see 
+ * {@link #setLoop(boolean)}). Stopping and restarting the capture resumes
+ * the playback where it stopped.<br>
+ * A replay frame grabber is used as follows:
+ * <code><br>
+ * <br>ReplayFrameGrabber fg = new ReplayFrameGrabber(new File("/data/recordings"), "cam0");
+ * <br>fg.setSpeed(4);
+ * <br>fg.setCaptureCallback(callback);
+ * <br>fg.startCapture();
+ * <br>...
+ * <br>fg.stopCapture();
+ * <br>fg.releaseFrameGrabber();
+ * </code>
+ * @author gilles
+ *
+ */
+public class ReplayFrameGrabber extends AbstractGrabber {
+	/**
+	 * The speed at which frames are delivered as fast as they are 
+	 * requested, ie. without pacing.
+	 */
+	public static final double	AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	private final Recording		recording;
+	private final ImageFormat	imageFormat;
+	private double				speed;
+	private boolean				loop;
+	private int					intervalNum;
+	private int					intervalDenom;
+
+	// playback state
+	private volatile int		position;
+	private volatile boolean	finished;
+	private long				startTime;
+	private long				startCaptureTime;
+	private long				intervalUs;
+	private volatile boolean	stopped;
+	private volatile Thread		waiter;
+
+	/**
+	 * This method builds a replay frame grabber which plays the journal of
+	 * the given name, written by a {@link FrameJournalWriter}. Its threads
+	 * are created by the thread factory returned by 
+	 * <code>Executors.defaultThreadFactory()</code>.
+	 * @param dir the directory holding the journal's segments
+	 * @param name the name of the journal
+	 * @throws InitialisationException if the journal cannot be read, is 
+	 * empty or is not a valid journal
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public ReplayFrameGrabber(File dir, String name) throws V4L4JException {
+		this(dir, name, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This method builds a replay frame grabber which plays the journal of
+	 * the given name, written by a {@link FrameJournalWriter}.
+	 * @param dir the directory holding the journal's segments
+	 * @param name the name of the journal
+	 * @param factory the thread factory used to create the push mode threads
+	 * @throws InitialisationException if the journal cannot be read, is 
+	 * empty or is not a valid journal
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public ReplayFrameGrabber(File dir, String name, ThreadFactory factory) 
+			throws V4L4JException {
+		this(new Journal(dir, name), factory);
+	}
+
+	/**
+	 * This method builds a replay frame grabber which plays the frames stored
+	 * in the files of the given directory, one frame per file, in file name 
+	 * order. Its threads are created by the thread factory returned by 
+	 * <code>Executors.defaultThreadFactory()</code>.
+	 * @param dir the directory holding the frames
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param format the image format of the frames, one of the 
+	 * <code>V4L4JConstants.IMF_*</code> constants
+	 * @throws InitialisationException if the directory cannot be read or does
+	 * not contain any frame
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public ReplayFrameGrabber(File dir, int width, int height, int format) 
+			throws V4L4JException {
+		this(dir, width, height, format, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This method builds a replay frame grabber which plays the frames stored
+	 * in the files of the given directory, one frame per file, in file name 
+	 * order.
+	 * @param dir the directory holding the frames
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param format the image format of the frames, one of the 
+	 * <code>V4L4JConstants.IMF_*</code> constants
+	 * @param factory the thread factory used to create the push mode threads
+	 * @throws InitialisationException if the directory cannot be read or does
+	 * not contain any frame
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public ReplayFrameGrabber(File dir, int width, int height, int format, 
+			ThreadFactory factory) throws V4L4JException {
+		this(new FrameFiles(dir, width, height, format), factory);
+	}
+
+	private ReplayFrameGrabber(Recording r, ThreadFactory factory) throws V4L4JException {
+		super(null, 0, r.width, r.height, 0, V4L4JConstants.STANDARD_WEBCAM, null,
+				new ImageFormat(r.format), RAW_GRABBER, factory);
+
+		if (factory == null)
+			throw new NullPointerException("The thread factory cannot be null");
+
+		recording = r;
+		imageFormat = new ImageFormat(r.format);
+		speed = 1;
+		loop = false;
+		intervalNum = 1;
+		intervalDenom = 30;
+		position = 0;
+		finished = false;
+		stopped = true;
+
+		init();
+	}
+
+	/**
+	 * This method returns the image format of the recorded frames.
+	 * @return the image format of the recorded frames
+	 * @throws StateException if this frame grabber has been released
+	 */
+	@Override
+	public ImageFormat getImageFormat() {
+		state.checkReleased();
+		return imageFormat;
+	}
+
+	/**
+	 * This method sets the playback speed, relative to the speed at which 
+	 * frames were captured. It takes effect the next time the capture is
+	 * started.
+	 * @param s the playback speed, eg. 1 for real time, 2 for twice as fast,
+	 * or {@link #AS_FAST_AS_POSSIBLE}
+	 * @throws IllegalArgumentException if the speed is not positive
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void setSpeed(double s) {
+		if (! (s > 0))
+			throw new IllegalArgumentException("The speed must be positive");
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The speed cannot be changed while capturing");
+			speed = s;
+		}
+	}
+
+	/**
+	 * This method returns the playback speed.
+	 * @return the playback speed
+	 */
+	public double getSpeed() {
+		synchronized(state){
+			return speed;
+		}
+	}
+
+	/**
+	 * This method sets whether playback starts over from the first frame 
+	 * once the last one has been delivered.
+	 * @param l whether the playback loops
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void setLoop(boolean l) {
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("Looping cannot be changed while capturing");
+			loop = l;
+		}
+	}
+
+	/**
+	 * This method returns whether the playback loops.
+	 * @return whether the playback loops
+	 */
+	public boolean isLoop() {
+		synchronized(state){
+			return loop;
+		}
+	}
+
+	/**
+	 * This method returns the number of recorded frames.
+	 * @return the number of recorded frames
+	 */
+	public int getFrameCount() {
+		return recording.size();
+	}
+
+	/**
+	 * This method returns the index of the next frame to be played, between
+	 * 0 and {@link #getFrameCount()}.
+	 * @return the index of the next frame to be played
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * This method returns whether the last frame has been delivered, and
+	 * the playback does not loop.
+	 * @return whether the playback is finished
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * This method moves the playback to the given frame.
+	 * @param index the index of the next frame to be played
+	 * @throws IndexOutOfBoundsException if the index is not between 0 and
+	 * {@link #getFrameCount()} excluded
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void seek(int index) {
+		if ((index < 0) || (index >= recording.size()))
+			throw new IndexOutOfBoundsException("Invalid frame index " + index);
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The playback cannot be moved while capturing");
+			position = index;
+			finished = false;
+		}
+	}
+
+	/**
+	 * This method sets the interval between frames read from a directory.
+	 * It is not used for journals, whose frames carry their capture time.
+	 * @param num the frame interval numerator
+	 * @param denom the frame interval denominator
+	 * @throws InvalidValue if the frame interval is not valid
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	@Override
+	public void setFrameInterval(int num, int denom) throws InvalidValue {
+		if ((num <= 0) || (denom <= 0))
+			throw new InvalidValue("Invalid frame interval " + num + "/" + denom);
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("Invalid method call");
+			intervalNum = num;
+			intervalDenom = denom;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getFrameInterval()
+	 */
+	@Override
+	public DiscreteInterval getFrameInterval() {
+		synchronized(state){
+			state.checkReleased();
+			return new DiscreteInterval(intervalNum, intervalDenom);
+		}
+	}
+
+	/**
+	 * Replay frame grabbers have a single input, whose index is 0.
+	 * @param input the input, which must be 0
+	 * @param standard the video standard, which is ignored
+	 * @throws CaptureChannelException if the input is not 0
+	 */
+	@Override
+	public void setVideoInputNStandard(int input, int standard) throws CaptureChannelException {
+		state.checkReleased();
+		if (input != 0)
+			throw new CaptureChannelException("Invalid input " + input);
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoInput()
+	 */
+	@Override
+	public int getVideoInput() {
+		state.checkReleased();
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoStandard()
+	 */
+	@Override
+	public int getVideoStandard() {
+		state.checkReleased();
+		return V4L4JConstants.STANDARD_WEBCAM;
+	}
+
+	/**
+	 * This method stops the capture if it is in progress, and releases this
+	 * frame grabber. It must not be used afterwards.
+	 * @throws StateException if this frame grabber has already been released
+	 */
+	public void releaseFrameGrabber() {
+		release();
+	}
+
+	/*
+	 * Replay frame grabbers are not attached to a device, so equality
+	 * cannot be based on it.
+	 */
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return this == obj;
+	}
+
+	@Override
+	protected void createBuffers(int bufferSize) {
+		int numberOfBuffers = nbV4LBuffers;
+		int format = imageFormat.getIndex();
+		PixelInterleavedSampleModel sm = null;
+		ColorSpace cs = null;
+
+		if ((format == V4L4JConstants.IMF_RGB24) || (format == V4L4JConstants.IMF_BGR24)) {
+			cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+			sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, 
+					getWidth(), getHeight(), 3, getWidth() * 3, 
+					(format == V4L4JConstants.IMF_RGB24) ? new int[] {0,1,2} : new int[] {2,1,0});
+		}
+		JPEGDecoder decoder = ((format == V4L4JConstants.IMF_MJPEG) 
+				|| (format == V4L4JConstants.IMF_JPEG)) ? new JPEGDecoder() : null;
+
+		while(numberOfBuffers-- > 0)
+			if ((format == V4L4JConstants.IMF_MJPEG) || (format == V4L4JConstants.IMF_JPEG))
+				videoFrames.add(new JPEGVideoFrame(this, bufferSize, decoder));
+			else
+				videoFrames.add(new UncompressedVideoFrame(this, bufferSize, sm, cs));
+	}
+
+	/*
+	 * Driver methods
+	 */
+
+	@Override
+	int initDriver(int numBuffers) {
+		return numBuffers;
+	}
+
+	@Override
+	int getDriverBufferSize() {
+		return recording.maxLength;
+	}
+
+	@Override
+	void startDriver() {
+		intervalUs = TimeUnit.SECONDS.toMicros(intervalNum) / intervalDenom;
+		if (finished && loop) {
+			position = 0;
+			finished = false;
+		}
+		startTime = System.nanoTime();
+		startCaptureTime = captureTime(position);
+		stopped = false;
+	}
+
+	@Override
+	int fillDriverBuffer(BaseVideoFrame frame) throws V4L4JException {
+		if (position == recording.size()) {
+			if (! loop) {
+				finished = true;
+				throw new StateException("The end of the recording has been reached");
+			}
+
+			// start over, and pace the first frame as if it followed the last
+			position = 0;
+			startCaptureTime = captureTime(0);
+			startTime = System.nanoTime();
+		}
+
+		int index = position;
+		long captureTime = captureTime(index);
+		if (speed != AS_FAST_AS_POSSIBLE)
+			waitUntil(startTime + (long) ((captureTime - startCaptureTime) * 1000 / speed));
+		else if (stopped)
+			throw new StateException("The capture has been stopped");
+
+		int length;
+		try {
+			length = recording.read(index, frame.getByteArray());
+		} catch (IOException e) {
+			throw new V4L4JException("Error reading frame " + index, e);
+		}
+
+		setLastCapturedFrame(frame.getBufferInex(), sequence(index), captureTime);
+		position = index + 1;
+		return length;
+	}
+
+	private long captureTime(int index) {
+		return (recording.captureTimes != null) ? recording.captureTimes[index] 
+				: index * intervalUs;
+	}
+
+	private long sequence(int index) {
+		return (recording.sequences != null) ? recording.sequences[index] : index;
+	}
+
+	/**
+	 * This method blocks until the given time or until the capture is
+	 * stopped.
+	 * @param time the time to wait for, as given by 
+	 * <code>System.nanoTime()</code>
+	 * @throws StateException if the capture is stopped
+	 */
+	private void waitUntil(long time) {
+		waiter = Thread.currentThread();
+		try {
+			long left;
+			while (! stopped && ((left = time - System.nanoTime()) > 0)) {
+				LockSupport.parkNanos(this, left);
+				if (Thread.interrupted())
+					throw new StateException("Interrupted while waiting for a frame");
+			}
+		} finally {
+			waiter = null;
+		}
+
+		if (stopped)
+			throw new StateException("The capture has been stopped");
+	}
+
+	@Override
+	void enqueueDriverBuffer(BaseVideoFrame frame) {
+	}
+
+	@Override
+	void stopDriver() {
+		stopped = true;
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+
+	@Override
+	void releaseDriver() {
+		recording.close();
+	}
+
+	/**
+	 * A Recording is a sequence of frames stored in files.
+	 */
+	private abstract static class Recording {
+		int			format;
+		int			width;
+		int			height;
+		int			maxLength;
+		// null if the recording does not have sequence numbers / capture times
+		long[]		sequences;
+		long[]		captureTimes;
+
+		abstract int size();
+
+		/**
+		 * This method copies the given frame into the given array.
+		 * @return the length of the frame
+		 */
+		abstract int read(int index, byte[] dest) throws IOException;
+
+		void close() {
+		}
+
+		/**
+		 * This method reads the given number of bytes from the given 
+		 * position of a file. Unlike a <code>FileChannel</code>, a 
+		 * <code>RandomAccessFile</code> is not closed when the push source
+		 * thread is interrupted as the capture stops.
+		 * @return false if the file ends before, true otherwise
+		 */
+		static boolean read(RandomAccessFile file, long position, byte[] dest, 
+				int length) throws IOException {
+			if (position + length > file.length())
+				return false;
+			file.seek(position);
+			file.readFully(dest, 0, length);
+			return true;
+		}
+	}
+
+	/**
+	 * The segments of a journal written by a {@link FrameJournalWriter}.
+	 * Frames are read straight into the video frames from the current 
+	 * segment, which is the only one kept open.
+	 */
+	private static class Journal extends Recording {
+		private final File[]		files;
+		// for each frame, its segment, and the offset of its data
+		private int[]				segments;
+		private int[]				offsets;
+		private int[]				lengths;
+		private int					count;
+
+		private RandomAccessFile	open;
+		private int					openSegment;
+
+		Journal(File dir, String name) throws InitialisationException {
+			int n = 0;
+			while (FrameJournalWriter.segmentFile(dir, name, n + 1).isFile())
+				n++;
+			if (n == 0)
+				throw new InitialisationException("No journal named " + name + " in " + dir);
+
+			files = new File[n];
+			segments = new int[64];
+			offsets = new int[64];
+			lengths = new int[64];
+			sequences = new long[64];
+			captureTimes = new long[64];
+			count = 0;
+			openSegment = -1;
+
+			try {
+				for (int s = 0; s < n; s++) {
+					files[s] = FrameJournalWriter.segmentFile(dir, name, s + 1);
+					RandomAccessFile segment = new RandomAccessFile(files[s], "r");
+					try {
+						readHeader(segment, s);
+
+						File index = FrameJournalWriter.indexFile(dir, name, s + 1);
+						if (! index.isFile() || ! readIndex(index, s))
+							scanRecords(segment, s);
+					} finally {
+						segment.close();
+					}
+				}
+			} catch (IOException e) {
+				throw new InitialisationException("Error reading journal " + name, e);
+			}
+
+			if (count == 0)
+				throw new InitialisationException("The journal " + name + " is empty");
+		}
+
+		private void readHeader(RandomAccessFile segment, int s) 
+				throws IOException, InitialisationException {
+			byte[] bytes = new byte[FrameJournalWriter.SEGMENT_HEADER_SIZE];
+			ByteBuffer header = ByteBuffer.wrap(bytes);
+			if (! read(segment, 0, bytes, bytes.length)
+					|| (header.getInt(0) != FrameJournalWriter.JOURNAL_MAGIC)
+					|| (header.getInt(4) != FrameJournalWriter.VERSION))
+				throw new InitialisationException(files[s] + " is not a v4l4j journal segment");
+
+			if (s == 0) {
+				format = header.getInt(12);
+				width = header.getInt(16);
+				height = header.getInt(20);
+			}
+		}
+
+		/**
+		 * This method reads the frames of a segment from its index.
+		 * @return false if the index is not valid, true otherwise
+		 */
+		private boolean readIndex(File index, int s) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(index)));
+			try {
+				if ((in.readInt() != FrameJournalWriter.INDEX_MAGIC)
+						|| (in.readInt() != FrameJournalWriter.VERSION))
+					return false;
+				int frames = in.readInt();
+				in.readInt();	// segment number
+
+				for (int i = 0; i < frames; i++)
+					add(s, in.readLong(), in.readLong(), in.readInt(), in.readInt());
+				return true;
+			} catch (EOFException e) {
+				return false;
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * This method reads the frames of a segment from its records, when
+		 * it has no index, eg. if the writer did not complete it.
+		 */
+		private void scanRecords(RandomAccessFile segment, int s) throws IOException {
+			int first = count;
+			for (int i = 0; i < count; i++)
+				if (segments[i] == s)
+					first = Math.min(first, i);
+			count = first;	// discard entries read from an invalid index
+
+			long size = segment.length();
+			byte[] bytes = new byte[FrameJournalWriter.RECORD_HEADER_SIZE];
+			ByteBuffer header = ByteBuffer.wrap(bytes);
+			long p = FrameJournalWriter.SEGMENT_HEADER_SIZE;
+			while (read(segment, p, bytes, bytes.length)
+					&& (header.getInt(0) == FrameJournalWriter.RECORD_MAGIC)) {
+				int length = header.getInt(4);
+				long data = p + FrameJournalWriter.RECORD_HEADER_SIZE;
+				if ((length < 0) || (data + length > size) || (data > Integer.MAX_VALUE))
+					break;
+
+				add(s, header.getLong(8), header.getLong(16), (int) data, length);
+				p = (data + length + 7) & ~7;
+			}
+		}
+
+		private void add(int s, long sequence, long captureTime, int offset, int length) {
+			if (count == segments.length) {
+				int size = count * 2;
+				segments = Arrays.copyOf(segments, size);
+				offsets = Arrays.copyOf(offsets, size);
+				lengths = Arrays.copyOf(lengths, size);
+				sequences = Arrays.copyOf(sequences, size);
+				captureTimes = Arrays.copyOf(captureTimes, size);
+			}
+
+			segments[count] = s;
+			offsets[count] = offset;
+			lengths[count] = length;
+			sequences[count] = sequence;
+			captureTimes[count] = captureTime;
+			maxLength = Math.max(maxLength, length);
+			count++;
+		}
+
+		@Override
+		int size() {
+			return count;
+		}
+
+		@Override
+		int read(int index, byte[] dest) throws IOException {
+			if (segments[index] != openSegment) {
+				close();
+				open = new RandomAccessFile(files[segments[index]], "r");
+				openSegment = segments[index];
+			}
+
+			int length = lengths[index];
+			if (! read(open, offsets[index], dest, length))
+				throw new IOException(files[openSegment] + " is truncated");
+			return length;
+		}
+
+		@Override
+		void close() {
+			if (open != null) {
+				try {
+					open.close();
+				} catch (IOException e) {
+					// nothing we can do about it
+				}
+				open = null;
+			}
+			openSegment = -1;
+		}
+	}
+
+	/**
+	 * Frames stored one per file in a directory.
+	 */
+	private static class FrameFiles extends Recording {
+		private final File[]	files;
+
+		FrameFiles(File dir, int w, int h, int f) throws InitialisationException {
+			File[] all = dir.listFiles();
+			if (all == null)
+				throw new InitialisationException("Cannot list directory " + dir);
+
+			int n = 0;
+			for (File file : all)
+				if (file.isFile() && ! file.isHidden() && (file.length() <= Integer.MAX_VALUE))
+					all[n++] = file;
+			if (n == 0)
+				throw new InitialisationException("No frames in " + dir);
+
+			files = Arrays.copyOf(all, n);
+			Arrays.sort(files);
+			for (File file : files)
+				maxLength = Math.max(maxLength, (int) file.length());
+
+			format = f;
+			width = w;
+			height = h;
+		}
+
+		@Override
+		int size() {
+			return files.length;
+		}
+
+		@Override
+		int read(int index, byte[] dest) throws IOException {
+			// each frame is read once per pass: reading it straight into the
+			// video frame is cheaper than mapping the file, and does not 
+			// leave a mapping behind for the garbage collector to release
+			RandomAccessFile raf = new RandomAccessFile(files[index], "r");
+			try {
+				long length = raf.length();
+				if (length > dest.length)
+					throw new IOException(files[index] + " has grown larger than"
+							+ " the video frames (" + dest.length + " bytes)");
+				raf.readFully(dest, 0, (int) length);
+				return (int) length;
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
@@ -132,6 +132,15 @@ public class ResolutionInfo {
 	 */
 	private native void doGetDiscrete(int index, long o);
 	
+	/**
+	 * This method builds a resolution information object of type
+	 * {@link Type#UNSUPPORTED}, for image formats which do not come from a
+	 * video device.
+	 */
+	ResolutionInfo(){
+		type = Type.UNSUPPORTED;
+	}
+
 	/**
 	 * This method builds a new resolution information object. It MUST be called
 	 * while the device info interface of libvideo is acquired.
@@ -0,0 +1,867 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
+
+/**
+ * A ScaledJPEGDecoder decodes baseline JPEG images, such as MJPEG frames, 
+ * straight to a reduced size: 1/2, 1/4 or 1/8 of the original width and 
+ * height. Instead of decoding every 8x8 block at full resolution and 
+ * scaling the result, it only keeps the lowest frequency coefficients of
+ * each block (4x4, 2x2 or just the DC value), and runs a smaller inverse
+ * DCT on them, which produces a block of 4x4, 2x2 or 1 pixel. Decoding a 
+ * thumbnail or a low-resolution copy for analysis is therefore several 
+ * times cheaper than a full decode. Images can also be decoded to the luma
+ * (greyscale) channel only, in which case chroma blocks are parsed but not
+ * transformed, and no colour conversion is done.<br>
+ * This decoder is written in Java, and supports baseline and extended 
+ * sequential Huffman-coded JPEG images with 8-bit samples, 1 (greyscale) or 
+ * 3 (YCbCr) components, any chroma subsampling, restart intervals, and 
+ * MJPEG frames without Huffman tables (the standard tables from the JPEG 
+ * specification are used). Truncated images are decoded as if the missing 
+ * data were 0. Full-size decoding is supported too, but 
+ * {@link VideoFrame#getBufferedImage()} is usually faster for that.<br>
+ * A decoder keeps its working buffers and the image it returns from one 
+ * call to the next, so decoding frames of the same size does not allocate
+ * memory. The returned image is overwritten by the next call, and must be
+ * copied if it is needed for longer. Decoders are not thread-safe: each 
+ * thread must use its own.
+ * @author gilles
+ *
+ */
+public final class ScaledJPEGDecoder {
+	private static final int	SOF0 = 0xC0, SOF1 = 0xC1, SOF2 = 0xC2, DHT = 0xC4,
+								SOI = 0xD8, EOI = 0xD9, SOS = 0xDA, DQT = 0xDB,
+								DRI = 0xDD, RST0 = 0xD0;
+
+	// position of the n-th coefficient of the zig-zag sequence in a block
+	private static final int[]	ZIGZAG = {
+		 0,  1,  8, 16,  9,  2,  3, 10, 17, 24, 32, 25, 18, 11,  4,  5,
+		12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13,  6,  7, 14, 21, 28,
+		35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+		58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+	};
+
+	// number of bits looked up at once when decoding Huffman codes
+	private static final int	LOOKAHEAD = 9;
+
+	// inverse DCT matrices for blocks of 8, 4, 2 and 1 pixel(s): 
+	// IDCT[n][x * n + u] = c(u) / 2 * cos((2x + 1) * u * PI / (2 * n)),
+	// with c(0) = 1 / sqrt(2) and c(u) = 1 otherwise. The normalisation is
+	// that of the 8-point transform, so smaller transforms of the lowest
+	// frequencies produce the average of the pixels they stand for.
+	private static final float[][]	IDCT = new float[9][];
+
+	// fixed-point YCbCr to RGB conversion tables
+	private static final int[]	CR_R = new int[256], CB_B = new int[256],
+								CR_G = new int[256], CB_G = new int[256];
+
+	static {
+		for (int n = 1; n <= 8; n <<= 1) {
+			IDCT[n] = new float[n * n];
+			for (int x = 0; x < n; x++)
+				for (int u = 0; u < n; u++)
+					IDCT[n][x * n + u] = (float) (((u == 0) ? Math.sqrt(0.5) : 1.0) / 2
+							* Math.cos((2 * x + 1) * u * Math.PI / (2 * n)));
+		}
+
+		for (int i = 0; i < 256; i++) {
+			int c = i - 128;
+			CR_R[i] = (int) Math.round(1.402 * c);
+			CB_B[i] = (int) Math.round(1.772 * c);
+			CR_G[i] = (int) Math.round(-0.714136 * c * 65536);
+			CB_G[i] = (int) Math.round(-0.344136 * c * 65536) + 32768;
+		}
+	}
+
+	// the standard tables, used by MJPEG frames without a DHT segment
+	private static final HuffmanTable	STD_DC_LUMINANCE = new HuffmanTable(JPEGHuffmanTable.StdDCLuminance);
+	private static final HuffmanTable	STD_DC_CHROMINANCE = new HuffmanTable(JPEGHuffmanTable.StdDCChrominance);
+	private static final HuffmanTable	STD_AC_LUMINANCE = new HuffmanTable(JPEGHuffmanTable.StdACLuminance);
+	private static final HuffmanTable	STD_AC_CHROMINANCE = new HuffmanTable(JPEGHuffmanTable.StdACChrominance);
+
+	// tables are kept from one image to the next, and only replaced if they
+	// change. The flags tell which ones the current image defines.
+	private final int[][]			quantTables = new int[4][64];
+	private final boolean[]			quantDefined = new boolean[4];
+	private final HuffmanTable[]	dcTables = new HuffmanTable[4];
+	private final HuffmanTable[]	acTables = new HuffmanTable[4];
+	private final boolean[]			dcDefined = new boolean[4];
+	private final boolean[]			acDefined = new boolean[4];
+	private final short[]			huffmanLengths = new short[16];
+	private final short[]			huffmanValues = new short[256];
+	private final Component[]		components = new Component[4];
+	private final Component[]		scanComponents = new Component[4];
+	private final float[]			coefficients = new float[64];
+	private final float[]			rows = new float[64];
+	private final boolean[]			rowNonZero = new boolean[8];
+	private BufferedImage			colourImage;
+	private BufferedImage			lumaImage;
+
+	// the image being decoded
+	private byte[]					data;
+	private int						pos;
+	private int						end;
+	private int						width;
+	private int						height;
+	private int						componentCount;
+	private int						maxH;
+	private int						maxV;
+	private int						mcusX;
+	private int						mcusY;
+	private int						restartInterval;
+	private int						blockSize;
+	private boolean					lumaOnly;
+
+	// entropy-coded data reader. Bits are left-aligned in bitBuffer.
+	private long					bitBuffer;
+	private int						bitCount;
+	private boolean					markerReached;
+
+	/**
+	 * This method builds a new decoder.
+	 */
+	public ScaledJPEGDecoder() {
+		for (int i = 0; i < components.length; i++)
+			components[i] = new Component();
+	}
+
+	/**
+	 * This method decodes the JPEG image held by the given video frame into
+	 * an RGB image reduced by the given factor.
+	 * @param frame a video frame holding a JPEG image
+	 * @param scale the reduction factor: 1, 2, 4 or 8
+	 * @return an image of type {@link BufferedImage#TYPE_3BYTE_BGR}, whose
+	 * width and height are those of the JPEG image divided by 
+	 * <code>scale</code> (rounded up). It is overwritten by the next call.
+	 * @throws IllegalArgumentException if <code>scale</code> is not 1, 2, 4 
+	 * or 8
+	 * @throws UnsupportedMethod if the frame does not hold a JPEG image this
+	 * decoder supports
+	 * @throws StateException if the video frame has been recycled
+	 */
+	public BufferedImage decode(VideoFrame frame, int scale) {
+		return decode(frame.getBytes(), frame.getFrameLength(), scale);
+	}
+
+	/**
+	 * This method decodes the luma channel of the JPEG image held by the 
+	 * given video frame into a greyscale image reduced by the given factor.
+	 * @param frame a video frame holding a JPEG image
+	 * @param scale the reduction factor: 1, 2, 4 or 8
+	 * @return an image of type {@link BufferedImage#TYPE_BYTE_GRAY}, whose
+	 * width and height are those of the JPEG image divided by 
+	 * <code>scale</code> (rounded up). It is overwritten by the next call.
+	 * @throws IllegalArgumentException if <code>scale</code> is not 1, 2, 4 
+	 * or 8
+	 * @throws UnsupportedMethod if the frame does not hold a JPEG image this
+	 * decoder supports
+	 * @throws StateException if the video frame has been recycled
+	 */
+	public BufferedImage decodeLuma(VideoFrame frame, int scale) {
+		return decodeLuma(frame.getBytes(), frame.getFrameLength(), scale);
+	}
+
+	/**
+	 * This method decodes a JPEG image into an RGB image reduced by the
+	 * given factor.
+	 * @param jpeg the array holding the JPEG image
+	 * @param length the length of the image
+	 * @param scale the reduction factor: 1, 2, 4 or 8
+	 * @return an image of type {@link BufferedImage#TYPE_3BYTE_BGR}, whose
+	 * width and height are those of the JPEG image divided by 
+	 * <code>scale</code> (rounded up). It is overwritten by the next call.
+	 * @throws IllegalArgumentException if <code>scale</code> is not 1, 2, 4 
+	 * or 8
+	 * @throws UnsupportedMethod if the image is not a JPEG image this 
+	 * decoder supports
+	 */
+	public BufferedImage decode(byte[] jpeg, int length, int scale) {
+		decodeImage(jpeg, length, scale, false);
+		colourImage = getImage(colourImage, BufferedImage.TYPE_3BYTE_BGR, scale);
+		if (componentCount == 1)
+			greyToBGR(((DataBufferByte) colourImage.getRaster().getDataBuffer()).getData());
+		else
+			YCbCrToBGR(((DataBufferByte) colourImage.getRaster().getDataBuffer()).getData());
+		return colourImage;
+	}
+
+	/**
+	 * This method decodes the luma channel of a JPEG image into a greyscale
+	 * image reduced by the given factor.
+	 * @param jpeg the array holding the JPEG image
+	 * @param length the length of the image
+	 * @param scale the reduction factor: 1, 2, 4 or 8
+	 * @return an image of type {@link BufferedImage#TYPE_BYTE_GRAY}, whose
+	 * width and height are those of the JPEG image divided by 
+	 * <code>scale</code> (rounded up). It is overwritten by the next call.
+	 * @throws IllegalArgumentException if <code>scale</code> is not 1, 2, 4 
+	 * or 8
+	 * @throws UnsupportedMethod if the image is not a JPEG image this 
+	 * decoder supports
+	 */
+	public BufferedImage decodeLuma(byte[] jpeg, int length, int scale) {
+		decodeImage(jpeg, length, scale, true);
+		lumaImage = getImage(lumaImage, BufferedImage.TYPE_BYTE_GRAY, scale);
+
+		byte[] out = ((DataBufferByte) lumaImage.getRaster().getDataBuffer()).getData();
+		Component luma = components[0];
+		int w = lumaImage.getWidth();
+		for (int y = 0; y < lumaImage.getHeight(); y++)
+			System.arraycopy(luma.plane, y * luma.stride, out, y * w, w);
+		return lumaImage;
+	}
+
+	/**
+	 * This method returns an image of the given type and of the size of the
+	 * decoded image, reusing the given one if it fits.
+	 */
+	private BufferedImage getImage(BufferedImage image, int type, int scale) {
+		int w = (width + scale - 1) / scale;
+		int h = (height + scale - 1) / scale;
+		if ((image == null) || (image.getWidth() != w) || (image.getHeight() != h))
+			image = new BufferedImage(w, h, type);
+		return image;
+	}
+
+	/*
+	 * Colour conversion
+	 */
+
+	private void greyToBGR(byte[] out) {
+		Component luma = components[0];
+		int w = colourImage.getWidth();
+		int h = colourImage.getHeight();
+		int o = 0;
+		for (int y = 0; y < h; y++) {
+			int l = y * luma.stride;
+			for (int x = 0; x < w; x++) {
+				byte v = luma.plane[l + x];
+				out[o++] = v;
+				out[o++] = v;
+				out[o++] = v;
+			}
+		}
+	}
+
+	private void YCbCrToBGR(byte[] out) {
+		Component cy = components[0], cb = components[1], cr = components[2];
+		int w = colourImage.getWidth();
+		int h = colourImage.getHeight();
+		int[] cbx = cb.columnMap(w, maxH), crx = cr.columnMap(w, maxH);
+		int o = 0;
+
+		for (int y = 0; y < h; y++) {
+			int yl = y * cy.stride;
+			int bl = (y * cb.v / maxV) * cb.stride;
+			int rl = (y * cr.v / maxV) * cr.stride;
+			for (int x = 0; x < w; x++) {
+				int lum = cy.plane[yl + x] & 0xff;
+				int b = cb.plane[bl + cbx[x]] & 0xff;
+				int r = cr.plane[rl + crx[x]] & 0xff;
+				out[o++] = clamp(lum + CB_B[b]);
+				out[o++] = clamp(lum + ((CB_G[b] + CR_G[r]) >> 16));
+				out[o++] = clamp(lum + CR_R[r]);
+			}
+		}
+	}
+
+	private static byte clamp(int v) {
+		return (byte) ((v < 0) ? 0 : (v > 255) ? 255 : v);
+	}
+
+	/*
+	 * Marker parsing
+	 */
+
+	/**
+	 * This method decodes the given image into the component planes.
+	 */
+	private void decodeImage(byte[] jpeg, int length, int scale, boolean luma) {
+		if ((scale != 1) && (scale != 2) && (scale != 4) && (scale != 8))
+			throw new IllegalArgumentException("The scale must be 1, 2, 4 or 8");
+
+		data = jpeg;
+		pos = 0;
+		end = Math.min(length, jpeg.length);
+		blockSize = 8 / scale;
+		lumaOnly = luma;
+		componentCount = 0;
+		restartInterval = 0;
+		for (int i = 0; i < 4; i++) {
+			quantDefined[i] = false;
+			dcDefined[i] = false;
+			acDefined[i] = false;
+		}
+
+		if ((readByte() != 0xFF) || (readByte() != SOI))
+			throw new UnsupportedMethod("Not a JPEG image");
+
+		boolean scanned = false;
+		for (;;) {
+			int marker = nextMarker();
+			if ((marker == EOI) || (marker < 0))
+				break;
+			// stray restart markers and TEM have no length
+			if (((marker & 0xf8) == RST0) || (marker == 0x01))
+				continue;
+
+			switch (marker) {
+			case SOF0:
+			case SOF1:
+				readFrameHeader();
+				break;
+			case SOF2:
+				throw new UnsupportedMethod("Progressive JPEG images are not supported");
+			case DHT:
+				readHuffmanTables();
+				break;
+			case DQT:
+				readQuantisationTables();
+				break;
+			case DRI:
+				readLength();
+				restartInterval = readShort();
+				break;
+			case SOS:
+				if (componentCount == 0)
+					throw new UnsupportedMethod("Unsupported JPEG image: no baseline frame header");
+				decodeScan();
+				scanned = true;
+				break;
+			default:
+				if ((marker >= 0xC3) && (marker <= 0xCF) && (marker != 0xC8) 
+						&& (marker != 0xCC))
+					throw new UnsupportedMethod("Only baseline and extended "
+							+ "sequential Huffman-coded JPEG images are supported");
+				// APPn, COM and others
+				int segment = readLength();
+				pos += segment - 2;
+			}
+		}
+
+		if (! scanned)
+			throw new UnsupportedMethod("No image data in this JPEG image");
+	}
+
+	private int readByte() {
+		return (pos < end) ? data[pos++] & 0xff : -1;
+	}
+
+	private int readShort() {
+		int hi = readByte();
+		int lo = readByte();
+		if (lo < 0)
+			throw new UnsupportedMethod("Truncated JPEG header");
+		return (hi << 8) | lo;
+	}
+
+	private int readLength() {
+		int length = readShort();
+		if ((length < 2) || (pos + length - 2 > end))
+			throw new UnsupportedMethod("Truncated JPEG header");
+		return length;
+	}
+
+	/**
+	 * This method skips to the next marker.
+	 * @return the marker code, or -1 at the end of the data
+	 */
+	private int nextMarker() {
+		int b;
+		do {
+			while (((b = readByte()) != 0xFF) && (b >= 0))
+				;
+			// skip fill bytes
+			while (b == 0xFF)
+				b = readByte();
+		} while (b == 0);
+		return b;
+	}
+
+	private void readFrameHeader() {
+		int length = readLength();
+		if (readByte() != 8)
+			throw new UnsupportedMethod("Only 8-bit JPEG images are supported");
+
+		height = readShort();
+		width = readShort();
+		componentCount = readByte();
+		if ((height == 0) || (width == 0))
+			throw new UnsupportedMethod("Unsupported JPEG image size");
+		if ((componentCount != 1) && (componentCount != 3))
+			throw new UnsupportedMethod("Only greyscale and YCbCr JPEG images are supported");
+		if (length != 8 + 3 * componentCount)
+			throw new UnsupportedMethod("Invalid JPEG frame header");
+
+		maxH = 1;
+		maxV = 1;
+		for (int i = 0; i < componentCount; i++) {
+			Component c = components[i];
+			c.id = readByte();
+			int sampling = readByte();
+			c.h = sampling >> 4;
+			c.v = sampling & 15;
+			c.quantTable = readByte() & 3;
+			if ((c.h < 1) || (c.h > 4) || (c.v < 1) || (c.v > 4))
+				throw new UnsupportedMethod("Invalid JPEG sampling factors");
+			maxH = Math.max(maxH, c.h);
+			maxV = Math.max(maxV, c.v);
+		}
+
+		mcusX = (width + 8 * maxH - 1) / (8 * maxH);
+		mcusY = (height + 8 * maxV - 1) / (8 * maxV);
+		for (int i = 0; i < componentCount; i++) {
+			Component c = components[i];
+			c.blocksX = ((width * c.h + maxH - 1) / maxH + 7) / 8;
+			c.blocksY = ((height * c.v + maxV - 1) / maxV + 7) / 8;
+			c.allocate(mcusX * c.h * blockSize, mcusY * c.v * blockSize);
+		}
+	}
+
+	private void readHuffmanTables() {
+		int length = readLength();
+		int stop = pos + length - 2;
+		while (pos < stop) {
+			int info = readByte();
+			int count = 0;
+			for (int i = 0; i < 16; i++)
+				count += huffmanLengths[i] = (short) readByte();
+			if ((count < 0) || (count > 256) || (pos + count > stop))
+				throw new UnsupportedMethod("Invalid JPEG Huffman table");
+			for (int i = 0; i < count; i++)
+				huffmanValues[i] = (short) readByte();
+
+			HuffmanTable[] tables = ((info >> 4) == 0) ? dcTables : acTables;
+			boolean[] defined = ((info >> 4) == 0) ? dcDefined : acDefined;
+			HuffmanTable table = tables[info & 3];
+			if ((table == null) || ! table.matches(huffmanLengths, huffmanValues, count))
+				tables[info & 3] = new HuffmanTable(huffmanLengths, huffmanValues, count);
+			defined[info & 3] = true;
+		}
+	}
+
+	private void readQuantisationTables() {
+		int length = readLength();
+		int stop = pos + length - 2;
+		while (pos < stop) {
+			int info = readByte();
+			boolean wide = (info >> 4) != 0;
+			int[] table = quantTables[info & 3];
+			for (int i = 0; i < 64; i++)
+				table[ZIGZAG[i]] = wide ? readShort() : readByte();
+			quantDefined[info & 3] = true;
+		}
+	}
+
+	/*
+	 * Entropy-coded data
+	 */
+
+	private void decodeScan() {
+		readLength();
+		int count = readByte();
+		if ((count < 1) || (count > componentCount))
+			throw new UnsupportedMethod("Invalid JPEG scan header");
+
+		for (int i = 0; i < count; i++) {
+			int id = readByte();
+			int tables = readByte();
+			Component c = null;
+			for (int j = 0; j < componentCount; j++)
+				if (components[j].id == id)
+					c = components[j];
+			if (c == null)
+				throw new UnsupportedMethod("Invalid JPEG scan header");
+
+			c.index = (c == components[0]) ? 0 : 1;
+			c.dcTable = getTable(dcTables, dcDefined, tables >> 4, 
+					(c.index == 0) ? STD_DC_LUMINANCE : STD_DC_CHROMINANCE);
+			c.acTable = getTable(acTables, acDefined, tables & 3, 
+					(c.index == 0) ? STD_AC_LUMINANCE : STD_AC_CHROMINANCE);
+			if (! quantDefined[c.quantTable])
+				throw new UnsupportedMethod("Missing JPEG quantisation table");
+			c.quant = quantTables[c.quantTable];
+			c.prediction = 0;
+			scanComponents[i] = c;
+		}
+		// spectral selection and successive approximation: unused in
+		// sequential images
+		pos += 3;
+
+		bitBuffer = 0;
+		bitCount = 0;
+		markerReached = false;
+
+		if (count == 1)
+			decodeNonInterleaved(scanComponents[0]);
+		else
+			decodeInterleaved(count);
+
+		// the scan ends at the next marker
+		alignToMarker();
+	}
+
+	private static HuffmanTable getTable(HuffmanTable[] tables, boolean[] defined,
+			int index, HuffmanTable standard) {
+		return defined[index & 3] ? tables[index & 3] : standard;
+	}
+
+	private void decodeInterleaved(int count) {
+		int mcus = mcusX * mcusY;
+		for (int mcu = 0; mcu < mcus; mcu++) {
+			if ((restartInterval > 0) && (mcu > 0) && (mcu % restartInterval == 0))
+				restart(count);
+
+			int mx = mcu % mcusX, my = mcu / mcusX;
+			for (int i = 0; i < count; i++) {
+				Component c = scanComponents[i];
+				for (int v = 0; v < c.v; v++)
+					for (int h = 0; h < c.h; h++)
+						decodeBlock(c, mx * c.h + h, my * c.v + v);
+			}
+		}
+	}
+
+	private void decodeNonInterleaved(Component c) {
+		int blocks = c.blocksX * c.blocksY;
+		for (int b = 0; b < blocks; b++) {
+			if ((restartInterval > 0) && (b > 0) && (b % restartInterval == 0))
+				restart(1);
+			decodeBlock(c, b % c.blocksX, b / c.blocksX);
+		}
+	}
+
+	/**
+	 * This method handles a restart marker: it discards the remaining bits
+	 * of the current byte, skips the marker and resets the DC predictions.
+	 */
+	private void restart(int count) {
+		alignToMarker();
+		// skip fill bytes
+		while ((pos + 1 < end) && ((data[pos + 1] & 0xff) == 0xFF))
+			pos++;
+		if ((pos + 1 < end) && ((data[pos] & 0xff) == 0xFF) 
+				&& ((data[pos + 1] & 0xf8) == RST0))
+			pos += 2;
+
+		bitBuffer = 0;
+		bitCount = 0;
+		markerReached = false;
+		for (int i = 0; i < count; i++)
+			scanComponents[i].prediction = 0;
+	}
+
+	/**
+	 * This method moves the read position to the next marker, giving back 
+	 * the bytes which were read into the bit buffer but not used.
+	 */
+	private void alignToMarker() {
+		while ((pos < end) && ! ((data[pos] & 0xff) == 0xFF 
+				&& (pos + 1 < end) && (data[pos + 1] != 0)))
+			pos++;
+	}
+
+	/**
+	 * This method fills the bit buffer with at least 57 bits. Past the 
+	 * end of the scan, it reads 0 bits.
+	 */
+	private void fillBits() {
+		while (bitCount <= 56) {
+			int b = 0;
+			if (! markerReached && (pos < end)) {
+				b = data[pos] & 0xff;
+				if (b == 0xFF) {
+					int next = (pos + 1 < end) ? data[pos + 1] & 0xff : 0xD9;
+					if (next == 0)
+						pos += 2;
+					else {
+						markerReached = true;
+						b = 0;
+					}
+				} else
+					pos++;
+			}
+			bitBuffer |= ((long) b) << (56 - bitCount);
+			bitCount += 8;
+		}
+	}
+
+	private int readBits(int n) {
+		if (bitCount < n)
+			fillBits();
+		int v = (int) (bitBuffer >>> (64 - n));
+		bitBuffer <<= n;
+		bitCount -= n;
+		return v;
+	}
+
+	private int decodeHuffman(HuffmanTable table) {
+		if (bitCount < 16)
+			fillBits();
+
+		int entry = table.lookup[(int) (bitBuffer >>> (64 - LOOKAHEAD))];
+		if (entry != 0) {
+			int length = entry >> 8;
+			bitBuffer <<= length;
+			bitCount -= length;
+			return entry & 0xff;
+		}
+
+		for (int length = LOOKAHEAD + 1; length <= 16; length++) {
+			int code = (int) (bitBuffer >>> (64 - length));
+			if (code <= table.maxCode[length]) {
+				bitBuffer <<= length;
+				bitCount -= length;
+				return table.values[table.valueOffset[length] + code];
+			}
+		}
+
+		// invalid code: corrupt data
+		bitBuffer <<= 16;
+		bitCount -= 16;
+		return 0;
+	}
+
+	private static int extend(int v, int size) {
+		return (v < (1 << (size - 1))) ? v - (1 << size) + 1 : v;
+	}
+
+	/**
+	 * This method decodes one block of the given component, and stores it
+	 * in the component's plane at the given block position.
+	 */
+	private void decodeBlock(Component c, int bx, int by) {
+		int n = blockSize;
+		boolean transform = ! lumaOnly || (c.index == 0);
+		float[] coef = coefficients;
+		int[] q = c.quant;
+
+		int size = decodeHuffman(c.dcTable);
+		if (size > 0)
+			c.prediction += extend(readBits(size), size);
+
+		if (transform) {
+			// only the n x n coefficients used by the transform are cleared
+			for (int v = 0; v < n; v++) {
+				for (int u = 0, r = v * 8; u < n; u++)
+					coef[r + u] = 0;
+				rowNonZero[v] = false;
+			}
+			coef[0] = c.prediction * q[0];
+		}
+
+		boolean acPresent = false;
+		HuffmanTable ac = c.acTable;
+		for (int k = 1; k < 64; ) {
+			int rs = decodeHuffman(ac);
+			int run = rs >> 4;
+			size = rs & 15;
+			if (size == 0) {
+				if (run != 15)
+					break;
+				k += 16;
+				continue;
+			}
+			k += run;
+			if (k > 63)
+				break;
+			int bits = readBits(size);
+			int z = ZIGZAG[k++];
+			int row = z >> 3;
+			if (transform && (row < n) && ((z & 7) < n)) {
+				coef[z] = extend(bits, size) * q[z];
+				rowNonZero[row] = true;
+				acPresent = true;
+			}
+		}
+
+		if (! transform || (bx >= c.blocksX) || (by >= c.blocksY))
+			return;
+
+		int offset = by * n * c.stride + bx * n;
+		if (! acPresent) {
+			fill(c.plane, offset, c.stride, n, coef[0] / 8 + 128);
+			return;
+		}
+
+		idct(coef, c.plane, offset, c.stride, n);
+	}
+
+	private static void fill(byte[] plane, int offset, int stride, int n, float value) {
+		byte v = clamp((int) (value + 0.5f));
+		for (int y = 0; y < n; y++, offset += stride)
+			for (int x = 0; x < n; x++)
+				plane[offset + x] = v;
+	}
+
+	/**
+	 * This method runs an n-point inverse DCT on the lowest n x n 
+	 * coefficients of the given block, and stores the resulting n x n 
+	 * pixels. n must be at least 2. Output samples x and n - 1 - x share the
+	 * same cosines, with the sign of the odd ones flipped, so both are 
+	 * computed from the same even and odd sums.
+	 */
+	private void idct(float[] coef, byte[] plane, int offset, int stride, int n) {
+		float[] m = IDCT[n];
+		float[] tmp = rows;
+		int half = n / 2;
+
+		// horizontal pass on the rows of coefficients which are not all 0 
+		// (the first row may only have its DC coefficient)
+		rowNonZero[0] = true;
+		for (int v = 0; v < n; v++) {
+			int r = v * 8;
+			if (! rowNonZero[v]) {
+				for (int x = 0; x < n; x++)
+					tmp[r + x] = 0;
+				continue;
+			}
+			for (int x = 0; x < half; x++) {
+				float even = 0, odd = 0;
+				int t = x * n;
+				for (int u = 0; u < n; u += 2) {
+					even += m[t + u] * coef[r + u];
+					odd += m[t + u + 1] * coef[r + u + 1];
+				}
+				tmp[r + x] = even + odd;
+				tmp[r + n - 1 - x] = even - odd;
+			}
+		}
+
+		// vertical pass
+		int last = offset + (n - 1) * stride;
+		for (int y = 0; y < half; y++, offset += stride, last -= stride) {
+			int t = y * n;
+			for (int x = 0; x < n; x++) {
+				float even = 0, odd = 0;
+				for (int v = 0; v < n; v += 2) {
+					even += m[t + v] * tmp[v * 8 + x];
+					odd += m[t + v + 1] * tmp[v * 8 + 8 + x];
+				}
+				// values below 0 are clamped, so truncating rounds correctly
+				plane[offset + x] = clamp((int) (even + odd + 128.5f));
+				plane[last + x] = clamp((int) (even - odd + 128.5f));
+			}
+		}
+	}
+
+	/**
+	 * A component of the image being decoded, and its plane of samples.
+	 */
+	private static class Component {
+		int				id;
+		int				index;
+		int				h;
+		int				v;
+		int				quantTable;
+		int[]			quant;
+		HuffmanTable	dcTable;
+		HuffmanTable	acTable;
+		int				prediction;
+		int				blocksX;
+		int				blocksY;
+		byte[]			plane;
+		int				stride;
+		private int[]	columns;
+
+		void allocate(int w, int h) {
+			stride = w;
+			if ((plane == null) || (plane.length < w * h))
+				plane = new byte[w * h];
+		}
+
+		/**
+		 * This method returns the column of this component's plane which
+		 * maps to each column of the output image.
+		 */
+		int[] columnMap(int w, int maxH) {
+			if ((columns == null) || (columns.length != w))
+				columns = new int[w];
+			for (int x = 0; x < w; x++)
+				columns[x] = x * h / maxH;
+			return columns;
+		}
+	}
+
+	/**
+	 * A Huffman table, with a lookup table for codes of up to 
+	 * {@link ScaledJPEGDecoder#LOOKAHEAD} bits.
+	 */
+	private static class HuffmanTable {
+		// (code length << 8) | value, indexed by the next LOOKAHEAD bits,
+		// or 0 if the code is longer
+		final int[]		lookup = new int[1 << LOOKAHEAD];
+		// largest code of each length, or -1 
+		final int[]		maxCode = new int[18];
+		// index in values of the first code of each length, minus that code
+		final int[]		valueOffset = new int[17];
+		final int[]		values;
+
+		// the table's definition
+		private final short[]	lengths;
+
+		HuffmanTable(JPEGHuffmanTable table) {
+			this(table.getLengths(), table.getValues(), table.getValues().length);
+		}
+
+		HuffmanTable(short[] l, short[] vals, int count) {
+			lengths = l.clone();
+			values = new int[count];
+			for (int i = 0; i < count; i++)
+				values[i] = vals[i] & 0xff;
+
+			int code = 0, k = 0;
+			for (int length = 1; length <= 16; length++) {
+				int codes = lengths[length - 1];
+				valueOffset[length] = k - code;
+				for (int i = 0; i < codes; i++, k++, code++) {
+					if (length <= LOOKAHEAD) {
+						int shift = LOOKAHEAD - length;
+						for (int j = 0; j < (1 << shift); j++)
+							lookup[(code << shift) | j] = (length << 8) | values[k];
+					}
+				}
+				maxCode[length] = (codes > 0) ? code - 1 : -1;
+				code <<= 1;
+			}
+			maxCode[17] = Integer.MAX_VALUE;
+		}
+
+		/**
+		 * This method returns whether this table has the given definition.
+		 */
+		boolean matches(short[] l, short[] vals, int count) {
+			if (count != values.length)
+				return false;
+			for (int i = 0; i < 16; i++)
+				if (l[i] != lengths[i])
+					return false;
+			for (int i = 0; i < count; i++)
+				if ((vals[i] & 0xff) != values[i])
+					return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A StripedCounter is a counter which several threads can update at once
+ * without contending on a single memory location. Each thread adds to one of
+ * several cells, picked from its id, and cells are summed when the counter is
+ * read. Cells are spread out so that two of them never share a cache line.
+ * Reading is more expensive than updating, which suits counters updated with
+ * every frame and read by monitoring tools once in a while.
+ * @author gilles
+ *
+ */
+final class StripedCounter {
+	// longs per cache line: cells are this far apart
+	private static final int	PADDING = 8;
+	private static final int	CELLS;
+
+	static {
+		int cells = 1;
+		while (cells < Runtime.getRuntime().availableProcessors())
+			cells <<= 1;
+		CELLS = Math.min(cells, 64);
+	}
+
+	private final AtomicLongArray	cells;
+
+	StripedCounter() {
+		cells = new AtomicLongArray(CELLS * PADDING);
+	}
+
+	private static int cellIndex() {
+		return ((int) Thread.currentThread().getId() & (CELLS - 1)) * PADDING;
+	}
+
+	/**
+	 * This method adds one to this counter.
+	 */
+	void increment() {
+		cells.incrementAndGet(cellIndex());
+	}
+
+	/**
+	 * This method adds the given value to this counter.
+	 * @param value the value to add
+	 */
+	void add(long value) {
+		cells.addAndGet(cellIndex(), value);
+	}
+
+	/**
+	 * This method returns the value of this counter. It is not a snapshot:
+	 * updates made while this method runs may or may not be included.
+	 * @return the value of this counter
+	 */
+	long get() {
+		long sum = 0;
+		for (int i = 0; i < CELLS; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+
+	/**
+	 * This method sets this counter to 0. Updates made while this method runs
+	 * may be lost.
+	 */
+	void reset() {
+		for (int i = 0; i < CELLS; i++)
+			cells.set(i * PADDING, 0);
+	}
+}
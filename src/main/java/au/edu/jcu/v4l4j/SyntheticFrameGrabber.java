@@ -0,0 +1,724 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
+import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
+import au.edu.jcu.v4l4j.exceptions.ImageDimensionsException;
+import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
+import au.edu.jcu.v4l4j.exceptions.InitialisationException;
+import au.edu.jcu.v4l4j.exceptions.InvalidValue;
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A SyntheticFrameGrabber generates test pattern frames in Java, without a
+ * video device or the JNI library. It implements the same 
+ * {@link FrameGrabber} contract as the frame grabbers returned by a 
+ * {@link VideoDevice}: frames go through the same capture, push mode,
+ * recycling and statistics code, so that applications can be load tested
+ * on hosts without a camera.<br>
+ * Frames are produced at the configured frame interval, as a driver would,
+ * or as fast as they are requested if the interval is 0. Their timing can
+ * be perturbed with random jitter, and frames can be dropped at random,
+ * which shows as gaps in their sequence numbers (see
+ * {@link CaptureStatistics#getLostFrames()}). As with a real driver, frames
+ * the application was too slow to make room for are dropped as well.<br>
+ * Synthetic frame grabbers are instantiated directly, and are ready to 
+ * capture once built:
+ * <code><br>
+ * <br>SyntheticFrameGrabber fg = new SyntheticFrameGrabber(640, 480, V4L4JConstants.IMF_YUYV);
+ * <br>fg.setFrameInterval(1, 30);
+ * <br>fg.setJitter(2, TimeUnit.MILLISECONDS);
+ * <br>fg.setDropRate(0.01);
+ * <br>fg.setCaptureCallback(callback);
+ * <br>fg.startCapture();
+ * <br>...
+ * <br>fg.stopCapture();
+ * <br>fg.releaseFrameGrabber();
+ * </code><br>
+ * The following image formats are supported: 
+ * {@link V4L4JConstants#IMF_GREY}, {@link V4L4JConstants#IMF_YUYV},
+ * {@link V4L4JConstants#IMF_UYVY}, {@link V4L4JConstants#IMF_RGB24},
+ * {@link V4L4JConstants#IMF_BGR24}, {@link V4L4JConstants#IMF_YUV420},
+ * {@link V4L4JConstants#IMF_YVU420}, {@link V4L4JConstants#IMF_NV12},
+ * {@link V4L4JConstants#IMF_NV21}, {@link V4L4JConstants#IMF_MJPEG} and
+ * {@link V4L4JConstants#IMF_JPEG}. RGB24 and BGR24 frames also provide a
+ * raster and a buffered image, and JPEG frames a buffered image.
+ * @author gilles
+ *
+ */
+public class SyntheticFrameGrabber extends AbstractGrabber {
+	/**
+	 * The Pattern enumeration lists the test patterns a 
+	 * {@link SyntheticFrameGrabber} can generate.
+	 */
+	public enum Pattern {
+		/**
+		 * Eight vertical bars: white, yellow, cyan, green, magenta, red, blue
+		 * and black, at 75% intensity.
+		 */
+		COLOR_BARS,
+		/**
+		 * Red increasing from left to right, and green from top to bottom.
+		 */
+		GRADIENT,
+		/**
+		 * Black and white squares of 16x16 pixels.
+		 */
+		CHECKERBOARD
+	}
+
+	private static final int[]	BARS = {
+		0xbfbfbf, 0xbfbf00, 0x00bfbf, 0x00bf00, 0xbf00bf, 0xbf0000, 0x0000bf, 0x000000
+	};
+
+	private final ImageFormat	imageFormat;
+	private final int			formatIndex;
+	private Pattern				pattern;
+	private int					intervalNum;
+	private int					intervalDenom;
+	private int					videoStandard;
+	private long				jitter;
+	private double				dropRate;
+	private final Random		random;
+
+	// the frame copied into every video frame, and its pattern
+	private byte[]				template;
+	private Pattern				renderedPattern;
+
+	// capture thread state
+	private long				interval;
+	private long				nextCapture;
+	private long				lastCapture;
+	private long				sequence;
+	private volatile boolean	stopped;
+	private volatile Thread		waiter;
+	private volatile long		droppedFrames;
+
+	/**
+	 * This method builds a synthetic frame grabber producing color bars at
+	 * 30 frames per second, whose threads are created by the thread factory
+	 * returned by <code>Executors.defaultThreadFactory()</code>. The number
+	 * of video frames is set by the <code>v4l4j.num_driver_buffers</code>
+	 * property, as for other frame grabbers.
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param format the image format of the frames, one of the
+	 * <code>V4L4JConstants.IMF_*</code> constants listed above
+	 * @throws ImageFormatException if the image format is not supported
+	 * @throws ImageDimensionsException if the frame dimensions are not valid
+	 * for the image format
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public SyntheticFrameGrabber(int width, int height, int format) throws V4L4JException {
+		this(width, height, format, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This method builds a synthetic frame grabber producing color bars at
+	 * 30 frames per second. The number of video frames is set by the
+	 * <code>v4l4j.num_driver_buffers</code> property, as for other frame
+	 * grabbers.
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param format the image format of the frames, one of the
+	 * <code>V4L4JConstants.IMF_*</code> constants listed above
+	 * @param factory the thread factory used to create the push mode threads
+	 * @throws ImageFormatException if the image format is not supported
+	 * @throws ImageDimensionsException if the frame dimensions are not valid
+	 * for the image format
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	public SyntheticFrameGrabber(int width, int height, int format, ThreadFactory factory) 
+			throws V4L4JException {
+		this(width, height, newImageFormat(format), factory);
+	}
+
+	private SyntheticFrameGrabber(int width, int height, ImageFormat imf, ThreadFactory factory) 
+			throws V4L4JException {
+		super(null, 0, width, height, 0, V4L4JConstants.STANDARD_WEBCAM, null,
+				imf, RAW_GRABBER, factory);
+
+		if (factory == null)
+			throw new NullPointerException("The thread factory cannot be null");
+		if ((width <= 0) || (height <= 0))
+			throw new ImageDimensionsException("Invalid frame dimensions " 
+					+ width + "x" + height);
+		if ((isChromaSubsampled(imf.getIndex()) && (width % 2 != 0))
+				|| (isPlanar(imf.getIndex()) && (height % 2 != 0)))
+			throw new ImageDimensionsException("The frame dimensions must be even "
+					+ "for the " + imf.getName() + " image format");
+
+		imageFormat = imf;
+		formatIndex = imf.getIndex();
+		pattern = Pattern.COLOR_BARS;
+		intervalNum = 1;
+		intervalDenom = 30;
+		videoStandard = V4L4JConstants.STANDARD_WEBCAM;
+		jitter = 0;
+		dropRate = 0;
+		random = new Random();
+		droppedFrames = 0;
+		stopped = true;
+
+		init();
+	}
+
+	/**
+	 * This method returns the image format of the frames generated by this
+	 * frame grabber.
+	 * @return the image format of the frames
+	 * @throws StateException if this frame grabber has been released
+	 */
+	@Override
+	public ImageFormat getImageFormat() {
+		state.checkReleased();
+		return imageFormat;
+	}
+
+	/**
+	 * This method sets the test pattern. It takes effect the next time the
+	 * capture is started.
+	 * @param p the test pattern
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void setPattern(Pattern p) {
+		if (p == null)
+			throw new NullPointerException("The pattern cannot be null");
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The pattern cannot be changed while capturing");
+			pattern = p;
+		}
+	}
+
+	/**
+	 * This method returns the current test pattern.
+	 * @return the test pattern
+	 */
+	public Pattern getPattern() {
+		synchronized(state){
+			return pattern;
+		}
+	}
+
+	/**
+	 * This method sets the maximum amount of time a frame is produced 
+	 * before or after it is due. The actual amount is random, and uniformly
+	 * distributed. Frames are never produced out of order.
+	 * @param maxJitter the maximum jitter, 0 for none
+	 * @param unit the unit of <code>maxJitter</code>
+	 * @throws IllegalArgumentException if <code>maxJitter</code> is negative
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void setJitter(long maxJitter, TimeUnit unit) {
+		if (maxJitter < 0)
+			throw new IllegalArgumentException("The jitter cannot be negative");
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The jitter cannot be changed while capturing");
+			jitter = unit.toNanos(maxJitter);
+		}
+	}
+
+	/**
+	 * This method returns the maximum jitter.
+	 * @param unit the unit in which to return the jitter
+	 * @return the maximum jitter
+	 */
+	public long getJitter(TimeUnit unit) {
+		synchronized(state){
+			return unit.convert(jitter, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * This method sets the probability that a frame is dropped, as a driver
+	 * would if a frame was corrupted. A dropped frame is not delivered, but 
+	 * its sequence number is used, so that the next frame shows a gap.
+	 * @param probability the probability that a frame is dropped, between 
+	 * 0 (the default) and 1 excluded
+	 * @throws IllegalArgumentException if <code>probability</code> is not
+	 * between 0 and 1 excluded
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	public void setDropRate(double probability) {
+		if (! ((probability >= 0) && (probability < 1)))
+			throw new IllegalArgumentException("The drop rate must be between 0 and 1 excluded");
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The drop rate cannot be changed while capturing");
+			dropRate = probability;
+		}
+	}
+
+	/**
+	 * This method returns the probability that a frame is dropped.
+	 * @return the probability that a frame is dropped
+	 */
+	public double getDropRate() {
+		synchronized(state){
+			return dropRate;
+		}
+	}
+
+	/**
+	 * This method sets the seed of the random number generator used for 
+	 * jitter and drops, so that a test can be repeated. Note that frames are
+	 * also dropped when the application does not recycle them in time, which
+	 * depends on the application's timing.
+	 * @param seed the seed
+	 */
+	public void setRandomSeed(long seed) {
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("The seed cannot be changed while capturing");
+			random.setSeed(seed);
+		}
+	}
+
+	/**
+	 * This method returns the number of frames dropped at random (see 
+	 * {@link #setDropRate(double)}) since this frame grabber was created.
+	 * @return the number of frames dropped at random
+	 */
+	public long getInjectedDrops() {
+		return droppedFrames;
+	}
+
+	/**
+	 * This method sets the frame interval. An interval of 0 (ie. a
+	 * numerator of 0) makes this frame grabber produce frames as fast as they
+	 * are requested.
+	 * @param num the frame interval numerator
+	 * @param denom the frame interval denominator
+	 * @throws InvalidValue if the frame interval is not valid
+	 * @throws StateException if the capture is in progress, or this frame 
+	 * grabber has been released
+	 */
+	@Override
+	public void setFrameInterval(int num, int denom) throws InvalidValue {
+		if ((num < 0) || (denom <= 0))
+			throw new InvalidValue("Invalid frame interval " + num + "/" + denom);
+
+		synchronized(state){
+			if(state.isStarted())
+				throw new StateException("Invalid method call");
+			intervalNum = num;
+			intervalDenom = denom;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getFrameInterval()
+	 */
+	@Override
+	public DiscreteInterval getFrameInterval() {
+		synchronized(state){
+			state.checkReleased();
+			return new DiscreteInterval(intervalNum, intervalDenom);
+		}
+	}
+
+	/**
+	 * This method sets the video standard. Synthetic frame grabbers have a
+	 * single input, whose index is 0.
+	 * @param input the input, which must be 0
+	 * @param standard the video standard, which is not used
+	 * @throws CaptureChannelException if the input is not 0
+	 */
+	@Override
+	public void setVideoInputNStandard(int input, int standard) throws CaptureChannelException {
+		state.checkReleased();
+		if (input != 0)
+			throw new CaptureChannelException("Invalid input " + input);
+		videoStandard = standard;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoInput()
+	 */
+	@Override
+	public int getVideoInput() {
+		state.checkReleased();
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoStandard()
+	 */
+	@Override
+	public int getVideoStandard() {
+		state.checkReleased();
+		return videoStandard;
+	}
+
+	/**
+	 * This method stops the capture if it is in progress, and releases this
+	 * frame grabber. It must not be used afterwards.
+	 * @throws StateException if this frame grabber has already been released
+	 */
+	public void releaseFrameGrabber() {
+		release();
+	}
+
+	/*
+	 * Synthetic frame grabbers are not attached to a device, so equality
+	 * cannot be based on it.
+	 */
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return this == obj;
+	}
+
+	@Override
+	protected void createBuffers(int bufferSize) {
+		int numberOfBuffers = nbV4LBuffers;
+		PixelInterleavedSampleModel sm = null;
+		ColorSpace cs = null;
+
+		if ((formatIndex == V4L4JConstants.IMF_RGB24) 
+				|| (formatIndex == V4L4JConstants.IMF_BGR24)) {
+			cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+			sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, 
+					getWidth(), getHeight(), 3, getWidth() * 3, 
+					(formatIndex == V4L4JConstants.IMF_RGB24) ? new int[] {0,1,2} : new int[] {2,1,0});
+		}
+		JPEGDecoder decoder = isJPEG(formatIndex) ? new JPEGDecoder() : null;
+
+		while(numberOfBuffers-- > 0)
+			if (isJPEG(formatIndex))
+				videoFrames.add(new JPEGVideoFrame(this, bufferSize, decoder));
+			else
+				videoFrames.add(new UncompressedVideoFrame(this, bufferSize, sm, cs));
+	}
+
+	/*
+	 * Driver methods
+	 */
+
+	@Override
+	int initDriver(int numBuffers) throws V4L4JException {
+		template = render();
+		renderedPattern = pattern;
+		return numBuffers;
+	}
+
+	@Override
+	int getDriverBufferSize() {
+		// leave room for JPEG images of other patterns
+		return isJPEG(formatIndex) ? Math.max(template.length, getWidth() * getHeight() * 3 + 4096) 
+				: template.length;
+	}
+
+	@Override
+	void startDriver() throws V4L4JException {
+		if (pattern != renderedPattern) {
+			byte[] t = render();
+			if (t.length > videoFrames.get(0).getByteArray().length)
+				throw new InitialisationException("The " + pattern 
+						+ " pattern does not fit in the video frames");
+			template = t;
+			renderedPattern = pattern;
+		}
+
+		interval = (intervalNum == 0) ? 0 
+				: TimeUnit.SECONDS.toNanos(intervalNum) / intervalDenom;
+		nextCapture = System.nanoTime();
+		lastCapture = nextCapture - 1;
+		sequence = 0;
+		stopped = false;
+	}
+
+	@Override
+	int fillDriverBuffer(BaseVideoFrame frame) throws V4L4JException {
+		long captured;
+
+		for (;;) {
+			// the frames due since the last call could not be stored, as the
+			// application held all video frames or did not ask for them:
+			// drop them, as a driver with no free buffers would
+			long now = System.nanoTime();
+			if ((interval > 0) && (now - nextCapture >= interval)) {
+				long missed = (now - nextCapture) / interval;
+				sequence += missed;
+				nextCapture += missed * interval;
+			}
+
+			captured = (interval > 0) ? nextCapture : now;
+			if (jitter > 0)
+				captured = Math.max(lastCapture + 1,
+						captured + (long) ((random.nextDouble() * 2 - 1) * jitter));
+			waitUntil(captured);
+			nextCapture += interval;
+			lastCapture = captured;
+
+			if ((dropRate > 0) && (random.nextDouble() < dropRate)) {
+				sequence++;
+				droppedFrames++;
+				continue;
+			}
+			break;
+		}
+
+		System.arraycopy(template, 0, frame.getByteArray(), 0, template.length);
+		setLastCapturedFrame(frame.getBufferInex(), sequence++, 
+				TimeUnit.NANOSECONDS.toMicros(captured));
+		return template.length;
+	}
+
+	/**
+	 * This method blocks until the given time or until the capture is
+	 * stopped.
+	 * @param time the time to wait for, as given by 
+	 * <code>System.nanoTime()</code>
+	 * @throws StateException if the capture is stopped
+	 */
+	private void waitUntil(long time) {
+		waiter = Thread.currentThread();
+		try {
+			long left;
+			while (! stopped && ((left = time - System.nanoTime()) > 0)) {
+				LockSupport.parkNanos(this, left);
+				if (Thread.interrupted())
+					throw new StateException("Interrupted while waiting for a frame");
+			}
+		} finally {
+			waiter = null;
+		}
+
+		if (stopped)
+			throw new StateException("The capture has been stopped");
+	}
+
+	@Override
+	void enqueueDriverBuffer(BaseVideoFrame frame) {
+	}
+
+	@Override
+	void stopDriver() {
+		stopped = true;
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+
+	@Override
+	void releaseDriver() {
+		template = null;
+	}
+
+	/*
+	 * Test pattern generation
+	 */
+
+	private static ImageFormat newImageFormat(int format) throws ImageFormatException {
+		switch (format) {
+		case V4L4JConstants.IMF_GREY:
+		case V4L4JConstants.IMF_YUYV:
+		case V4L4JConstants.IMF_UYVY:
+		case V4L4JConstants.IMF_RGB24:
+		case V4L4JConstants.IMF_BGR24:
+		case V4L4JConstants.IMF_YUV420:
+		case V4L4JConstants.IMF_YVU420:
+		case V4L4JConstants.IMF_NV12:
+		case V4L4JConstants.IMF_NV21:
+		case V4L4JConstants.IMF_MJPEG:
+		case V4L4JConstants.IMF_JPEG:
+			return new ImageFormat(format);
+		default:
+			throw new ImageFormatException("Image format " + format 
+					+ " is not supported by synthetic frame grabbers");
+		}
+	}
+
+	private static boolean isJPEG(int format) {
+		return (format == V4L4JConstants.IMF_MJPEG) || (format == V4L4JConstants.IMF_JPEG);
+	}
+
+	private static boolean isPlanar(int format) {
+		return (format == V4L4JConstants.IMF_YUV420) || (format == V4L4JConstants.IMF_YVU420)
+				|| (format == V4L4JConstants.IMF_NV12) || (format == V4L4JConstants.IMF_NV21);
+	}
+
+	private static boolean isChromaSubsampled(int format) {
+		return isPlanar(format) || (format == V4L4JConstants.IMF_YUYV)
+				|| (format == V4L4JConstants.IMF_UYVY);
+	}
+
+	/**
+	 * This method returns the RGB value of the current pattern at the given
+	 * pixel.
+	 */
+	private int rgb(int x, int y) {
+		switch (pattern) {
+		case GRADIENT:
+			return ((x * 255 / Math.max(1, getWidth() - 1)) << 16)
+					| ((y * 255 / Math.max(1, getHeight() - 1)) << 8) | 0x80;
+		case CHECKERBOARD:
+			return (((x >> 4) + (y >> 4)) % 2 == 0) ? 0xffffff : 0x000000;
+		default:
+			return BARS[x * BARS.length / getWidth()];
+		}
+	}
+
+	// ITU-R BT.601 conversion, with Y in [16, 235], as produced by most drivers
+	private static int y(int rgb) {
+		int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+		return ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16;
+	}
+
+	private static int u(int rgb) {
+		int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+		return ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128;
+	}
+
+	private static int v(int rgb) {
+		int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+		return ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128;
+	}
+
+	/**
+	 * This method renders the current pattern in the image format of this 
+	 * frame grabber.
+	 * @return the rendered frame
+	 * @throws InitialisationException if the frame cannot be JPEG-encoded
+	 */
+	private byte[] render() throws InitialisationException {
+		int w = getWidth(), h = getHeight();
+		int[] pixels = new int[w * h];
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++)
+				pixels[y * w + x] = rgb(x, y);
+
+		byte[] out;
+		int i = 0;
+
+		switch (formatIndex) {
+		case V4L4JConstants.IMF_GREY:
+			out = new byte[w * h];
+			for (int p : pixels)
+				out[i++] = (byte) y(p);
+			return out;
+
+		case V4L4JConstants.IMF_RGB24:
+		case V4L4JConstants.IMF_BGR24:
+			boolean bgr = (formatIndex == V4L4JConstants.IMF_BGR24);
+			out = new byte[w * h * 3];
+			for (int p : pixels) {
+				out[i++] = (byte) (bgr ? p : p >> 16);
+				out[i++] = (byte) (p >> 8);
+				out[i++] = (byte) (bgr ? p >> 16 : p);
+			}
+			return out;
+
+		case V4L4JConstants.IMF_YUYV:
+		case V4L4JConstants.IMF_UYVY:
+			boolean uyvy = (formatIndex == V4L4JConstants.IMF_UYVY);
+			out = new byte[w * h * 2];
+			for (int p = 0; p < pixels.length; p += 2) {
+				int p0 = pixels[p], p1 = pixels[p + 1];
+				byte y0 = (byte) y(p0), y1 = (byte) y(p1);
+				byte u = (byte) ((u(p0) + u(p1)) / 2), v = (byte) ((v(p0) + v(p1)) / 2);
+				out[i++] = uyvy ? u : y0;
+				out[i++] = uyvy ? y0 : u;
+				out[i++] = uyvy ? v : y1;
+				out[i++] = uyvy ? y1 : v;
+			}
+			return out;
+
+		case V4L4JConstants.IMF_YUV420:
+		case V4L4JConstants.IMF_YVU420:
+		case V4L4JConstants.IMF_NV12:
+		case V4L4JConstants.IMF_NV21:
+			out = new byte[w * h * 3 / 2];
+			for (int p : pixels)
+				out[i++] = (byte) y(p);
+
+			// chroma planes (or interleaved plane) after the luma plane
+			int cw = w / 2, ch = h / 2, plane = cw * ch;
+			for (int y = 0; y < ch; y++) {
+				for (int x = 0; x < cw; x++) {
+					int tl = pixels[2 * y * w + 2 * x], tr = pixels[2 * y * w + 2 * x + 1];
+					int bl = pixels[(2 * y + 1) * w + 2 * x], br = pixels[(2 * y + 1) * w + 2 * x + 1];
+					byte u = (byte) ((u(tl) + u(tr) + u(bl) + u(br)) / 4);
+					byte v = (byte) ((v(tl) + v(tr) + v(bl) + v(br)) / 4);
+					int c = y * cw + x;
+
+					switch (formatIndex) {
+					case V4L4JConstants.IMF_YUV420:
+						out[w * h + c] = u;
+						out[w * h + plane + c] = v;
+						break;
+					case V4L4JConstants.IMF_YVU420:
+						out[w * h + c] = v;
+						out[w * h + plane + c] = u;
+						break;
+					case V4L4JConstants.IMF_NV12:
+						out[w * h + 2 * c] = u;
+						out[w * h + 2 * c + 1] = v;
+						break;
+					default:
+						out[w * h + 2 * c] = v;
+						out[w * h + 2 * c + 1] = u;
+					}
+				}
+			}
+			return out;
+
+		default:
+			// JPEG: encode the pattern once, every frame is the same image
+			BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, w, h, pixels, 0, w);
+			ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+			try {
+				if (! ImageIO.write(image, "jpeg", jpeg))
+					throw new InitialisationException("No JPEG encoder available");
+			} catch (IOException e) {
+				throw new InitialisationException("Cannot encode the test pattern", e);
+			}
+			return jpeg.toByteArray();
+		}
+	}
+}
@@ -17,12 +17,12 @@
 */
 package au.edu.jcu.v4l4j;
 
-import java.awt.Point;
 import java.awt.Transparency;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 
@@ -49,9 +49,14 @@ class UncompressedVideoFrame extends BaseVideoFrame {
 			SampleModel sm,	ColorSpace cs) {
 		super(grabber, bufferSize);
 			
-		// create raster if a sample model was given
+		// create raster if a sample model was given. It is built on a 
+		// DataBufferByte over the frame's byte array, rather than on the
+		// V4L4JDataBuffer, so that it is a standard byte interleaved raster
+		// which Java2D draws and encodes with its native loops (BGR images
+		// are of type TYPE_3BYTE_BGR).
 		if (sm != null) {
-			raster = new V4L4JRaster(sm, dataBuffer, new Point(0,0));
+			raster = Raster.createWritableRaster(sm, 
+					new DataBufferByte(frameBuffer, frameBuffer.length), null);
 			
 			//  create buffered image if a colorspace was given
 			if (cs != null)
@@ -30,8 +30,12 @@ import java.awt.image.WritableRaster;
  * we cannot pass a {@link V4L4JDataBuffer} to it, it will throw an exception because
  * it expects a {@link DataBufferByte} object.
  * @author gilles
- *
+ * @deprecated video frames now build their rasters on a 
+ * {@link DataBufferByte} over the frame's byte array with
+ * {@link Raster#createWritableRaster(SampleModel, DataBuffer, Point)}, which
+ * Java2D draws much faster. This class is no longer used by v4l4j.
  */
+@Deprecated
 public class V4L4JRaster extends WritableRaster {
 	
 	public V4L4JRaster(SampleModel sampleModel, DataBuffer dataBuffer,
@@ -29,6 +29,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.Vector;
 
+import javax.management.ObjectName;
+
 import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
 import au.edu.jcu.v4l4j.exceptions.ImageDimensionsException;
 import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
@@ -149,7 +151,12 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * {@link #releaseControlList()}. See the {@link ControlList} and 
  * {@link Control} classes for more information on how to use them.
  * 
- * 
+ * <h2>Monitoring</h2>
+ * Every open <code>VideoDevice</code> and its frame grabber are registered
+ * with the platform MBean server (see {@link VideoDeviceMXBean} and
+ * {@link FrameGrabberMXBean}), so that capture rates, dropped frames and
+ * latencies can be monitored with any JMX client. Set the 
+ * <code>v4l4j.jmx</code> property to <code>false</code> to disable this.
  * 
  * @author gilles
  *
@@ -250,6 +257,23 @@ public class VideoDevice {
 	 * ThreadFactory that will be passed on to each new FrameGrabber.
 	 */
 	private ThreadFactory	threadFactory;
+
+	/**
+	 * The memory budget for video frames if the number of buffers is 
+	 * adjusted automatically, 0 otherwise.
+	 */
+	private long bufferMemoryBudget;
+
+	/**
+	 * The number of buffers suggested by the last frame grabber, 0 if none.
+	 */
+	private int suggestedBufferCount;
+
+	/**
+	 * The names of the management beans registered for this video device
+	 * and its frame grabber, or null if they are not registered.
+	 */
+	private ObjectName mbeanName, frameGrabberMBeanName;
 	
 	/**
 	 * This constructor builds a <code>VideoDevice</code> using the full path to
@@ -285,6 +309,10 @@ public class VideoDevice {
 			supportYUV420 = false;
 			supportYVU420 = false;
 		}
+
+		mbeanName = Management.name("VideoDevice", deviceFile);
+		if (! Management.register(new Management.VideoDeviceBean(this), mbeanName))
+			mbeanName = null;
 	}
 	
 	/**
@@ -351,6 +379,9 @@ public class VideoDevice {
 	 */
 	public void release(boolean wait){
 		state.release(wait);
+
+		Management.unregister(mbeanName);
+		mbeanName = null;
 		
 		if(tuners!=null)
 			tuners.release();
@@ -615,7 +646,7 @@ public class VideoDevice {
 				fg = new JPEGFrameGrabber(deviceInfo, v4l4jObject, w, h, input, 
 						std, q, findTuner(input), imf, threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -768,7 +799,7 @@ public class VideoDevice {
 				fg = new RGBFrameGrabber(deviceInfo, v4l4jObject, w, h, input,
 						std, findTuner(input), imf, threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -915,7 +946,7 @@ public class VideoDevice {
 				fg = new BGRFrameGrabber(deviceInfo, v4l4jObject, w, h, input,
 						std, findTuner(input), imf,  threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -1064,7 +1095,7 @@ public class VideoDevice {
 				fg = new YUVFrameGrabber(deviceInfo, v4l4jObject, w, h, input,
 						std, findTuner(input), imf, threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -1213,7 +1244,7 @@ public class VideoDevice {
 				fg = new YVUFrameGrabber(deviceInfo, v4l4jObject, w, h, input,
 						std, findTuner(input), imf, threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -1336,7 +1367,7 @@ public class VideoDevice {
 				fg = new RawFrameGrabber(deviceInfo, v4l4jObject, w, h, input,
 						std, findTuner(input), format, threadFactory);
 				try {
-					fg.init();
+					initFrameGrabber();
 				} catch (V4L4JException ve){
 					fg = null;
 					state.put();
@@ -1417,6 +1448,11 @@ public class VideoDevice {
 	public void releaseFrameGrabber() {
 		synchronized(this){
 			if(fg!=null){
+				if (bufferMemoryBudget > 0)
+					suggestedBufferCount = fg.getBufferUsage()
+						.getSuggestedNumberOfVideoFrames();
+				Management.unregister(frameGrabberMBeanName);
+				frameGrabberMBeanName = null;
 				try {fg.release();}
 				catch (Throwable t){
 					t.printStackTrace();
@@ -1482,6 +1518,65 @@ public class VideoDevice {
 		threadFactory = factory;
 	 }
 
+	/**
+	 * This method enables the automatic adjustment of the number of buffers 
+	 * used by frame grabbers created for this video device. Each frame 
+	 * grabber measures how its video frames are used (see 
+	 * {@link BufferUsage}), and when it is released, the number of buffers it
+	 * suggests is requested by the next frame grabber, instead of the value
+	 * of the <code>v4l4j.num_driver_buffers</code> property. The suggested
+	 * number is capped so that the buffers fit in the given memory budget.
+	 * @param bytes the maximum amount of memory used by video frames, or 0
+	 * to disable automatic adjustment (the default).
+	 * @throws IllegalArgumentException if <code>bytes</code> is negative
+	 */
+	public synchronized void setBufferMemoryBudget(long bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("The memory budget cannot be negative");
+
+		bufferMemoryBudget = bytes;
+		if (bytes == 0)
+			suggestedBufferCount = 0;
+		if (fg != null)
+			fg.getBufferUsage().setMemoryBudget(bytes);
+	}
+
+	/**
+	 * This method returns the memory budget set with 
+	 * {@link #setBufferMemoryBudget(long)}.
+	 * @return the memory budget for video frames, or 0 if the number of 
+	 * buffers is not adjusted automatically
+	 */
+	public synchronized long getBufferMemoryBudget() {
+		return bufferMemoryBudget;
+	}
+
+	/**
+	 * This method initialises the newly created frame grabber, with the number
+	 * of buffers suggested by the previous one if they are adjusted 
+	 * automatically. It must be called with this object's lock held.
+	 * @throws V4L4JException if the frame grabber cannot be initialised
+	 */
+	private void initFrameGrabber() throws V4L4JException {
+		if ((bufferMemoryBudget > 0) && (suggestedBufferCount > 0))
+			fg.setRequestedNumberOfVideoFrames(suggestedBufferCount);
+		fg.getBufferUsage().setMemoryBudget(bufferMemoryBudget);
+		fg.init();
+
+		frameGrabberMBeanName = Management.name("FrameGrabber", deviceFile);
+		if (! Management.register(new Management.FrameGrabberBean(fg, deviceFile),
+				frameGrabberMBeanName))
+			frameGrabberMBeanName = null;
+	}
+
+	/**
+	 * This method returns the frame grabber in use, if any.
+	 * @return the frame grabber in use, or <code>null</code>
+	 */
+	synchronized AbstractGrabber getActiveFrameGrabber() {
+		return fg;
+	}
+
 	private static class State {
 
 		private int state;
@@ -0,0 +1,62 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * This interface defines the attributes of the management bean registered
+ * for each open {@link VideoDevice}, under the name
+ * <code>au.edu.jcu.v4l4j:type=VideoDevice,name="&lt;device file&gt;"</code>.
+ * Management beans are registered with the platform MBean server unless the
+ * <code>v4l4j.jmx</code> property is set to <code>false</code>.
+ * @author gilles
+ *
+ */
+public interface VideoDeviceMXBean {
+	/**
+	 * This method returns the full path to the device file.
+	 * @return the full path to the device file
+	 */
+	public String getDeviceFile();
+
+	/**
+	 * This method returns the name of the video device.
+	 * @return the name of the video device, or <code>null</code> if it could
+	 * not be obtained
+	 */
+	public String getName();
+
+	/**
+	 * This method returns whether a frame grabber is in use.
+	 * @return whether a frame grabber is in use
+	 */
+	public boolean isFrameGrabberActive();
+
+	/**
+	 * This method returns the type of the frame grabber in use.
+	 * @return the class name of the frame grabber in use, or 
+	 * <code>null</code> if none is
+	 */
+	public String getFrameGrabberType();
+
+	/**
+	 * This method returns the memory budget for video frames.
+	 * @return the memory budget for video frames
+	 * @see VideoDevice#setBufferMemoryBudget(long)
+	 */
+	public long getBufferMemoryBudget();
+}
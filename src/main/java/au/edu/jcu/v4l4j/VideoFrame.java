@@ -20,6 +20,7 @@ package au.edu.jcu.v4l4j;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
+import java.nio.ByteBuffer;
 
 import au.edu.jcu.v4l4j.exceptions.StateException;
 import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
@@ -44,7 +45,10 @@ import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
  * neither the <code>VideoFrame</code> nor objects obtained through it 
  * can be used. Bad things will happen if you violate this rule. It is recommended
  * that you explicitly set all references to this object, as well as references to objects
- * obtained through this frame, to null.<br>    
+ * obtained through this frame, to null.<br>
+ * A video frame can be handed over to other threads without copying it by
+ * adding references to it with {@link #retain()} or {@link #lease()}: it is
+ * only recycled once every reference is released.<br>    
  * Note that not all video frames are capable of returning a raster or a buffered image.
  * For example, rasters cannot be created for compressed image formats, 
  * which means <code>VideoFrame</code>s returned by {@link JPEGFrameGrabber}s 
@@ -88,6 +92,36 @@ public interface VideoFrame {
 	 * @throws StateException if this video frame has been recycled already.
 	 */
 	public long 	getCaptureTime();
+
+	/**
+	 * This method returns the time at which this video frame was captured,
+	 * converted to the time base of <code>System.nanoTime()</code> by the
+	 * frame grabber's {@link ClockCorrelator}. The correlator can only 
+	 * observe when frames are retrieved, so the returned value is the capture
+	 * time plus the minimum latency of the pipeline (dequeuing the frame 
+	 * from the driver and copying it, about 1 ms for 4 MB frames). It can be
+	 * compared with other values returned by <code>System.nanoTime()</code>,
+	 * for instance to measure the latency from the capture to the display of
+	 * a frame, which is then understated by that minimum latency, as are
+	 * the latencies in {@link CaptureStatistics#getCaptureLatencies()}.
+	 * @return the value of <code>System.nanoTime()</code> when this video
+	 * frame was captured, plus the minimum retrieval latency
+	 * @throws StateException if this video frame has been recycled already.
+	 */
+	public long		getCaptureNanoTime();
+
+	/**
+	 * This method returns the time at which this video frame was captured,
+	 * converted to the wall clock by the frame grabber's 
+	 * {@link ClockCorrelator}. It can be used to line up frames captured by 
+	 * different devices, or recorded at different times. Like 
+	 * {@link #getCaptureNanoTime()}, it is later than the actual capture by
+	 * the minimum retrieval latency.
+	 * @return the number of microseconds since the epoch (1st of January 
+	 * 1970 UTC) at which this video frame was captured
+	 * @throws StateException if this video frame has been recycled already.
+	 */
+	public long		getCaptureWallTime();
 	
 	/**
 	 * This method returns the image data as a byte array.<b>Please note that
@@ -100,7 +134,23 @@ public interface VideoFrame {
 	 * @throws StateException if this video frame has been recycled already.
 	 */
 	public byte[]	getBytes();
-	
+
+	/**
+	 * This method returns a read-only {@link ByteBuffer} view of the image
+	 * data. The buffer's position is 0 and its limit is the frame length,
+	 * so, unlike {@link #getBytes()}, its size is that of the image. No copy
+	 * of the image data is made: the view is backed by the storage v4l4j
+	 * uses for this video frame, and is only valid until this frame is
+	 * recycled. Each call returns a new view with its own position and limit.
+	 * <br>Some frame grabbers keep image data outside the Java heap. For
+	 * these, this method is the cheapest way to access the image, as
+	 * {@link #getBytes()} and {@link #getDataBuffer()} must first copy the
+	 * data into a byte array.
+	 * @return a read-only view of the image data
+	 * @throws StateException if this video frame has been recycled already.
+	 */
+	public ByteBuffer	getByteBuffer();
+
 	/**
 	 * This method returns the image data encapsulated in a {@link DataBuffer}
 	 * object. The data is stored as bytes in the data buffer.
@@ -138,7 +188,47 @@ public interface VideoFrame {
 	 * to be reused by v4l4j. After calling this method, do not use either 
 	 * this object or any of the objects obtained through it 
 	 * (byte array, data buffer, raster, buffered image, ...) <b> or bad things
-	 * WILL happen</b>. 
+	 * WILL happen</b>. <br>
+	 * A video frame delivered by a {@link FrameBroadcaster} is shared by
+	 * several subscribers, each of which must recycle it once. The frame
+	 * is only reused by v4l4j when the last of them does.<br>
+	 * More generally, this method releases one reference to this frame, as
+	 * {@link #release()} does, and the frame is only reused once all
+	 * references are released.
 	 */
 	public void 			recycle();
+
+	/**
+	 * This method adds a reference to this video frame. The frame is only
+	 * reused by v4l4j once every reference, including the one held by the
+	 * {@link CaptureCallback} it was delivered to, is released. This lets
+	 * several threads (for instance a pool of encoders) use the same frame
+	 * without copying it: each of them retains the frame before it is 
+	 * handed over, and releases it when done.
+	 * @throws StateException if this video frame has been recycled already.
+	 * @see #release()
+	 * @see #lease()
+	 */
+	public void				retain();
+
+	/**
+	 * This method releases one reference to this video frame. When the last
+	 * one is released, the frame is recycled, and the rules of 
+	 * {@link #recycle()} apply.
+	 */
+	public void				release();
+
+	/**
+	 * This method adds a reference to this video frame, and returns a
+	 * {@link FrameLease} which releases it when closed. On Java 7 or later,
+	 * leases can be used in try-with-resources statements:
+	 * <code><br>
+	 * <br>try (FrameLease lease = frame.lease()) {
+	 * <br>&nbsp;&nbsp; encode(lease.getFrame());
+	 * <br>}
+	 * </code>
+	 * @return a new lease on this video frame
+	 * @throws StateException if this video frame has been recycled already.
+	 */
+	public FrameLease		lease();
 }
@@ -0,0 +1,64 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * The WaitStrategy enumeration defines what a frame grabber's capture thread
+ * does while it waits for a recycled {@link VideoFrame} to become available.
+ * The default strategy is {@link #PARK}, which can be changed by setting the
+ * <code>v4l4j.wait_strategy</code> property to <code>spin</code>,
+ * <code>yield</code> or <code>park</code> <b>before creating a frame grabber
+ * object</b>, or by calling
+ * {@link FrameGrabber#setWaitStrategy(WaitStrategy)}.
+ * @author gilles
+ *
+ */
+public enum WaitStrategy {
+	/**
+	 * The capture thread busy-spins until a frame is recycled. This gives the
+	 * lowest hand-off latency, at the cost of keeping one CPU core busy for
+	 * as long as the application holds all video frames.
+	 */
+	SPIN,
+	/**
+	 * The capture thread calls <code>Thread.yield()</code> between checks.
+	 * Latency is close to {@link #SPIN}, but other runnable threads get a
+	 * chance to use the CPU.
+	 */
+	YIELD,
+	/**
+	 * The capture thread is parked until a frame is recycled, and unparked by
+	 * the recycling thread. This does not use any CPU while waiting, but
+	 * waking up the capture thread costs a system call.
+	 */
+	PARK;
+
+	/**
+	 * This method returns the wait strategy named by the
+	 * <code>v4l4j.wait_strategy</code> property, or {@link #PARK} if the
+	 * property is not set.
+	 * @return the wait strategy named by the <code>v4l4j.wait_strategy</code>
+	 * property
+	 * @throws IllegalArgumentException if the property does not name a
+	 * valid wait strategy
+	 */
+	static WaitStrategy fromProperty() {
+		String name = System.getProperty("v4l4j.wait_strategy");
+		return (name != null) ? valueOf(name.trim().toUpperCase()) : PARK;
+	}
+}
@@ -0,0 +1,568 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
+
+/**
+ * A YUVConverter converts YUV frames to RGB24, BGR24, ARGB or greyscale in 
+ * Java. It can be used when libvideo cannot convert the native format of a 
+ * video device, or with a {@link RawFrameGrabber}, to capture frames in 
+ * their native format and only convert those that are needed, in any 
+ * thread. Converters are obtained from {@link #forFormat(int)} with one of the
+ * image format indexes in {@link V4L4JConstants}, and support the packed 
+ * 4:2:2 formats {@link V4L4JConstants#IMF_YUYV YUYV}, 
+ * {@link V4L4JConstants#IMF_UYVY UYVY}, {@link V4L4JConstants#IMF_YVYU YVYU}
+ * and {@link V4L4JConstants#IMF_VYUY VYUY}, and the semi-planar formats 
+ * {@link V4L4JConstants#IMF_NV12 NV12}, {@link V4L4JConstants#IMF_NV21 NV21}
+ * (4:2:0), {@link V4L4JConstants#IMF_NV16 NV16} and 
+ * {@link V4L4JConstants#IMF_NV61 NV61} (4:2:2). Frames can also be 
+ * converted to planar YUV420, as produced by a {@link YUVFrameGrabber}.<br>
+ * Samples are taken to be ITU-R BT.601 with limited range (Y from 16 to 235),
+ * as produced by most video devices, and the conversion uses the same 
+ * coefficients as libvideo. Converted frames are stored in buffers supplied
+ * by the caller, so converting does not allocate memory. Converters do not 
+ * have any state: a converter can be used by several threads at once. 
+ * Large frames can be converted by several threads, into pooled buffers,
+ * with a {@link ParallelConverter}.
+ * @author gilles
+ *
+ */
+public abstract class YUVConverter {
+	// fixed-point (10 bits) conversion tables. The Y table includes the 
+	// rounding term, and the offset of 0 in the CLAMP table, so the sum of a 
+	// Y term and a chroma term shifted right by 10 bits is a CLAMP index
+	static final int		SHIFT = 10;
+	static final int[]		Y = new int[256], V_R = new int[256], U_B = new int[256],
+							U_G = new int[256], V_G = new int[256];
+	static final byte[]		CLAMP = new byte[1024];
+
+	private static final int	CLAMP_OFFSET = 384;
+
+	// layouts of converted frames
+	static final int		RGB24 = 0, BGR24 = 1, ARGB = 2, GREY = 3, YUV420 = 4;
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			Y[i] = (int) Math.round(1.164 * (i - 16) * (1 << SHIFT)) 
+					+ (1 << (SHIFT - 1)) + (CLAMP_OFFSET << SHIFT);
+			V_R[i] = (int) Math.round(1.596 * (i - 128) * (1 << SHIFT));
+			U_B[i] = (int) Math.round(2.018 * (i - 128) * (1 << SHIFT));
+			U_G[i] = (int) Math.round(-0.391 * (i - 128) * (1 << SHIFT));
+			V_G[i] = (int) Math.round(-0.813 * (i - 128) * (1 << SHIFT));
+		}
+		for (int i = 0; i < CLAMP.length; i++)
+			CLAMP[i] = (byte) Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+	}
+
+	private static final YUVConverter	YUYV = new Packed422(V4L4JConstants.IMF_YUYV, 0, 1, 2, 3);
+	private static final YUVConverter	YVYU = new Packed422(V4L4JConstants.IMF_YVYU, 0, 3, 2, 1);
+	private static final YUVConverter	UYVY = new Packed422(V4L4JConstants.IMF_UYVY, 1, 0, 3, 2);
+	private static final YUVConverter	VYUY = new Packed422(V4L4JConstants.IMF_VYUY, 1, 2, 3, 0);
+	private static final YUVConverter	NV12 = new SemiPlanar(V4L4JConstants.IMF_NV12, 0, 1, 1);
+	private static final YUVConverter	NV21 = new SemiPlanar(V4L4JConstants.IMF_NV21, 1, 0, 1);
+	private static final YUVConverter	NV16 = new SemiPlanar(V4L4JConstants.IMF_NV16, 0, 1, 0);
+	private static final YUVConverter	NV61 = new SemiPlanar(V4L4JConstants.IMF_NV61, 1, 0, 0);
+
+	private final int		format;
+
+	YUVConverter(int f) {
+		format = f;
+	}
+
+	/**
+	 * This method returns the converter for the given image format.
+	 * @param format the index of the image format frames are in (one of 
+	 * the IMF_* constants in {@link V4L4JConstants}, or 
+	 * {@link ImageFormat#getIndex()})
+	 * @return a converter for the given image format
+	 * @throws UnsupportedMethod if frames in the given image format cannot be
+	 * converted
+	 */
+	public static YUVConverter forFormat(int format) {
+		switch (format) {
+		case V4L4JConstants.IMF_YUYV:
+			return YUYV;
+		case V4L4JConstants.IMF_YVYU:
+			return YVYU;
+		case V4L4JConstants.IMF_UYVY:
+			return UYVY;
+		case V4L4JConstants.IMF_VYUY:
+			return VYUY;
+		case V4L4JConstants.IMF_NV12:
+			return NV12;
+		case V4L4JConstants.IMF_NV21:
+			return NV21;
+		case V4L4JConstants.IMF_NV16:
+			return NV16;
+		case V4L4JConstants.IMF_NV61:
+			return NV61;
+		default:
+			throw new UnsupportedMethod("Image format " + format 
+					+ " cannot be converted in Java");
+		}
+	}
+
+	/**
+	 * This method returns whether frames in the given image format can be 
+	 * converted, ie. whether {@link #forFormat(int)} returns a converter.
+	 * @param format the index of the image format 
+	 * @return whether there is a converter for the given image format
+	 */
+	public static boolean isSupported(int format) {
+		try {
+			forFormat(format);
+			return true;
+		} catch (UnsupportedMethod e) {
+			return false;
+		}
+	}
+
+	/**
+	 * This method returns the index of the image format this converter
+	 * converts from.
+	 * @return the index of the source image format
+	 */
+	public final int getFormat() {
+		return format;
+	}
+
+	/**
+	 * This method returns the size of a frame in the source image format.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @return the size of the frame in bytes
+	 */
+	public abstract int getFrameSize(int width, int height);
+
+	/**
+	 * This method converts a frame to RGB24: 3 bytes per pixel, red first.
+	 * @param src the frame to convert, as returned by 
+	 * {@link VideoFrame#getBytes()}
+	 * @param dst the array where the converted frame is stored. It must be
+	 * at least <code>width * height * 3</code> bytes long.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * source image format, or if one of the arrays is too short
+	 */
+	public void toRGB24(byte[] src, byte[] dst, int width, int height) {
+		checkArguments(src.length, dst.length, RGB24, width, height);
+		rowsToRGB24(src, dst, width, height, 0, height, false);
+	}
+
+	/**
+	 * This method converts a frame to BGR24: 3 bytes per pixel, blue first.
+	 * This is the layout of {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR}
+	 * images.
+	 * @param src the frame to convert, as returned by 
+	 * {@link VideoFrame#getBytes()}
+	 * @param dst the array where the converted frame is stored. It must be
+	 * at least <code>width * height * 3</code> bytes long.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * source image format, or if one of the arrays is too short
+	 */
+	public void toBGR24(byte[] src, byte[] dst, int width, int height) {
+		checkArguments(src.length, dst.length, BGR24, width, height);
+		rowsToRGB24(src, dst, width, height, 0, height, true);
+	}
+
+	/**
+	 * This method converts a frame to ARGB: one int per pixel, with an alpha
+	 * of 255. This is the layout of 
+	 * {@link java.awt.image.BufferedImage#TYPE_INT_ARGB} and 
+	 * {@link java.awt.image.BufferedImage#TYPE_INT_RGB} images.
+	 * @param src the frame to convert, as returned by 
+	 * {@link VideoFrame#getBytes()}
+	 * @param dst the array where the converted frame is stored. It must be
+	 * at least <code>width * height</code> ints long.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * source image format, or if one of the arrays is too short
+	 */
+	public void toARGB(byte[] src, int[] dst, int width, int height) {
+		checkArguments(src.length, dst.length, ARGB, width, height);
+		rowsToARGB(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * This method extracts the luma of a frame: one byte per pixel.
+	 * This is the layout of 
+	 * {@link java.awt.image.BufferedImage#TYPE_BYTE_GRAY} images.
+	 * @param src the frame to convert, as returned by 
+	 * {@link VideoFrame#getBytes()}
+	 * @param dst the array where the converted frame is stored. It must be
+	 * at least <code>width * height</code> bytes long.
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * source image format, or if one of the arrays is too short
+	 */
+	public void toGrey(byte[] src, byte[] dst, int width, int height) {
+		checkArguments(src.length, dst.length, GREY, width, height);
+		rowsToGrey(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * This method converts a frame to planar YUV420: a full-size Y plane,
+	 * followed by U and V planes with half the width and height, as produced
+	 * by a {@link YUVFrameGrabber}. The chroma of 4:2:2 frames is averaged 
+	 * over pairs of rows.
+	 * @param src the frame to convert, as returned by 
+	 * {@link VideoFrame#getBytes()}
+	 * @param dst the array where the converted frame is stored. It must be
+	 * at least <code>width * height * 3 / 2</code> bytes long.
+	 * @param width the width of the frame
+	 * @param height the height of the frame, which must be even
+	 * @throws IllegalArgumentException if the dimensions are not valid for the
+	 * source image format, or if one of the arrays is too short
+	 */
+	public void toYUV420(byte[] src, byte[] dst, int width, int height) {
+		checkArguments(src.length, dst.length, YUV420, width, height);
+		rowsToYUV420(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * This method returns the length of the array needed to store a frame
+	 * in the given layout.
+	 * @param layout the layout of the converted frame
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @return the number of array elements needed
+	 */
+	static int getConvertedSize(int layout, int width, int height) {
+		switch (layout) {
+		case RGB24:
+		case BGR24:
+			return width * height * 3;
+		case YUV420:
+			return width * height * 3 / 2;
+		default:
+			return width * height;
+		}
+	}
+
+	/**
+	 * This method checks the dimensions and array lengths given to one of the
+	 * conversion methods.
+	 * @param src the length of the source array
+	 * @param dst the length of the destination array
+	 * @param layout the layout of the converted frame
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 */
+	void checkArguments(int src, int dst, int layout, int width, int height) {
+		if ((width <= 0) || (height <= 0) || (width > 0xffff) || (height > 0xffff))
+			throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+		if ((layout == YUV420) && (((width | height) & 1) != 0))
+			throw new IllegalArgumentException("The width and height of a YUV420 frame must be even");
+		if (src < getFrameSize(width, height))
+			throw new IllegalArgumentException("The source array is too short for a " 
+					+ width + "x" + height + " frame");
+		if (dst < getConvertedSize(layout, width, height))
+			throw new IllegalArgumentException("The destination array is too short for a "
+					+ width + "x" + height + " frame");
+	}
+
+	/**
+	 * This method converts rows <code>from</code> (inclusive) to 
+	 * <code>to</code> (exclusive) of a frame to RGB24 or BGR24.
+	 * @param src the frame to convert
+	 * @param dst the destination array
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @param from the first row to convert
+	 * @param to the row after the last one to convert
+	 * @param bgr whether to store blue first
+	 */
+	abstract void rowsToRGB24(byte[] src, byte[] dst, int width, int height, int from, int to, boolean bgr);
+
+	/**
+	 * This method converts rows <code>from</code> (inclusive) to 
+	 * <code>to</code> (exclusive) of a frame to ARGB.
+	 * @param src the frame to convert
+	 * @param dst the destination array
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @param from the first row to convert
+	 * @param to the row after the last one to convert
+	 */
+	abstract void rowsToARGB(byte[] src, int[] dst, int width, int height, int from, int to);
+
+	/**
+	 * This method extracts the luma of rows <code>from</code> (inclusive) to 
+	 * <code>to</code> (exclusive) of a frame.
+	 * @param src the frame to convert
+	 * @param dst the destination array
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @param from the first row to convert
+	 * @param to the row after the last one to convert
+	 */
+	abstract void rowsToGrey(byte[] src, byte[] dst, int width, int height, int from, int to);
+
+	/**
+	 * This method converts rows <code>from</code> (inclusive) to 
+	 * <code>to</code> (exclusive) of a frame to planar YUV420. Both must be
+	 * even.
+	 * @param src the frame to convert
+	 * @param dst the destination array
+	 * @param width the width of the frame
+	 * @param height the height of the frame
+	 * @param from the first row to convert
+	 * @param to the row after the last one to convert
+	 */
+	abstract void rowsToYUV420(byte[] src, byte[] dst, int width, int height, int from, int to);
+
+	@Override
+	public String toString() {
+		return "YUVConverter(" + format + ")";
+	}
+
+	/**
+	 * Packed 4:2:2 frames store 2 pixels in 4 bytes: a Y sample for each 
+	 * pixel, and a U and a V sample shared by both. Only the order of these
+	 * 4 bytes differs from one format to another.<br>
+	 * Each pair of pixels is converted in one iteration, so the chroma terms
+	 * are looked up once for both, and the inner loops only do table lookups,
+	 * additions and shifts. There is no Vector API before Java 16, so these 
+	 * loops are written to be easy for the JIT compiler to unroll, with the
+	 * byte offsets in local variables.
+	 */
+	private static final class Packed422 extends YUVConverter {
+		private final int	y0, u, y1, v;
+
+		Packed422(int f, int y0, int u, int y1, int v) {
+			super(f);
+			this.y0 = y0;
+			this.u = u;
+			this.y1 = y1;
+			this.v = v;
+		}
+
+		@Override
+		public int getFrameSize(int width, int height) {
+			return width * height * 2;
+		}
+
+		@Override
+		void checkArguments(int src, int dst, int layout, int width, int height) {
+			if ((width & 1) != 0)
+				throw new IllegalArgumentException("The width of a 4:2:2 frame must be even");
+			super.checkArguments(src, dst, layout, width, height);
+		}
+
+		@Override
+		void rowsToRGB24(byte[] src, byte[] dst, int width, int height, int from, int to, boolean bgr) {
+			int oy0 = y0, ou = u, oy1 = y1, ov = v;
+			int r = bgr ? 2 : 0, b = 2 - r;
+			int s = from * width * 2, end = to * width * 2;
+			int d = from * width * 3;
+
+			for (; s < end; s += 4, d += 6) {
+				int l0 = Y[src[s + oy0] & 0xff], l1 = Y[src[s + oy1] & 0xff];
+				int cu = src[s + ou] & 0xff, cv = src[s + ov] & 0xff;
+				int cr = V_R[cv], cg = U_G[cu] + V_G[cv], cb = U_B[cu];
+
+				dst[d + r] = CLAMP[(l0 + cr) >> SHIFT];
+				dst[d + 1] = CLAMP[(l0 + cg) >> SHIFT];
+				dst[d + b] = CLAMP[(l0 + cb) >> SHIFT];
+				dst[d + 3 + r] = CLAMP[(l1 + cr) >> SHIFT];
+				dst[d + 4] = CLAMP[(l1 + cg) >> SHIFT];
+				dst[d + 3 + b] = CLAMP[(l1 + cb) >> SHIFT];
+			}
+		}
+
+		@Override
+		void rowsToARGB(byte[] src, int[] dst, int width, int height, int from, int to) {
+			int oy0 = y0, ou = u, oy1 = y1, ov = v;
+			int s = from * width * 2, end = to * width * 2;
+			int d = from * width;
+
+			for (; s < end; s += 4, d += 2) {
+				int l0 = Y[src[s + oy0] & 0xff], l1 = Y[src[s + oy1] & 0xff];
+				int cu = src[s + ou] & 0xff, cv = src[s + ov] & 0xff;
+				int cr = V_R[cv], cg = U_G[cu] + V_G[cv], cb = U_B[cu];
+
+				dst[d] = 0xff000000
+						| ((CLAMP[(l0 + cr) >> SHIFT] & 0xff) << 16)
+						| ((CLAMP[(l0 + cg) >> SHIFT] & 0xff) << 8)
+						| (CLAMP[(l0 + cb) >> SHIFT] & 0xff);
+				dst[d + 1] = 0xff000000
+						| ((CLAMP[(l1 + cr) >> SHIFT] & 0xff) << 16)
+						| ((CLAMP[(l1 + cg) >> SHIFT] & 0xff) << 8)
+						| (CLAMP[(l1 + cb) >> SHIFT] & 0xff);
+			}
+		}
+
+		@Override
+		void rowsToGrey(byte[] src, byte[] dst, int width, int height, int from, int to) {
+			int oy0 = y0, oy1 = y1;
+			int s = from * width * 2, end = to * width * 2;
+			int d = from * width;
+
+			for (; s < end; s += 4, d += 2) {
+				dst[d] = src[s + oy0];
+				dst[d + 1] = src[s + oy1];
+			}
+		}
+
+		@Override
+		void rowsToYUV420(byte[] src, byte[] dst, int width, int height, int from, int to) {
+			int oy0 = y0, ou = u, oy1 = y1, ov = v;
+			int stride = width * 2;
+			int du = width * height + from / 2 * width / 2;
+			int dv = du + width * height / 4;
+
+			for (int row = from; row < to; row += 2) {
+				int s = row * stride, end = s + stride;
+				int d = row * width;
+
+				// luma of both rows, and chroma averaged over them
+				for (; s < end; s += 4, d += 2, du++, dv++) {
+					dst[d] = src[s + oy0];
+					dst[d + 1] = src[s + oy1];
+					dst[d + width] = src[s + stride + oy0];
+					dst[d + width + 1] = src[s + stride + oy1];
+					dst[du] = (byte) (((src[s + ou] & 0xff) + (src[s + stride + ou] & 0xff) + 1) >> 1);
+					dst[dv] = (byte) (((src[s + ov] & 0xff) + (src[s + stride + ov] & 0xff) + 1) >> 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Semi-planar frames store a full-size plane of Y samples, followed by a
+	 * plane of interleaved U and V samples, with half the width of the Y 
+	 * plane, and either half its height (4:2:0) or the same height (4:2:2).
+	 * Each pair of pixels shares a U and a V sample, as in packed 4:2:2 
+	 * frames, and is converted the same way.
+	 */
+	private static final class SemiPlanar extends YUVConverter {
+		private final int	u, v;
+		// log2 of the vertical chroma subsampling
+		private final int	shift;
+
+		SemiPlanar(int f, int u, int v, int shift) {
+			super(f);
+			this.u = u;
+			this.v = v;
+			this.shift = shift;
+		}
+
+		@Override
+		public int getFrameSize(int width, int height) {
+			return width * height + width * (height >> shift);
+		}
+
+		@Override
+		void checkArguments(int src, int dst, int layout, int width, int height) {
+			if ((width & 1) != 0)
+				throw new IllegalArgumentException("The width of a semi-planar frame must be even");
+			if ((shift == 1) && ((height & 1) != 0))
+				throw new IllegalArgumentException("The height of a 4:2:0 frame must be even");
+			super.checkArguments(src, dst, layout, width, height);
+		}
+
+		@Override
+		void rowsToRGB24(byte[] src, byte[] dst, int width, int height, int from, int to, boolean bgr) {
+			int ou = u, ov = v;
+			int r = bgr ? 2 : 0, b = 2 - r;
+			int chroma = width * height;
+
+			for (int row = from; row < to; row++) {
+				int s = row * width, end = s + width;
+				int c = chroma + (row >> shift) * width;
+				int d = row * width * 3;
+
+				for (; s < end; s += 2, c += 2, d += 6) {
+					int l0 = Y[src[s] & 0xff], l1 = Y[src[s + 1] & 0xff];
+					int cu = src[c + ou] & 0xff, cv = src[c + ov] & 0xff;
+					int cr = V_R[cv], cg = U_G[cu] + V_G[cv], cb = U_B[cu];
+
+					dst[d + r] = CLAMP[(l0 + cr) >> SHIFT];
+					dst[d + 1] = CLAMP[(l0 + cg) >> SHIFT];
+					dst[d + b] = CLAMP[(l0 + cb) >> SHIFT];
+					dst[d + 3 + r] = CLAMP[(l1 + cr) >> SHIFT];
+					dst[d + 4] = CLAMP[(l1 + cg) >> SHIFT];
+					dst[d + 3 + b] = CLAMP[(l1 + cb) >> SHIFT];
+				}
+			}
+		}
+
+		@Override
+		void rowsToARGB(byte[] src, int[] dst, int width, int height, int from, int to) {
+			int ou = u, ov = v;
+			int chroma = width * height;
+
+			for (int row = from; row < to; row++) {
+				int s = row * width, end = s + width;
+				int c = chroma + (row >> shift) * width;
+
+				for (; s < end; s += 2, c += 2) {
+					int l0 = Y[src[s] & 0xff], l1 = Y[src[s + 1] & 0xff];
+					int cu = src[c + ou] & 0xff, cv = src[c + ov] & 0xff;
+					int cr = V_R[cv], cg = U_G[cu] + V_G[cv], cb = U_B[cu];
+
+					dst[s] = 0xff000000
+							| ((CLAMP[(l0 + cr) >> SHIFT] & 0xff) << 16)
+							| ((CLAMP[(l0 + cg) >> SHIFT] & 0xff) << 8)
+							| (CLAMP[(l0 + cb) >> SHIFT] & 0xff);
+					dst[s + 1] = 0xff000000
+							| ((CLAMP[(l1 + cr) >> SHIFT] & 0xff) << 16)
+							| ((CLAMP[(l1 + cg) >> SHIFT] & 0xff) << 8)
+							| (CLAMP[(l1 + cb) >> SHIFT] & 0xff);
+				}
+			}
+		}
+
+		@Override
+		void rowsToGrey(byte[] src, byte[] dst, int width, int height, int from, int to) {
+			System.arraycopy(src, from * width, dst, from * width, (to - from) * width);
+		}
+
+		@Override
+		void rowsToYUV420(byte[] src, byte[] dst, int width, int height, int from, int to) {
+			int ou = u, ov = v;
+			int chroma = width * height;
+			int du = chroma + from / 2 * width / 2;
+			int dv = du + chroma / 4;
+
+			System.arraycopy(src, from * width, dst, from * width, (to - from) * width);
+			for (int row = from; row < to; row += 2) {
+				int c = chroma + (row >> shift) * width, end = c + width;
+
+				if (shift == 1) {
+					for (; c < end; c += 2, du++, dv++) {
+						dst[du] = src[c + ou];
+						dst[dv] = src[c + ov];
+					}
+				} else {
+					// average the chroma of both rows
+					for (; c < end; c += 2, du++, dv++) {
+						dst[du] = (byte) (((src[c + ou] & 0xff) + (src[c + width + ou] & 0xff) + 1) >> 1);
+						dst[dv] = (byte) (((src[c + ov] & 0xff) + (src[c + width + ov] & 0xff) + 1) >> 1);
+					}
+				}
+			}
+		}
+	}
+}
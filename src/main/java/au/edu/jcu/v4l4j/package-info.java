@@ -99,7 +99,8 @@
  * captured frame without further processing. When capturing in one of the 
  * convenience formats, v4l4j will transparently convert the image.<br>
  * Frame grabbers operate in push mode: the frame grabber
- * delivers captured frames to a callback object you provide.  
+ * delivers captured frames to a callback object you provide, or in pull mode,
+ * where your application retrieves frames from the frame grabber.
  *  
  * Frame capture in v4l4j is done using objects implementing the
  * {@link au.edu.jcu.v4l4j.FrameGrabber} interface. Check the documentation 